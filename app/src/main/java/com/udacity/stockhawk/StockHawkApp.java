@@ -1,6 +1,7 @@
 package com.udacity.stockhawk;
 
 import android.app.Application;
+import android.os.StrictMode;
 
 import timber.log.Timber;
 
@@ -13,6 +14,19 @@ public class StockHawkApp extends Application {
         if (BuildConfig.DEBUG) {
             Timber.uprootAll();
             Timber.plant(new Timber.DebugTree());
+
+            // Log disk and network access on the main thread, and leaked cursors
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .detectNetwork()
+                    .penaltyLog()
+                    .build());
+            StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder()
+                    .detectLeakedClosableObjects()
+                    .detectLeakedSqlLiteObjects()
+                    .penaltyLog()
+                    .build());
         }
     }
 }
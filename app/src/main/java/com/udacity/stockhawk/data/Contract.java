@@ -9,6 +9,22 @@ public final class Contract {
     static final String AUTHORITY = "com.udacity.stockhawk";
     static final String PATH_QUOTE = "quote";
     static final String PATH_QUOTE_WITH_SYMBOL = "quote/*";
+    static final String PATH_QUOTE_SUMMARY = "quote_summary";
+    static final String PATH_HISTORY = "history";
+    static final String PATH_HISTORY_WITH_SYMBOL = "quote/*/history";
+    static final String PATH_TICK = "tick";
+    static final String PATH_TICKS = "ticks";
+    static final String PATH_TICKS_WITH_SYMBOL = "quote/*/ticks";
+    static final String PATH_BARS = "bars";
+    static final String PATH_BARS_WITH_SYMBOL = "quote/*/bars";
+    static final String PATH_WATCHLIST = "watchlist";
+    static final String PATH_WATCHLIST_WITH_SYMBOL = "watchlist/*";
+    static final String PATH_LISTING = "listing";
+    static final String PATH_LISTING_WITH_SYMBOL = "listing/*";
+    /** Query parameter of a time range: the earliest time to return, in millis, inclusive. */
+    static final String PARAM_FROM = "from";
+    /** Query parameter of a time range: the latest time to return, in millis, inclusive. */
+    static final String PARAM_TO = "to";
     private static final Uri BASE_URI = Uri.parse("content://" + AUTHORITY);
 
     private Contract() {
@@ -17,24 +33,78 @@ public final class Contract {
     public static final class Quote implements BaseColumns {
 
         public static final Uri URI = BASE_URI.buildUpon().appendPath(PATH_QUOTE).build();
+        /**
+         * The URI for list-style queries, which return the SUMMARY_COLUMNS of every stock and
+         * never the history.
+         * Change notifications are issued on makeUriForStock(symbol) for each changed stock,
+         * and once per write or batch on SUMMARY_URI, so that observers can subscribe to only
+         * the stocks they display.  Cursors over several stocks are notified on SUMMARY_URI,
+         * which is not an ancestor of the per-stock URIs, so that a batch causes a single
+         * requery of a list rather than one per stock.
+         */
+        public static final Uri SUMMARY_URI =
+                BASE_URI.buildUpon().appendPath(PATH_QUOTE_SUMMARY).build();
         public static final String COLUMN_SYMBOL = "symbol";
         public static final String COLUMN_PRICE = "price";
         public static final String COLUMN_ABSOLUTE_CHANGE = "absolute_change";
         public static final String COLUMN_PERCENTAGE_CHANGE = "percentage_change";
+        /** The price, formatted for display.  Written by the provider with the price. */
+        public static final String COLUMN_DISPLAY_PRICE = "display_price";
+        /** The absolute change, formatted for display.  Written with the change. */
+        public static final String COLUMN_DISPLAY_ABSOLUTE_CHANGE = "display_absolute_change";
+        /** The percentage change, formatted for display.  Written with the change. */
+        public static final String COLUMN_DISPLAY_PERCENTAGE_CHANGE = "display_percentage_change";
+        /** 1 if the change is displayed as a rise, otherwise 0.  Written with the change. */
+        public static final String COLUMN_IS_UP = "is_up";
+        /**
+         * The number of times the history has been written, which a cache of data derived
+         * from the history can use to tell whether it is out of date.
+         * Maintained by the database.
+         */
+        public static final String COLUMN_HISTORY_VERSION = "history_version";
         public static final String COLUMN_HISTORY = "history";
+        /**
+         * The downsampled levels of the history, for charting long ranges (see HistoryPyramid).
+         * Written with the history.
+         */
+        public static final String COLUMN_HISTORY_PYRAMID = "history_pyramid";
         public static final int POSITION_ID = 0;
         public static final int POSITION_SYMBOL = 1;
         public static final int POSITION_PRICE = 2;
         public static final int POSITION_ABSOLUTE_CHANGE = 3;
         public static final int POSITION_PERCENTAGE_CHANGE = 4;
-        public static final int POSITION_HISTORY = 5;
+        public static final int POSITION_DISPLAY_PRICE = 5;
+        public static final int POSITION_DISPLAY_ABSOLUTE_CHANGE = 6;
+        public static final int POSITION_DISPLAY_PERCENTAGE_CHANGE = 7;
+        public static final int POSITION_IS_UP = 8;
+        public static final int POSITION_HISTORY_VERSION = 9;
+        public static final int POSITION_HISTORY = 10;
+        public static final int POSITION_HISTORY_PYRAMID = 11;
         public static final String[] QUOTE_COLUMNS = {
                 _ID,
                 COLUMN_SYMBOL,
                 COLUMN_PRICE,
                 COLUMN_ABSOLUTE_CHANGE,
                 COLUMN_PERCENTAGE_CHANGE,
-                COLUMN_HISTORY
+                COLUMN_DISPLAY_PRICE,
+                COLUMN_DISPLAY_ABSOLUTE_CHANGE,
+                COLUMN_DISPLAY_PERCENTAGE_CHANGE,
+                COLUMN_IS_UP,
+                COLUMN_HISTORY_VERSION,
+                COLUMN_HISTORY,
+                COLUMN_HISTORY_PYRAMID
+        };
+        /** The columns displayed in lists; the positions are the same as in QUOTE_COLUMNS. */
+        public static final String[] SUMMARY_COLUMNS = {
+                _ID,
+                COLUMN_SYMBOL,
+                COLUMN_PRICE,
+                COLUMN_ABSOLUTE_CHANGE,
+                COLUMN_PERCENTAGE_CHANGE,
+                COLUMN_DISPLAY_PRICE,
+                COLUMN_DISPLAY_ABSOLUTE_CHANGE,
+                COLUMN_DISPLAY_PERCENTAGE_CHANGE,
+                COLUMN_IS_UP
         };
         static final String TABLE_NAME = "quotes";
 
@@ -42,11 +112,284 @@ public final class Contract {
             return URI.buildUpon().appendPath(symbol).build();
         }
 
-        static String getStockFromUri(Uri queryUri) {
+        public static String getStockFromUri(Uri queryUri) {
             return queryUri.getLastPathSegment();
         }
 
 
     }
 
+    /**
+     * The price history of the stocks, one row per bar, kept in step with the history in the
+     * quotes table by every write of a quote's history.
+     * The history of a stock is queried through the URI returned by makeUriForStock, which
+     * may restrict the bars to a time range; the unique index on (symbol, bar_time) serves
+     * the range.  Changes are notified on the stock's quote URI, with the rest of the quote.
+     */
+    public static final class History implements BaseColumns {
+
+        public static final String COLUMN_SYMBOL = "symbol";
+        public static final String COLUMN_BAR_TIME = "bar_time";
+        public static final String COLUMN_CLOSE = "close";
+        public static final int POSITION_ID = 0;
+        public static final int POSITION_SYMBOL = 1;
+        public static final int POSITION_BAR_TIME = 2;
+        public static final int POSITION_CLOSE = 3;
+        public static final String[] HISTORY_COLUMNS = {
+                _ID,
+                COLUMN_SYMBOL,
+                COLUMN_BAR_TIME,
+                COLUMN_CLOSE
+        };
+        static final String TABLE_NAME = "history";
+
+        public static Uri makeUriForStock(String symbol) {
+            return Quote.makeUriForStock(symbol).buildUpon().appendPath(PATH_HISTORY).build();
+        }
+
+        public static Uri makeUriForStock(String symbol, long fromMillis, long toMillis) {
+            return makeUriForStock(symbol).buildUpon()
+                    .appendQueryParameter(PARAM_FROM, Long.toString(fromMillis))
+                    .appendQueryParameter(PARAM_TO, Long.toString(toMillis))
+                    .build();
+        }
+
+        static String getStockFromUri(Uri historyUri) {
+            // quote/<symbol>/history
+            return historyUri.getPathSegments().get(1);
+        }
+
+    }
+
+    /**
+     * The intraday price observations of the stocks, one row per observed quote.
+     * Ticks are bulk inserted through URI, and a stock's ticks are queried through the URI
+     * returned by makeUriForStock, which may restrict them to a time range.
+     * Ticks are kept for a limited period; older prices are kept as Bars.
+     */
+    public static final class Tick implements BaseColumns {
+
+        public static final Uri URI = BASE_URI.buildUpon().appendPath(PATH_TICK).build();
+        public static final String COLUMN_SYMBOL = "symbol";
+        public static final String COLUMN_TICK_TIME = "tick_time";
+        public static final String COLUMN_PRICE = "price";
+        public static final int POSITION_ID = 0;
+        public static final int POSITION_SYMBOL = 1;
+        public static final int POSITION_TICK_TIME = 2;
+        public static final int POSITION_PRICE = 3;
+        public static final String[] TICK_COLUMNS = {
+                _ID,
+                COLUMN_SYMBOL,
+                COLUMN_TICK_TIME,
+                COLUMN_PRICE
+        };
+        static final String TABLE_NAME = "ticks";
+
+        public static Uri makeUriForStock(String symbol) {
+            return Quote.makeUriForStock(symbol).buildUpon().appendPath(PATH_TICKS).build();
+        }
+
+        public static Uri makeUriForStock(String symbol, long fromMillis, long toMillis) {
+            return makeUriForStock(symbol).buildUpon()
+                    .appendQueryParameter(PARAM_FROM, Long.toString(fromMillis))
+                    .appendQueryParameter(PARAM_TO, Long.toString(toMillis))
+                    .build();
+        }
+
+        static String getStockFromUri(Uri ticksUri) {
+            // quote/<symbol>/ticks
+            return ticksUri.getPathSegments().get(1);
+        }
+
+    }
+
+    /**
+     * The intraday OHLC bars of the stocks, rolled up from the ticks by a background compaction
+     * (see METHOD_COMPACT), at several resolutions, each kept for a limited period.
+     * A stock's bars at one resolution are queried through the URI returned by
+     * makeUriForStock, which may restrict them to a time range.
+     */
+    public static final class Bar implements BaseColumns {
+
+        public static final String COLUMN_SYMBOL = "symbol";
+        public static final String COLUMN_RESOLUTION = "resolution";
+        public static final String COLUMN_BAR_TIME = "bar_time";
+        public static final String COLUMN_OPEN = "open";
+        public static final String COLUMN_HIGH = "high";
+        public static final String COLUMN_LOW = "low";
+        public static final String COLUMN_CLOSE = "close";
+        public static final String COLUMN_TICK_COUNT = "tick_count";
+        public static final int POSITION_ID = 0;
+        public static final int POSITION_SYMBOL = 1;
+        public static final int POSITION_RESOLUTION = 2;
+        public static final int POSITION_BAR_TIME = 3;
+        public static final int POSITION_OPEN = 4;
+        public static final int POSITION_HIGH = 5;
+        public static final int POSITION_LOW = 6;
+        public static final int POSITION_CLOSE = 7;
+        public static final int POSITION_TICK_COUNT = 8;
+        public static final String[] BAR_COLUMNS = {
+                _ID,
+                COLUMN_SYMBOL,
+                COLUMN_RESOLUTION,
+                COLUMN_BAR_TIME,
+                COLUMN_OPEN,
+                COLUMN_HIGH,
+                COLUMN_LOW,
+                COLUMN_CLOSE,
+                COLUMN_TICK_COUNT
+        };
+        /** The resolution of 5-minute bars, in millis. */
+        public static final long RESOLUTION_5_MINUTES = 5 * 60 * 1000L;
+        /** The resolution of hourly bars, in millis. */
+        public static final long RESOLUTION_HOUR = 60 * 60 * 1000L;
+        /** Query parameter: the resolution of the bars to return, in millis.  Required. */
+        public static final String PARAM_RESOLUTION = "resolution";
+        /**
+         * The provider method, called through ContentResolver.call on Tick.URI, which rolls the
+         * ticks up into bars and deletes the ticks and bars which are past their retention
+         * period.
+         */
+        public static final String METHOD_COMPACT = "compact";
+        /** The key, in the result of METHOD_COMPACT, of the number of bars written. */
+        public static final String RESULT_BARS_WRITTEN = "barsWritten";
+        /** The key, in the result of METHOD_COMPACT, of the number of rows deleted. */
+        public static final String RESULT_ROWS_DELETED = "rowsDeleted";
+        static final String TABLE_NAME = "bars";
+
+        public static Uri makeUriForStock(String symbol, long resolution) {
+            return makeNotificationUri(symbol).buildUpon()
+                    .appendQueryParameter(PARAM_RESOLUTION, Long.toString(resolution))
+                    .build();
+        }
+
+        public static Uri makeUriForStock(String symbol, long resolution,
+                                          long fromMillis, long toMillis) {
+            return makeUriForStock(symbol, resolution).buildUpon()
+                    .appendQueryParameter(PARAM_FROM, Long.toString(fromMillis))
+                    .appendQueryParameter(PARAM_TO, Long.toString(toMillis))
+                    .build();
+        }
+
+        /**
+         * Returns the URI on which changes to a stock's bars, at any resolution, are notified.
+         */
+        public static Uri makeNotificationUri(String symbol) {
+            return Quote.makeUriForStock(symbol).buildUpon().appendPath(PATH_BARS).build();
+        }
+
+        static String getStockFromUri(Uri barsUri) {
+            // quote/<symbol>/bars
+            return barsUri.getPathSegments().get(1);
+        }
+
+    }
+
+    /**
+     * The stocks which the user is watching, in the order in which they were added, with the
+     * outcome of their recent syncs.
+     * A stock is added by inserting into URI, which is ignored if the stock is already watched,
+     * and removed by deleting the URI returned by makeUriForStock.
+     */
+    public static final class Watchlist implements BaseColumns {
+
+        public static final Uri URI = BASE_URI.buildUpon().appendPath(PATH_WATCHLIST).build();
+        public static final String COLUMN_SYMBOL = "symbol";
+        public static final String COLUMN_ADDED_TIME = "added_time";
+        /** The time of the last sync which returned a quote for the stock, or null if none. */
+        public static final String COLUMN_LAST_SUCCESS_TIME = "last_success_time";
+        /** The number of syncs since the last success which returned no quote for the stock. */
+        public static final String COLUMN_FAILURE_COUNT = "failure_count";
+        public static final int POSITION_ID = 0;
+        public static final int POSITION_SYMBOL = 1;
+        public static final int POSITION_ADDED_TIME = 2;
+        public static final int POSITION_LAST_SUCCESS_TIME = 3;
+        public static final int POSITION_FAILURE_COUNT = 4;
+        public static final String[] WATCHLIST_COLUMNS = {
+                _ID,
+                COLUMN_SYMBOL,
+                COLUMN_ADDED_TIME,
+                COLUMN_LAST_SUCCESS_TIME,
+                COLUMN_FAILURE_COUNT
+        };
+        /** The default sort order: the order in which the stocks were added. */
+        public static final String DEFAULT_SORT_ORDER = _ID + " ASC";
+        /**
+         * The provider method, called through ContentResolver.call on URI, which records the
+         * outcome of a sync for a number of stocks, in one transaction.
+         */
+        public static final String METHOD_RECORD_SYNC = "recordSync";
+        /** The key, in the extras of METHOD_RECORD_SYNC, of the time of the sync. */
+        public static final String EXTRA_SYNC_TIME = "syncTime";
+        /** The key, in the extras of METHOD_RECORD_SYNC, of the stocks which were synced. */
+        public static final String EXTRA_SUCCEEDED = "succeeded";
+        /** The key, in the extras of METHOD_RECORD_SYNC, of the stocks which were not. */
+        public static final String EXTRA_FAILED = "failed";
+        static final String TABLE_NAME = "watchlist";
+
+        public static Uri makeUriForStock(String symbol) {
+            return URI.buildUpon().appendPath(symbol).build();
+        }
+
+        static String getStockFromUri(Uri watchlistUri) {
+            return watchlistUri.getLastPathSegment();
+        }
+
+    }
+
+    /**
+     * The directory of listed stocks, which is used to suggest and validate symbols without
+     * a network request.  It is bundled with the app and replaced when a new directory is
+     * downloaded, by bulk inserting the whole directory into URI.
+     * Listings are queried by symbol through makeUriForStock, or by symbol or name prefix
+     * through makeUriForPrefix.
+     */
+    public static final class Listing implements BaseColumns {
+
+        public static final Uri URI = BASE_URI.buildUpon().appendPath(PATH_LISTING).build();
+        public static final String COLUMN_SYMBOL = "symbol";
+        public static final String COLUMN_NAME = "name";
+        public static final String COLUMN_EXCHANGE = "exchange";
+        public static final int POSITION_ID = 0;
+        public static final int POSITION_SYMBOL = 1;
+        public static final int POSITION_NAME = 2;
+        public static final int POSITION_EXCHANGE = 3;
+        public static final String[] LISTING_COLUMNS = {
+                _ID,
+                COLUMN_SYMBOL,
+                COLUMN_NAME,
+                COLUMN_EXCHANGE
+        };
+        /** Query parameter: the prefix of the symbols or names of the listings to return. */
+        public static final String PARAM_PREFIX = "prefix";
+        /** Query parameter: the maximum number of listings to return. */
+        public static final String PARAM_LIMIT = "limit";
+        /** The upper-case name, on which name prefixes are matched. */
+        static final String COLUMN_NAME_KEY = "name_key";
+        static final String TABLE_NAME = "listings";
+
+        public static Uri makeUriForStock(String symbol) {
+            return URI.buildUpon().appendPath(symbol).build();
+        }
+
+        /**
+         * Returns the URI of the listings whose symbol or name starts with a prefix, ignoring
+         * case: first those matching on symbol, in symbol order, then those matching on name.
+         * @param prefix the prefix
+         * @param limit the maximum number of listings
+         * @return the URI
+         */
+        public static Uri makeUriForPrefix(String prefix, int limit) {
+            return URI.buildUpon()
+                    .appendQueryParameter(PARAM_PREFIX, prefix)
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
+        static String getStockFromUri(Uri listingUri) {
+            return listingUri.getLastPathSegment();
+        }
+
+    }
+
 }
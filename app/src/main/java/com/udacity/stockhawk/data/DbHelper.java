@@ -1,21 +1,100 @@
 package com.udacity.stockhawk.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.preference.PreferenceManager;
 
+import com.udacity.stockhawk.R;
+import com.udacity.stockhawk.data.Contract.Bar;
+import com.udacity.stockhawk.data.Contract.History;
+import com.udacity.stockhawk.data.Contract.Listing;
 import com.udacity.stockhawk.data.Contract.Quote;
+import com.udacity.stockhawk.data.Contract.Tick;
+import com.udacity.stockhawk.data.Contract.Watchlist;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import timber.log.Timber;
 
 
 class DbHelper extends SQLiteOpenHelper {
 
 
     private static final String NAME = "StockHawk.db";
-    private static final int VERSION = 1;
+    /**
+     * Version history:
+     * 1 - quotes table, with the history of each stock as text
+     * 2 - history table, with one row per bar (dropped in 10, restored in 12)
+     * 3 - the history of each stock in the quotes table encoded by HistoryCodec
+     * 4 - ticks and bars tables, for intraday prices
+     * 5 - watchlist table, replacing the set of stocks in the preferences
+     * 6 - display values in the quotes table, formatted when each quote is written
+     * 7 - listings table, the directory of listed stocks
+     * 8 - history version in the quotes table
+     * 9 - history pyramid in the quotes table, for charting long ranges
+     * 10 - history table dropped, as nothing read it
+     * 11 - listed symbols stored with '-' rather than '.' before a share class, e.g. BRK-B
+     * 12 - history table restored, kept in step with the quotes table, for range queries
+     */
+    private static final int VERSION = 12;
+
+    /**
+     * The number of WAL pages after which a commit checkpoints the WAL into the database.
+     * Below SQLite's default of 1000, as a sync commits in small chunks and a short WAL keeps
+     * reads fast.
+     */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 500;
+    /** The size to which the WAL file is truncated after a checkpoint. */
+    private static final long WAL_SIZE_LIMIT_BYTES = 512 * 1024;
 
 
+    private final Context context;
+    /** Whether the watchlist has been populated from the preferences since the last open. */
+    private boolean watchlistPopulated;
+
     DbHelper(Context context) {
         super(context, NAME, null, VERSION);
+        this.context = context;
+        // With write-ahead logging, readers see the last committed data while a sync is
+        // writing, rather than waiting for it, and the connection pool opens several
+        // connections so that readers run in parallel
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // PRAGMAs which return a result must be run as queries
+        runPragma(db, "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+        runPragma(db, "PRAGMA journal_size_limit = " + WAL_SIZE_LIMIT_BYTES);
+
+        // The stocks in the preferences are only removed once the migration which copied them
+        // to the watchlist table has been committed, which it has when the database is opened
+        if (watchlistPopulated) {
+            String stocksKey = context.getString(R.string.pref_stocks_key);
+            PreferenceManager.getDefaultSharedPreferences(context).edit()
+                    .remove(stocksKey)
+                    .apply();
+            watchlistPopulated = false;
+        }
+    }
+
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -26,18 +105,342 @@ class DbHelper extends SQLiteOpenHelper {
                 + Quote.COLUMN_PRICE + " REAL NOT NULL, "
                 + Quote.COLUMN_ABSOLUTE_CHANGE + " REAL NOT NULL, "
                 + Quote.COLUMN_PERCENTAGE_CHANGE + " REAL NOT NULL, "
-                + Quote.COLUMN_HISTORY + " TEXT NOT NULL, "
+                + Quote.COLUMN_DISPLAY_PRICE + " TEXT, "
+                + Quote.COLUMN_DISPLAY_ABSOLUTE_CHANGE + " TEXT, "
+                + Quote.COLUMN_DISPLAY_PERCENTAGE_CHANGE + " TEXT, "
+                + Quote.COLUMN_IS_UP + " INTEGER NOT NULL DEFAULT 0, "
+                + Quote.COLUMN_HISTORY_VERSION + " INTEGER NOT NULL DEFAULT 0, "
+                + Quote.COLUMN_HISTORY + " BLOB NOT NULL, "
+                + Quote.COLUMN_HISTORY_PYRAMID + " BLOB, "
                 + "UNIQUE (" + Quote.COLUMN_SYMBOL + ") ON CONFLICT REPLACE);";
 
         db.execSQL(builder);
+        createHistoryVersionTrigger(db);
 
+        createHistoryTable(db);
+        createIntradayTables(db);
+        createWatchlistTable(db);
+        populateWatchlist(db);
+        createListingsTable(db);
+        loadBundledListings(db);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // onUpgrade runs in a transaction, so a failed migration leaves the old schema intact
+        if (oldVersion < 3) {
+            encodeTextHistories(db);
+        }
+        if (oldVersion < 4) {
+            createIntradayTables(db);
+        }
+        if (oldVersion < 5) {
+            createWatchlistTable(db);
+            populateWatchlist(db);
+        }
+        if (oldVersion < 6) {
+            addDisplayColumns(db);
+        }
+        if (oldVersion < 7) {
+            createListingsTable(db);
+            loadBundledListings(db);
+        }
+        if (oldVersion < 8) {
+            db.execSQL("ALTER TABLE " + Quote.TABLE_NAME + " ADD COLUMN "
+                    + Quote.COLUMN_HISTORY_VERSION + " INTEGER NOT NULL DEFAULT 0;");
+            createHistoryVersionTrigger(db);
+        }
+        if (oldVersion < 9) {
+            db.execSQL("ALTER TABLE " + Quote.TABLE_NAME + " ADD COLUMN "
+                    + Quote.COLUMN_HISTORY_PYRAMID + " BLOB;");
+            buildHistoryPyramids(db);
+        }
+        if (oldVersion < 10) {
+            // The delete trigger is on the quotes table, so is not dropped with the table
+            db.execSQL("DROP TRIGGER IF EXISTS " + Quote.TABLE_NAME + "_delete_"
+                    + History.TABLE_NAME + ";");
+            db.execSQL("DROP TABLE IF EXISTS " + History.TABLE_NAME + ";");
+        }
+        if (oldVersion < 11) {
+            db.execSQL("UPDATE " + Listing.TABLE_NAME + " SET " + Listing.COLUMN_SYMBOL
+                    + " = REPLACE(" + Listing.COLUMN_SYMBOL + ", '.', '-');");
+        }
+        if (oldVersion < 12) {
+            createHistoryTable(db);
+            copyHistoriesToHistoryTable(db);
+        }
+    }
+
+    /**
+     * Creates a trigger which increments a quote's history version whenever its history is
+     * written, by any statement.  (The trigger's own update does not write the history, so it
+     * does not fire the trigger again.)
+     */
+    private static void createHistoryVersionTrigger(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER " + Quote.TABLE_NAME + "_" + Quote.COLUMN_HISTORY_VERSION
+                + " AFTER UPDATE OF " + Quote.COLUMN_HISTORY + " ON " + Quote.TABLE_NAME
+                + " BEGIN"
+                + " UPDATE " + Quote.TABLE_NAME
+                + " SET " + Quote.COLUMN_HISTORY_VERSION + " = "
+                + Quote.COLUMN_HISTORY_VERSION + " + 1"
+                + " WHERE " + Quote._ID + " = NEW." + Quote._ID + ";"
+                + " END;");
+    }
+
+    /**
+     * Creates the history table.  The unique index on (symbol, bar_time) also serves range
+     * queries on a stock's history.  A stock's history is deleted when its quote is deleted.
+     */
+    private static void createHistoryTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + History.TABLE_NAME + " ("
+                + History._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + History.COLUMN_SYMBOL + " TEXT NOT NULL, "
+                + History.COLUMN_BAR_TIME + " INTEGER NOT NULL, "
+                + History.COLUMN_CLOSE + " REAL NOT NULL, "
+                + "UNIQUE (" + History.COLUMN_SYMBOL + ", " + History.COLUMN_BAR_TIME
+                + ") ON CONFLICT REPLACE);");
+
+        createDeleteTrigger(db, History.TABLE_NAME, History.COLUMN_SYMBOL);
+    }
+
+    /**
+     * Creates the ticks and bars tables.  A repeated observation of the same trade is ignored,
+     * while a bar which is rolled up again replaces the previous one.  A stock's ticks and bars
+     * are deleted when its quote is deleted; replacing a quote does not fire the triggers, as
+     * recursive triggers are disabled.
+     */
+    private static void createIntradayTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + Tick.TABLE_NAME + " ("
+                + Tick._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + Tick.COLUMN_SYMBOL + " TEXT NOT NULL, "
+                + Tick.COLUMN_TICK_TIME + " INTEGER NOT NULL, "
+                + Tick.COLUMN_PRICE + " REAL NOT NULL, "
+                + "UNIQUE (" + Tick.COLUMN_SYMBOL + ", " + Tick.COLUMN_TICK_TIME
+                + ") ON CONFLICT IGNORE);");
+
+        db.execSQL("CREATE TABLE " + Bar.TABLE_NAME + " ("
+                + Bar._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + Bar.COLUMN_SYMBOL + " TEXT NOT NULL, "
+                + Bar.COLUMN_RESOLUTION + " INTEGER NOT NULL, "
+                + Bar.COLUMN_BAR_TIME + " INTEGER NOT NULL, "
+                + Bar.COLUMN_OPEN + " REAL NOT NULL, "
+                + Bar.COLUMN_HIGH + " REAL NOT NULL, "
+                + Bar.COLUMN_LOW + " REAL NOT NULL, "
+                + Bar.COLUMN_CLOSE + " REAL NOT NULL, "
+                + Bar.COLUMN_TICK_COUNT + " INTEGER NOT NULL, "
+                + "UNIQUE (" + Bar.COLUMN_SYMBOL + ", " + Bar.COLUMN_RESOLUTION + ", "
+                + Bar.COLUMN_BAR_TIME + ") ON CONFLICT REPLACE);");
+
+        // Retention deletes by time across all stocks
+        db.execSQL("CREATE INDEX " + Tick.TABLE_NAME + "_" + Tick.COLUMN_TICK_TIME
+                + " ON " + Tick.TABLE_NAME + " (" + Tick.COLUMN_TICK_TIME + ");");
+        db.execSQL("CREATE INDEX " + Bar.TABLE_NAME + "_" + Bar.COLUMN_RESOLUTION
+                + "_" + Bar.COLUMN_BAR_TIME + " ON " + Bar.TABLE_NAME
+                + " (" + Bar.COLUMN_RESOLUTION + ", " + Bar.COLUMN_BAR_TIME + ");");
+
+        createDeleteTrigger(db, Tick.TABLE_NAME, Tick.COLUMN_SYMBOL);
+        createDeleteTrigger(db, Bar.TABLE_NAME, Bar.COLUMN_SYMBOL);
+    }
+
+    /**
+     * Adds the display columns to the quotes table, and formats the display values of the
+     * stored quotes.
+     */
+    private static void addDisplayColumns(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + Quote.TABLE_NAME
+                + " ADD COLUMN " + Quote.COLUMN_DISPLAY_PRICE + " TEXT;");
+        db.execSQL("ALTER TABLE " + Quote.TABLE_NAME
+                + " ADD COLUMN " + Quote.COLUMN_DISPLAY_ABSOLUTE_CHANGE + " TEXT;");
+        db.execSQL("ALTER TABLE " + Quote.TABLE_NAME
+                + " ADD COLUMN " + Quote.COLUMN_DISPLAY_PERCENTAGE_CHANGE + " TEXT;");
+        db.execSQL("ALTER TABLE " + Quote.TABLE_NAME
+                + " ADD COLUMN " + Quote.COLUMN_IS_UP + " INTEGER NOT NULL DEFAULT 0;");
+
+        QuoteFormat format = new QuoteFormat();
+        Cursor cursor = null;
+        try {
+            cursor = db.query(Quote.TABLE_NAME,
+                    new String[]{Quote._ID, Quote.COLUMN_PRICE, Quote.COLUMN_ABSOLUTE_CHANGE,
+                            Quote.COLUMN_PERCENTAGE_CHANGE},
+                    null, null, null, null, null);
+            while (cursor.moveToNext()) {
+                db.update(Quote.TABLE_NAME,
+                        format.getDisplayValues(cursor.getFloat(1), cursor.getFloat(2),
+                                cursor.getFloat(3)),
+                        Quote._ID + " = ?",
+                        new String[]{Long.toString(cursor.getLong(0))});
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Creates the watchlist table.  The rowid gives the order in which the stocks were added,
+     * and the unique index on the symbol makes adding and removing a stock a single indexed
+     * write.  Adding a stock which is already watched is ignored, so that it keeps its place.
+     */
+    private static void createWatchlistTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + Watchlist.TABLE_NAME + " ("
+                + Watchlist._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + Watchlist.COLUMN_SYMBOL + " TEXT NOT NULL, "
+                + Watchlist.COLUMN_ADDED_TIME + " INTEGER NOT NULL, "
+                + Watchlist.COLUMN_LAST_SUCCESS_TIME + " INTEGER, "
+                + Watchlist.COLUMN_FAILURE_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + "UNIQUE (" + Watchlist.COLUMN_SYMBOL + ") ON CONFLICT IGNORE);");
+    }
+
+    /**
+     * Populates the watchlist with the stocks in the preferences, in which the watchlist was
+     * kept before version 5, or with the default stocks if the preferences have never been
+     * initialized.  The set in the preferences is unordered, so its stocks are added in
+     * symbol order.
+     */
+    private void populateWatchlist(SQLiteDatabase db) {
+        String stocksKey = context.getString(R.string.pref_stocks_key);
+        String initializedKey = context.getString(R.string.pref_stocks_initialized_key);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+
+        List<String> symbols;
+        if (prefs.getBoolean(initializedKey, false)) {
+            Set<String> storedStocks = prefs.getStringSet(stocksKey, null);
+            symbols = storedStocks == null
+                    ? new ArrayList<String>() : new ArrayList<>(storedStocks);
+            Collections.sort(symbols);
+        } else {
+            symbols = Arrays.asList(context.getResources().getStringArray(R.array.default_stocks));
+        }
+
+        long now = System.currentTimeMillis();
+        for (String symbol : symbols) {
+            ContentValues watchlistCV = new ContentValues();
+            watchlistCV.put(Watchlist.COLUMN_SYMBOL, symbol);
+            watchlistCV.put(Watchlist.COLUMN_ADDED_TIME, now);
+            db.insert(Watchlist.TABLE_NAME, null, watchlistCV);
+        }
+        watchlistPopulated = true;
+    }
+
+    /**
+     * Creates the listings table.  The unique index on the symbol serves both lookups of a
+     * symbol and range scans for a symbol prefix, and the index on the upper-case name serves
+     * range scans for a name prefix.
+     */
+    private static void createListingsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + Listing.TABLE_NAME + " ("
+                + Listing._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + Listing.COLUMN_SYMBOL + " TEXT NOT NULL, "
+                + Listing.COLUMN_NAME + " TEXT NOT NULL, "
+                + Listing.COLUMN_EXCHANGE + " TEXT NOT NULL, "
+                + Listing.COLUMN_NAME_KEY + " TEXT NOT NULL, "
+                + "UNIQUE (" + Listing.COLUMN_SYMBOL + ") ON CONFLICT IGNORE);");
+        db.execSQL("CREATE INDEX " + Listing.TABLE_NAME + "_" + Listing.COLUMN_NAME_KEY
+                + " ON " + Listing.TABLE_NAME + " (" + Listing.COLUMN_NAME_KEY + ");");
+    }
+
+    /**
+     * Loads the directory bundled with the app.  If it cannot be read, the directory is left
+     * empty, and symbols are validated by the sync instead.
+     */
+    private void loadBundledListings(SQLiteDatabase db) {
+        try {
+            int count = SymbolDirectory.loadBundled(context, db);
+            Timber.d("Loaded %d bundled listings", count);
+        } catch (IOException e) {
+            Timber.e(e, "Error loading the bundled listings");
+        }
+    }
+
+    /**
+     * Creates a trigger which deletes a stock's rows from a table when its quote is deleted.
+     */
+    private static void createDeleteTrigger(SQLiteDatabase db, String table, String symbolColumn) {
+        db.execSQL("CREATE TRIGGER " + Quote.TABLE_NAME + "_delete_" + table
+                + " AFTER DELETE ON " + Quote.TABLE_NAME + " BEGIN"
+                + " DELETE FROM " + table
+                + " WHERE " + symbolColumn + " = OLD." + Quote.COLUMN_SYMBOL + ";"
+                + " END;");
+    }
+
+    /**
+     * Populates the history table from the history of each stock in the quotes table.
+     */
+    private static void copyHistoriesToHistoryTable(SQLiteDatabase db) {
+        Cursor cursor = null;
+        HistoryWriter writer = new HistoryWriter(db);
+        try {
+            cursor = db.query(Quote.TABLE_NAME,
+                    new String[]{Quote.COLUMN_SYMBOL, Quote.COLUMN_HISTORY},
+                    null, null, null, null, null);
+            while (cursor.moveToNext()) {
+                writer.replace(cursor.getString(0), cursor.getBlob(1));
+            }
+        } finally {
+            writer.close();
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Re-encodes the text history of each stock in the quotes table with HistoryCodec.
+     * (The column keeps its TEXT declaration in upgraded databases, but SQLite stores a BLOB
+     * in it unchanged.)
+     */
+    private static void encodeTextHistories(SQLiteDatabase db) {
+        Cursor cursor = null;
+        try {
+            cursor = db.query(Quote.TABLE_NAME,
+                    new String[]{Quote._ID, Quote.COLUMN_HISTORY},
+                    null, null, null, null, null);
+            while (cursor.moveToNext()) {
+                byte[] history = cursor.getBlob(1);
+                if (!HistoryCodec.isLegacyText(history)) {
+                    continue;
+                }
+                int size = HistoryCodec.getSize(history);
+                long[] millis = new long[size];
+                float[] closes = new float[size];
+                HistoryCodec.decode(history, millis, closes);
+
+                ContentValues quoteCV = new ContentValues();
+                quoteCV.put(Quote.COLUMN_HISTORY, HistoryCodec.encode(millis, closes, size));
+                db.update(Quote.TABLE_NAME, quoteCV, Quote._ID + " = ?",
+                        new String[]{Long.toString(cursor.getLong(0))});
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
 
-        db.execSQL(" DROP TABLE IF EXISTS " + Quote.TABLE_NAME);
+    /**
+     * Builds the history pyramid of each stock in the quotes table.  Only the pyramid column
+     * is written, so the history versions are unchanged.
+     */
+    private static void buildHistoryPyramids(SQLiteDatabase db) {
+        Cursor cursor = null;
+        try {
+            cursor = db.query(Quote.TABLE_NAME,
+                    new String[]{Quote._ID, Quote.COLUMN_HISTORY},
+                    null, null, null, null, null);
+            while (cursor.moveToNext()) {
+                HistorySeries history = HistorySeries.decode(cursor.getBlob(1));
 
-        onCreate(db);
+                ContentValues quoteCV = new ContentValues();
+                quoteCV.put(Quote.COLUMN_HISTORY_PYRAMID,
+                        HistoryPyramid.build(history).encodeLevels());
+                db.update(Quote.TABLE_NAME, quoteCV, Quote._ID + " = ?",
+                        new String[]{Long.toString(cursor.getLong(0))});
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
     }
 }
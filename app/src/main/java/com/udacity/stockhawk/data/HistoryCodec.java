@@ -0,0 +1,230 @@
+package com.udacity.stockhawk.data;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * The binary encoding of a stock's history, as stored in Contract.Quote.COLUMN_HISTORY.
+ * The points are stored most recent first.  Version 1 of the encoding is:
+ * <pre>
+ *     version byte (1)
+ *     varint  the number of points
+ *     for the first point:  zigzag varint time in millis, zigzag varint close
+ *     for each later point: zigzag varint change in the time step, zigzag varint change in close
+ * </pre>
+ * Closes are stored as fixed-point values with CLOSE_SCALE units per dollar.  As the time
+ * between weekly points is almost always the same, and the close changes little from week to
+ * week, most points take three or four bytes.
+ * Histories stored by earlier versions of the app, as text with one "millis, close" line per
+ * point, are also decoded.  A corrupt history, e.g. one which has been truncated, is decoded
+ * as having no points.
+ * This class uses no Android APIs.
+ */
+public final class HistoryCodec {
+
+    private static final byte VERSION_1 = 1;
+    /** The number of fixed-point units per dollar, i.e. closes are stored to 4 decimal places. */
+    private static final double CLOSE_SCALE = 10000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] EMPTY = encode(new long[0], new float[0], 0);
+
+    private HistoryCodec() {
+    }
+
+    /**
+     * Returns the encoding of a history with no points.
+     * @return the encoded history
+     */
+    public static byte[] empty() {
+        return EMPTY.clone();
+    }
+
+    /**
+     * Encodes a history.
+     * @param millis the time of each point, most recent first
+     * @param closes the close of each point
+     * @param count the number of points
+     * @return the encoded history
+     */
+    public static byte[] encode(long[] millis, float[] closes, int count) {
+        // Each point takes at most two 10-byte varints
+        byte[] buffer = new byte[1 + 5 + count * 20];
+        int position = 0;
+        buffer[position++] = VERSION_1;
+        position = writeVarint(buffer, position, count);
+
+        long previousMillis = 0;
+        long previousStep = 0;
+        long previousClose = 0;
+        for (int i = 0; i < count; i++) {
+            long close = Math.round(closes[i] * CLOSE_SCALE);
+            if (i == 0) {
+                position = writeVarint(buffer, position, zigzag(millis[i]));
+                position = writeVarint(buffer, position, zigzag(close));
+            } else {
+                long step = millis[i] - previousMillis;
+                position = writeVarint(buffer, position, zigzag(step - previousStep));
+                position = writeVarint(buffer, position, zigzag(close - previousClose));
+                previousStep = step;
+            }
+            previousMillis = millis[i];
+            previousClose = close;
+        }
+        return Arrays.copyOf(buffer, position);
+    }
+
+    /**
+     * Returns the number of points in an encoded history.
+     * @param encoded the encoded history, or null
+     * @return the number of points, or 0 if the history is null, empty or corrupt
+     */
+    public static int getSize(byte[] encoded) {
+        if (encoded == null || encoded.length == 0) {
+            return 0;
+        }
+        if (encoded[0] != VERSION_1) {
+            return decodeText(encoded, null, null);
+        }
+        try {
+            int[] position = {1};
+            long count = readVarint(encoded, position);
+            // Each point takes at least two bytes, so a larger count can only be corrupt, and
+            // must not be trusted to size the arrays
+            return count <= (encoded.length - position[0]) / 2 ? (int) count : 0;
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Decodes a history into arrays, which must have at least getSize(encoded) elements.
+     * @param encoded the encoded history, or null
+     * @param millis receives the time of each point, most recent first
+     * @param closes receives the close of each point
+     * @return the number of points decoded, which is getSize(encoded), or 0 if the history is
+     *         corrupt
+     */
+    public static int decode(byte[] encoded, long[] millis, float[] closes) {
+        if (encoded == null || encoded.length == 0) {
+            return 0;
+        }
+        if (encoded[0] != VERSION_1) {
+            return decodeText(encoded, millis, closes);
+        }
+        int count = getSize(encoded);
+        if (count == 0) {
+            return 0;
+        }
+        try {
+            decodePoints(encoded, count, millis, closes);
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+        return count;
+    }
+
+    private static void decodePoints(byte[] encoded, int count, long[] millis, float[] closes) {
+        int[] position = {1};
+        // Skip the count
+        readVarint(encoded, position);
+        long previousMillis = 0;
+        long previousStep = 0;
+        long previousClose = 0;
+        for (int i = 0; i < count; i++) {
+            long time;
+            long close;
+            if (i == 0) {
+                time = unzigzag(readVarint(encoded, position));
+                close = unzigzag(readVarint(encoded, position));
+            } else {
+                long step = previousStep + unzigzag(readVarint(encoded, position));
+                time = previousMillis + step;
+                close = previousClose + unzigzag(readVarint(encoded, position));
+                previousStep = step;
+            }
+            millis[i] = time;
+            closes[i] = (float) (close / CLOSE_SCALE);
+            previousMillis = time;
+            previousClose = close;
+        }
+    }
+
+    /**
+     * Returns whether a stored history is in the text format of earlier versions of the app.
+     * @param encoded the stored history
+     * @return true if the history is text which should be re-encoded
+     */
+    public static boolean isLegacyText(byte[] encoded) {
+        return encoded != null && encoded.length > 0 && encoded[0] != VERSION_1;
+    }
+
+    /**
+     * Decodes a history in the text format, one "millis, close" line per point.
+     * Lines which cannot be parsed are skipped.
+     * @param millis receives the time of each point, or null to only count the points
+     * @param closes receives the close of each point, or null to only count the points
+     * @return the number of points
+     */
+    private static int decodeText(byte[] text, long[] millis, float[] closes) {
+        int count = 0;
+        for (String dataPoint : new String(text, UTF_8).split("\n")) {
+            int separator = dataPoint.indexOf(',');
+            if (separator < 0) {
+                continue;
+            }
+            try {
+                long time = Long.parseLong(dataPoint.substring(0, separator).trim());
+                float close = Float.parseFloat(dataPoint.substring(separator + 1).trim());
+                if (millis != null && closes != null) {
+                    millis[count] = time;
+                    closes[count] = close;
+                }
+                count++;
+            } catch (NumberFormatException e) {
+                // skip the malformed line
+            }
+        }
+        return count;
+    }
+
+    //---------------------------------------------------------------------------
+    // Varints
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int writeVarint(byte[] buffer, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     * Reads a varint.
+     * @param position the position to read from, which is advanced past the varint
+     * @throws IllegalArgumentException if the varint runs past the end of the buffer, or is
+     *                                  too long for a long
+     */
+    private static long readVarint(byte[] buffer, int[] position) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (position[0] >= buffer.length || shift > 63) {
+                throw new IllegalArgumentException("Corrupt varint at " + position[0]);
+            }
+            b = buffer[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,343 @@
+package com.udacity.stockhawk.data;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pyramid of ever coarser versions of a stock's history, from which any range of the
+ * history can be charted with no more than MAX_POINTS points.
+ * <p>
+ * Level 0 is the history itself.  Each higher level downsamples the level below it with the
+ * largest-triangle-three-buckets algorithm (LTTB), which keeps the points that contribute
+ * most to the shape of the line.  The points of the level below are grouped into buckets of
+ * a fixed time span, which doubles from level to level, and one point is kept from each
+ * bucket: the one which forms the largest triangle with the point kept from the previous
+ * bucket and the average of the next bucket.  The first and last points are always kept.
+ * Levels are added until one has no more than MAX_POINTS points.
+ * <p>
+ * The buckets are aligned to fixed times rather than to the first point, so adding points to
+ * the history, or dropping the oldest, leaves the other buckets as they were.  update()
+ * therefore only runs LTTB for the buckets whose points or neighbours have changed, and copies
+ * the other kept points from the previous pyramid.
+ * <p>
+ * The levels above 0 are stored in Contract.Quote.COLUMN_HISTORY_PYRAMID, in the format
+ * written by encodeLevels().
+ * This class uses no Android APIs.
+ */
+public final class HistoryPyramid {
+
+    /** The maximum number of points from which any range of the history is charted. */
+    public static final int MAX_POINTS = 256;
+    /** The span of the buckets of level 1, in millis: two weekly points. */
+    private static final long LEVEL_1_SPAN_MILLIS = 2 * 7 * 24 * 60 * 60 * 1000L;
+    private static final byte FORMAT_VERSION_1 = 1;
+
+    /** The levels, level 0 being the history. */
+    private final HistorySeries[] levels;
+
+    private HistoryPyramid(HistorySeries[] levels) {
+        this.levels = levels;
+    }
+
+    /**
+     * Builds the pyramid of a history.
+     * @param history the history, oldest point first
+     * @return the pyramid
+     */
+    public static HistoryPyramid build(HistorySeries history) {
+        return create(null, history);
+    }
+
+    /**
+     * Returns the pyramid of a new version of the history of this pyramid, reusing the points
+     * kept from the buckets which have not changed.
+     * @param history the new history, oldest point first
+     * @return the pyramid of the new history
+     */
+    public HistoryPyramid update(HistorySeries history) {
+        return create(this, history);
+    }
+
+    /**
+     * Decodes the stored levels of a pyramid.  If they cannot be decoded, or a level is empty,
+     * as a corrupt level decodes as empty, the pyramid is built again from the history.
+     * @param history the history, oldest point first
+     * @param encodedLevels the levels above 0, encoded by encodeLevels(), or null
+     * @return the pyramid
+     */
+    public static HistoryPyramid decode(HistorySeries history, byte[] encodedLevels) {
+        if (encodedLevels == null || encodedLevels.length == 0
+                || encodedLevels[0] != FORMAT_VERSION_1) {
+            return build(history);
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(encodedLevels);
+            buffer.get();
+            HistorySeries[] levels = new HistorySeries[1 + buffer.getInt()];
+            levels[0] = history;
+            for (int level = 1; level < levels.length; level++) {
+                byte[] encoded = new byte[buffer.getInt()];
+                buffer.get(encoded);
+                levels[level] = HistorySeries.decode(encoded);
+                // A level above 0 always keeps at least the first and last points
+                if (levels[level].isEmpty()) {
+                    return build(history);
+                }
+            }
+            return new HistoryPyramid(levels);
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            return build(history);
+        }
+    }
+
+    /**
+     * Encodes the levels above 0, for storing with the history: a version byte, the number of
+     * levels, then the length of each level's encoding followed by the level, encoded by
+     * HistoryCodec.
+     * @return the encoded levels
+     */
+    public byte[] encodeLevels() {
+        byte[][] encoded = new byte[levels.length - 1][];
+        int length = 1 + 4;
+        for (int level = 1; level < levels.length; level++) {
+            encoded[level - 1] = levels[level].encode();
+            length += 4 + encoded[level - 1].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put(FORMAT_VERSION_1);
+        buffer.putInt(encoded.length);
+        for (byte[] level : encoded) {
+            buffer.putInt(level.length);
+            buffer.put(level);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Returns the history.
+     */
+    public HistorySeries getHistory() {
+        return levels[0];
+    }
+
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    /**
+     * Returns the points of the history from a time onwards, from the finest level which has
+     * no more than MAX_POINTS of them.
+     * @param fromMillis the time, or Long.MIN_VALUE for the whole history
+     * @return the points, oldest first
+     */
+    public HistorySeries getRange(long fromMillis) {
+        for (HistorySeries level : levels) {
+            HistorySeries range = level.from(fromMillis);
+            if (range.size() <= MAX_POINTS) {
+                return range;
+            }
+        }
+        // Only if the history is too sparse to be downsampled to MAX_POINTS
+        return levels[levels.length - 1].from(fromMillis);
+    }
+
+    private static HistoryPyramid create(HistoryPyramid previous, HistorySeries history) {
+        List<HistorySeries> levels = new ArrayList<>();
+        levels.add(history);
+        HistorySeries below = history;
+        long span = LEVEL_1_SPAN_MILLIS;
+        for (int level = 1; below.size() > MAX_POINTS; level++) {
+            boolean reusable = previous != null && level < previous.levels.length;
+            HistorySeries downsampled = downsample(below, span,
+                    reusable ? previous.levels[level - 1] : null,
+                    reusable ? previous.levels[level] : null);
+            if (downsampled.size() >= below.size()) {
+                // The points are already sparser than the buckets
+                break;
+            }
+            levels.add(downsampled);
+            below = downsampled;
+            span *= 2;
+        }
+        return new HistoryPyramid(levels.toArray(new HistorySeries[levels.size()]));
+    }
+
+    /**
+     * Downsamples a level of the pyramid, to form the level above it.
+     * @param below the level below
+     * @param span the span of the buckets of the level, in millis
+     * @param previousBelow the previous version of the level below, or null
+     * @param previousLevel the previous version of the level, or null
+     * @return the level
+     */
+    private static HistorySeries downsample(HistorySeries below, long span,
+                                            HistorySeries previousBelow,
+                                            HistorySeries previousLevel) {
+        int size = below.size();
+        int[] starts = getBucketStarts(below, span);
+        int bucketCount = starts.length - 1;
+        if (bucketCount < 3) {
+            // Keep only the first and last points
+            if (size <= 2) {
+                return below;
+            }
+            return HistorySeries.of(
+                    new long[]{below.getMillis(0), below.getMillis(size - 1)},
+                    new float[]{below.getClose(0), below.getClose(size - 1)},
+                    2);
+        }
+
+        int[] previousBuckets = matchPreviousBuckets(below, starts, span,
+                previousBelow, previousLevel);
+
+        long[] millis = new long[bucketCount];
+        float[] closes = new float[bucketCount];
+        millis[0] = below.getMillis(0);
+        closes[0] = below.getClose(0);
+        for (int bucket = 1; bucket < bucketCount - 1; bucket++) {
+            int previousBucket = previousBuckets[bucket];
+            // A bucket keeps the same point as before if its points, the points of the next
+            // bucket and the point kept from the previous bucket are all unchanged
+            if (previousBucket > 0
+                    && previousBuckets[bucket + 1] == previousBucket + 1
+                    && millis[bucket - 1] == previousLevel.getMillis(previousBucket - 1)
+                    && closes[bucket - 1] == previousLevel.getClose(previousBucket - 1)) {
+                millis[bucket] = previousLevel.getMillis(previousBucket);
+                closes[bucket] = previousLevel.getClose(previousBucket);
+                continue;
+            }
+            int kept = getLargestTriangle(below, starts[bucket], starts[bucket + 1],
+                    millis[bucket - 1], closes[bucket - 1], starts[bucket + 1], starts[bucket + 2]);
+            millis[bucket] = below.getMillis(kept);
+            closes[bucket] = below.getClose(kept);
+        }
+        millis[bucketCount - 1] = below.getMillis(size - 1);
+        closes[bucketCount - 1] = below.getClose(size - 1);
+        return HistorySeries.of(millis, closes, bucketCount);
+    }
+
+    /**
+     * Returns the index of the point of a bucket which forms the largest triangle with the
+     * point kept from the previous bucket and the average of the next bucket.
+     */
+    private static int getLargestTriangle(HistorySeries below, int from, int to,
+                                          long previousMillis, float previousClose,
+                                          int nextFrom, int nextTo) {
+        // Times are taken relative to the previous point, to keep their precision as doubles
+        double nextX = 0;
+        double nextY = 0;
+        for (int i = nextFrom; i < nextTo; i++) {
+            nextX += below.getMillis(i) - previousMillis;
+            nextY += below.getClose(i);
+        }
+        nextX /= nextTo - nextFrom;
+        nextY /= nextTo - nextFrom;
+
+        int kept = from;
+        double maxArea = -1;
+        for (int i = from; i < to; i++) {
+            double x = below.getMillis(i) - previousMillis;
+            double y = below.getClose(i) - previousClose;
+            // Twice the area of the triangle, with the previous point at the origin
+            double area = Math.abs(x * (nextY - previousClose) - nextX * y);
+            if (area > maxArea) {
+                maxArea = area;
+                kept = i;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Groups the points of a level into buckets of a fixed time span, aligned to multiples of
+     * the span.
+     * @return the index of the first point of each bucket, followed by the size of the level
+     */
+    private static int[] getBucketStarts(HistorySeries level, long span) {
+        int size = level.size();
+        int[] starts = new int[size + 1];
+        int count = 0;
+        long bucketKey = 0;
+        for (int i = 0; i < size; i++) {
+            long key = floorDiv(level.getMillis(i), span);
+            if (i == 0 || key != bucketKey) {
+                starts[count++] = i;
+                bucketKey = key;
+            }
+        }
+        starts[count++] = size;
+        if (count == starts.length) {
+            return starts;
+        }
+        int[] trimmed = new int[count];
+        System.arraycopy(starts, 0, trimmed, 0, count);
+        return trimmed;
+    }
+
+    /**
+     * Matches the buckets of a level with those of its previous version.
+     * @return for each bucket, the index of the previous bucket with the same time span and the
+     *         same points, which is also the index of the point kept from it, or -1 if there
+     *         is none
+     */
+    private static int[] matchPreviousBuckets(HistorySeries below, int[] starts, long span,
+                                              HistorySeries previousBelow,
+                                              HistorySeries previousLevel) {
+        int bucketCount = starts.length - 1;
+        int[] matches = new int[bucketCount];
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            matches[bucket] = -1;
+        }
+        if (previousBelow == null || previousLevel == null) {
+            return matches;
+        }
+        int[] previousStarts = getBucketStarts(previousBelow, span);
+        int previousCount = previousStarts.length - 1;
+        if (previousCount < 3 || previousLevel.size() != previousCount) {
+            // The previous level did not keep one point per bucket
+            return matches;
+        }
+
+        int previousBucket = 0;
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            long key = floorDiv(below.getMillis(starts[bucket]), span);
+            while (previousBucket < previousCount && floorDiv(
+                    previousBelow.getMillis(previousStarts[previousBucket]), span) < key) {
+                previousBucket++;
+            }
+            if (previousBucket == previousCount) {
+                break;
+            }
+            if (floorDiv(previousBelow.getMillis(previousStarts[previousBucket]), span) == key
+                    && hasSamePoints(below, starts[bucket], starts[bucket + 1], previousBelow,
+                            previousStarts[previousBucket], previousStarts[previousBucket + 1])) {
+                matches[bucket] = previousBucket;
+            }
+        }
+        return matches;
+    }
+
+    private static boolean hasSamePoints(HistorySeries a, int aFrom, int aTo,
+                                         HistorySeries b, int bFrom, int bTo) {
+        if (aTo - aFrom != bTo - bFrom) {
+            return false;
+        }
+        for (int i = 0; i < aTo - aFrom; i++) {
+            if (a.getMillis(aFrom + i) != b.getMillis(bFrom + i)
+                    || a.getClose(aFrom + i) != b.getClose(bFrom + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        if (dividend % divisor != 0 && (dividend < 0) != (divisor < 0)) {
+            quotient--;
+        }
+        return quotient;
+    }
+}
@@ -0,0 +1,302 @@
+package com.udacity.stockhawk.data;
+
+/**
+ * An immutable series of a stock's historic closes, oldest point first, backed by one array of
+ * times and one of closes.
+ * A slice of a series shares its arrays, so slicing copies nothing.  The minimum and maximum
+ * close of any range of points are found in constant time, from a sparse table of the range
+ * minima and maxima which is built, once per decoded history, on the first such query.
+ * This class uses no Android APIs.
+ */
+public final class HistorySeries {
+
+    private static final HistorySeries EMPTY =
+            new HistorySeries(new Points(new long[0], new float[0]), 0, 0);
+
+    private final Points points;
+    private final int offset;
+    private final int length;
+
+    private HistorySeries(Points points, int offset, int length) {
+        this.points = points;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Returns the series with no points.
+     * @return the empty series
+     */
+    public static HistorySeries empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Decodes a history.  Only the arrays of times and closes are allocated.
+     * @param encoded the history, encoded by HistoryCodec, or null
+     * @return the series of the history, oldest point first
+     */
+    public static HistorySeries decode(byte[] encoded) {
+        int size = HistoryCodec.getSize(encoded);
+        if (size == 0) {
+            return EMPTY;
+        }
+        long[] millis = new long[size];
+        float[] closes = new float[size];
+        if (HistoryCodec.decode(encoded, millis, closes) != size) {
+            // The history is corrupt
+            return EMPTY;
+        }
+
+        // The history is most-recent first, so the order must be reversed
+        for (int i = 0, j = size - 1; i < j; i++, j--) {
+            long time = millis[i];
+            millis[i] = millis[j];
+            millis[j] = time;
+            float close = closes[i];
+            closes[i] = closes[j];
+            closes[j] = close;
+        }
+        return new HistorySeries(new Points(millis, closes), 0, size);
+    }
+
+    /**
+     * Returns the series of a history held in arrays, oldest point first.  The arrays are not
+     * copied, so must not be changed afterwards.
+     * @param millis the time of each point, in ascending order
+     * @param closes the close of each point
+     * @param count the number of points
+     * @return the series of the points
+     */
+    public static HistorySeries of(long[] millis, float[] closes, int count) {
+        if (count < 0 || count > millis.length || count > closes.length) {
+            throw new IllegalArgumentException("Count " + count + " is out of range");
+        }
+        return count == 0 ? EMPTY : new HistorySeries(new Points(millis, closes), 0, count);
+    }
+
+    /**
+     * Encodes the series, for storing.
+     * @return the series, encoded by HistoryCodec
+     */
+    public byte[] encode() {
+        // HistoryCodec stores the most recent point first
+        long[] millis = new long[length];
+        float[] closes = new float[length];
+        for (int i = 0; i < length; i++) {
+            millis[i] = points.millis[offset + length - 1 - i];
+            closes[i] = points.closes[offset + length - 1 - i];
+        }
+        return HistoryCodec.encode(millis, closes, length);
+    }
+
+    /**
+     * Returns the number of points in the series.
+     */
+    public int size() {
+        return length;
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    /**
+     * Returns the time of a point.
+     * @param index the index of the point, 0 being the oldest
+     * @return the time of the point, in millis
+     */
+    public long getMillis(int index) {
+        checkIndex(index);
+        return points.millis[offset + index];
+    }
+
+    /**
+     * Returns the close of a point.
+     * @param index the index of the point, 0 being the oldest
+     * @return the close of the point
+     */
+    public float getClose(int index) {
+        checkIndex(index);
+        return points.closes[offset + index];
+    }
+
+    /**
+     * Returns a range of the points of the series, without copying them.
+     * @param from the index of the first point of the range
+     * @param to the index after the last point of the range
+     * @return the series of the points in the range
+     */
+    public HistorySeries slice(int from, int to) {
+        checkRange(from, to);
+        if (from == 0 && to == length) {
+            return this;
+        }
+        return new HistorySeries(points, offset + from, to - from);
+    }
+
+    /**
+     * Returns the points of the series from a time onwards, without copying them.
+     * @param fromMillis the time
+     * @return the series of the points at or after the time
+     */
+    public HistorySeries from(long fromMillis) {
+        return slice(indexAtOrAfter(fromMillis), length);
+    }
+
+    /**
+     * Returns the index of the first point at or after a time, by binary search.
+     * @param millis the time
+     * @return the index of the point, or size() if every point is before the time
+     */
+    public int indexAtOrAfter(long millis) {
+        int low = 0;
+        int high = length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (points.millis[offset + middle] < millis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the most recent points of the series, without copying them.
+     * @param count the maximum number of points
+     * @return the series of the most recent count points, or this series if it is no longer
+     */
+    public HistorySeries last(int count) {
+        return slice(Math.max(length - Math.max(count, 0), 0), length);
+    }
+
+    /**
+     * Returns the minimum close of the series.
+     * @return the minimum close, or 0 if the series is empty
+     */
+    public float getMinClose() {
+        return length == 0 ? 0 : getMinClose(0, length);
+    }
+
+    /**
+     * Returns the maximum close of the series.
+     * @return the maximum close, or 0 if the series is empty
+     */
+    public float getMaxClose() {
+        return length == 0 ? 0 : getMaxClose(0, length);
+    }
+
+    /**
+     * Returns the minimum close of a non-empty range of points, in constant time.
+     * @param from the index of the first point of the range
+     * @param to the index after the last point of the range
+     * @return the minimum close in the range
+     */
+    public float getMinClose(int from, int to) {
+        checkNonEmptyRange(from, to);
+        return points.getRangeTable().min(offset + from, offset + to);
+    }
+
+    /**
+     * Returns the maximum close of a non-empty range of points, in constant time.
+     * @param from the index of the first point of the range
+     * @param to the index after the last point of the range
+     * @return the maximum close in the range
+     */
+    public float getMaxClose(int from, int to) {
+        checkNonEmptyRange(from, to);
+        return points.getRangeTable().max(offset + from, offset + to);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + length);
+        }
+    }
+
+    private void checkRange(int from, int to) {
+        if (from < 0 || to > length || from > to) {
+            throw new IndexOutOfBoundsException(
+                    "Range [" + from + ", " + to + "), size " + length);
+        }
+    }
+
+    private void checkNonEmptyRange(int from, int to) {
+        checkRange(from, to);
+        if (from == to) {
+            throw new IllegalArgumentException("Empty range [" + from + ", " + to + ")");
+        }
+    }
+
+    /**
+     * The arrays of a decoded history, shared by the series and all its slices.
+     */
+    private static final class Points {
+        private final long[] millis;
+        private final float[] closes;
+        private volatile RangeTable rangeTable;
+
+        Points(long[] millis, float[] closes) {
+            this.millis = millis;
+            this.closes = closes;
+        }
+
+        RangeTable getRangeTable() {
+            RangeTable table = rangeTable;
+            if (table == null) {
+                // Building the table twice, on two threads, is harmless
+                table = new RangeTable(closes);
+                rangeTable = table;
+            }
+            return table;
+        }
+    }
+
+    /**
+     * A sparse table of the minima and maxima of the closes: level k holds the minimum and
+     * maximum of the 2^k closes starting at each index.  Any range is covered by two,
+     * possibly overlapping, ranges of the same level.
+     */
+    private static final class RangeTable {
+        private final float[][] minima;
+        private final float[][] maxima;
+
+        RangeTable(float[] closes) {
+            int levels = log2(Math.max(closes.length, 1)) + 1;
+            minima = new float[levels][];
+            maxima = new float[levels][];
+            minima[0] = closes;
+            maxima[0] = closes;
+            for (int level = 1; level < levels; level++) {
+                int half = 1 << (level - 1);
+                int count = closes.length - (1 << level) + 1;
+                float[] previousMinima = minima[level - 1];
+                float[] previousMaxima = maxima[level - 1];
+                float[] levelMinima = new float[count];
+                float[] levelMaxima = new float[count];
+                for (int i = 0; i < count; i++) {
+                    levelMinima[i] = Math.min(previousMinima[i], previousMinima[i + half]);
+                    levelMaxima[i] = Math.max(previousMaxima[i], previousMaxima[i + half]);
+                }
+                minima[level] = levelMinima;
+                maxima[level] = levelMaxima;
+            }
+        }
+
+        float min(int from, int to) {
+            int level = log2(to - from);
+            return Math.min(minima[level][from], minima[level][to - (1 << level)]);
+        }
+
+        float max(int from, int to) {
+            int level = log2(to - from);
+            return Math.max(maxima[level][from], maxima[level][to - (1 << level)]);
+        }
+
+        private static int log2(int value) {
+            return 31 - Integer.numberOfLeadingZeros(value);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.udacity.stockhawk.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Replaces the rows of stocks in the history table with the bars of their histories, using
+ * compiled statements which are reused for every stock and bar.
+ * It is called wherever a quote's history is written, within the same transaction, so that
+ * the history table always matches the history in the quotes table.
+ * An instance is used for a single batch, on a single thread, and must then be closed.
+ */
+class HistoryWriter {
+
+    private final SQLiteStatement delete;
+    private final SQLiteStatement insert;
+
+    HistoryWriter(SQLiteDatabase db) {
+        delete = db.compileStatement("DELETE FROM " + Contract.History.TABLE_NAME
+                + " WHERE " + Contract.History.COLUMN_SYMBOL + " = ?");
+        insert = db.compileStatement("INSERT INTO " + Contract.History.TABLE_NAME + " ("
+                + Contract.History.COLUMN_SYMBOL + ", "
+                + Contract.History.COLUMN_BAR_TIME + ", "
+                + Contract.History.COLUMN_CLOSE + ") VALUES (?, ?, ?)");
+    }
+
+    /**
+     * Replaces a stock's rows in the history table.
+     * @param symbol the stock symbol
+     * @param history the stock's history, encoded by HistoryCodec
+     */
+    void replace(String symbol, byte[] history) {
+        delete.bindString(1, symbol);
+        delete.executeUpdateDelete();
+
+        HistorySeries series = HistorySeries.decode(history);
+        for (int i = 0; i < series.size(); i++) {
+            insert.bindString(1, symbol);
+            insert.bindLong(2, series.getMillis(i));
+            insert.bindDouble(3, series.getClose(i));
+            insert.executeInsert();
+        }
+    }
+
+    /**
+     * Releases the compiled statements.
+     */
+    void close() {
+        delete.close();
+        insert.close();
+    }
+}
@@ -1,13 +1,14 @@
 package com.udacity.stockhawk.data;
 
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.preference.PreferenceManager;
 
 import com.udacity.stockhawk.R;
 
-import java.util.Arrays;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 public final class PrefUtils {
@@ -15,57 +16,94 @@ public final class PrefUtils {
     private PrefUtils() {
     }
 
+    /**
+     * Returns the stocks in the watchlist, in the order in which they were added.
+     * (The watchlist was kept in the preferences before it moved to the database, hence
+     * the name of this class.)
+     * @param context the context
+     * @return the symbols of the watched stocks
+     */
     public static Set<String> getStocks(Context context) {
-        String stocksKey = context.getString(R.string.pref_stocks_key);
-        String initializedKey = context.getString(R.string.pref_stocks_initialized_key);
-
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-
-        boolean initialized = prefs.getBoolean(initializedKey, false);
-
-        // The first time (only) that this method is called, return the default list of stocks.
-        if (!initialized) {
-            String[] defaultStocksList = context.getResources().getStringArray(R.array.default_stocks);
-            HashSet<String> defaultStocks = new HashSet<>(Arrays.asList(defaultStocksList));
-
-            SharedPreferences.Editor editor = prefs.edit();
-            editor.putBoolean(initializedKey, true);
-            editor.putStringSet(stocksKey, defaultStocks);
-            editor.apply();
-            return defaultStocks;
+        Set<String> stocks = new LinkedHashSet<>();
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(
+                    Contract.Watchlist.URI,
+                    new String[]{Contract.Watchlist.COLUMN_SYMBOL},
+                    null,
+                    null,
+                    Contract.Watchlist.DEFAULT_SORT_ORDER);
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    stocks.add(cursor.getString(0));
+                }
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
         }
+        return stocks;
+    }
 
-        return prefs.getStringSet(stocksKey, new HashSet<String>());
+    /**
+     * Adds a stock to the end of the watchlist, if it is not already watched.
+     * @param context the context
+     * @param symbol the stock to add
+     */
+    public static void addStock(Context context, String symbol) {
+        ContentValues watchlistCV = new ContentValues();
+        watchlistCV.put(Contract.Watchlist.COLUMN_SYMBOL, symbol);
+        context.getContentResolver().insert(Contract.Watchlist.URI, watchlistCV);
     }
 
     /**
-     * Add or remove a stock symbol from the stock list stored in the preferences.
+     * Removes a stock from the watchlist.
      * @param context the context
-     * @param symbol the stock to add or remove
-     * @param add if true, the stock is added, if false, the stock is removed
+     * @param symbol the stock to remove
      */
-    private static void editStockPref(Context context, String symbol, Boolean add) {
-        String stocksKey = context.getString(R.string.pref_stocks_key);
-        Set<String> stocks = getStocks(context);
+    public static void removeStock(Context context, String symbol) {
+        context.getContentResolver().delete(
+                Contract.Watchlist.makeUriForStock(symbol), null, null);
+    }
 
-        if (add) {
-            stocks.add(symbol);
-        } else {
-            stocks.remove(symbol);
-        }
+    /**
+     * Returns the time at which the stock histories were last fetched.
+     * @param context the context
+     * @return the time in millis of the last history fetch, or 0 if there has been none
+     */
+    public static long getLastHistorySync(Context context) {
+        String key = context.getString(R.string.pref_last_history_sync_key);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getLong(key, 0);
+    }
 
+    public static void setLastHistorySync(Context context, long millis) {
+        String key = context.getString(R.string.pref_last_history_sync_key);
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         SharedPreferences.Editor editor = prefs.edit();
-        editor.putStringSet(stocksKey, stocks);
+        editor.putLong(key, millis);
         editor.apply();
     }
 
-    public static void addStock(Context context, String symbol) {
-        editStockPref(context, symbol, true);
+    /**
+     * Returns the time at which the full symbol directory was last downloaded.
+     * @param context the context
+     * @return the time in millis of the last download, or 0 if only the bundled directory
+     *         has been loaded
+     */
+    public static long getLastDirectoryUpdate(Context context) {
+        String key = context.getString(R.string.pref_last_directory_update_key);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getLong(key, 0);
     }
 
-    public static void removeStock(Context context, String symbol) {
-        editStockPref(context, symbol, false);
+    public static void setLastDirectoryUpdate(Context context, long millis) {
+        String key = context.getString(R.string.pref_last_directory_update_key);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putLong(key, millis);
+        editor.apply();
     }
 
     /**
@@ -0,0 +1,282 @@
+package com.udacity.stockhawk.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A process-wide, read-optimised snapshot of the latest quotes (without their histories).
+ * The snapshot is published by StockProvider, as a new immutable version, in the same
+ * transaction as each write to the quotes, and is read with no locking.  The database
+ * remains the durable source: a snapshot which has not been loaded falls back to it.
+ * The number of quotes held is capped rather than bounded by eviction: the quotes of stocks
+ * beyond the cap are never held, and while there are any the snapshot is not complete, so
+ * the list of quotes is read from the database.
+ */
+public final class QuoteCache {
+
+    private static final Snapshot NOT_LOADED =
+            new Snapshot(0, Collections.<String, Entry>emptyMap(), false);
+
+    private static volatile Snapshot snapshot = NOT_LOADED;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private QuoteCache() {
+    }
+
+    /**
+     * Returns the current snapshot.
+     * @return the snapshot, which is never null, but may not be loaded
+     */
+    public static Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns the cached quote for a stock, counting a hit or a miss.
+     * @param symbol the stock symbol
+     * @return the quote, or null if it is not cached
+     */
+    public static Entry getQuote(String symbol) {
+        Entry entry = snapshot.get(symbol);
+        recordLookup(entry != null);
+        return entry;
+    }
+
+    static void recordLookup(boolean hit) {
+        if (hit) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the proportion of lookups which have been served from memory.
+     * @return the hit rate, between 0 and 1, or 0 if there have been no lookups
+     */
+    public static double getHitRate() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Publishes a snapshot of every quote, if no other version has been published since the
+     * quotes were read, as they may then be older than the current version.
+     * @param entries the quotes
+     * @param maxEntries the maximum number of quotes to hold; if there are more, the snapshot
+     *                   holds the first maxEntries in symbol order and is not complete
+     * @param expectedVersion the version of the snapshot before the quotes were read
+     * @return true if the snapshot was published
+     */
+    static synchronized boolean publishAll(List<Entry> entries, int maxEntries,
+                                           long expectedVersion) {
+        if (snapshot.getVersion() != expectedVersion) {
+            return false;
+        }
+        Map<String, Entry> map = new TreeMap<>();
+        for (Entry entry : entries) {
+            if (map.size() >= maxEntries) {
+                break;
+            }
+            map.put(entry.getSymbol(), entry);
+        }
+        snapshot = new Snapshot(snapshot.getVersion() + 1, map, entries.size() <= maxEntries);
+        return true;
+    }
+
+    /**
+     * Publishes a snapshot in which some quotes have been replaced, if a snapshot has been
+     * loaded.
+     * @param changedEntries the new quotes
+     * @param maxEntries the maximum number of quotes to hold; new stocks beyond the maximum
+     *                   are not held, and the snapshot is then not complete
+     */
+    static synchronized void publishChanges(List<Entry> changedEntries, int maxEntries) {
+        Snapshot current = snapshot;
+        if (!current.isLoaded()) {
+            return;
+        }
+        Map<String, Entry> map = new TreeMap<>(current.entries);
+        boolean complete = current.isComplete();
+        for (Entry entry : changedEntries) {
+            if (map.containsKey(entry.getSymbol()) || map.size() < maxEntries) {
+                map.put(entry.getSymbol(), entry);
+            } else {
+                complete = false;
+            }
+        }
+        snapshot = new Snapshot(current.getVersion() + 1, map, complete);
+    }
+
+    /**
+     * Discards the snapshot, e.g. after a change whose effect on the quotes is not known.
+     * A load which read the quotes before the change is then not published.
+     */
+    static synchronized void invalidate() {
+        snapshot = new Snapshot(snapshot.getVersion() + 1,
+                Collections.<String, Entry>emptyMap(), false, false);
+    }
+
+    //---------------------------------------------------------------------------
+    // Snapshot
+
+    /**
+     * An immutable version of the cached quotes.
+     */
+    public static final class Snapshot {
+        private final long version;
+        private final Map<String, Entry> entries;
+        private final List<Entry> orderedEntries;
+        private final boolean loaded;
+        private final boolean complete;
+
+        private Snapshot(long version, Map<String, Entry> entries, boolean complete) {
+            this(version, entries, complete, true);
+        }
+
+        private Snapshot(long version, Map<String, Entry> entries, boolean complete,
+                         boolean loaded) {
+            this.version = version;
+            this.entries = Collections.unmodifiableMap(entries);
+            this.orderedEntries = Collections.unmodifiableList(new ArrayList<>(entries.values()));
+            this.complete = complete && loaded;
+            this.loaded = loaded && version > 0;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /** Returns whether the snapshot has been loaded from the database. */
+        public boolean isLoaded() {
+            return loaded;
+        }
+
+        /** Returns whether the snapshot holds every quote in the database. */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * Returns the cached quote for a stock.
+         * @param symbol the stock symbol
+         * @return the quote, or null if it is not cached
+         */
+        public Entry get(String symbol) {
+            return entries.get(symbol);
+        }
+
+        /** Returns the cached quotes, in symbol order. */
+        public List<Entry> getEntries() {
+            return orderedEntries;
+        }
+    }
+
+    /**
+     * An immutable cached quote.
+     */
+    public static final class Entry {
+        private final long id;
+        private final String symbol;
+        private final float price;
+        private final float absoluteChange;
+        private final float percentageChange;
+        private final String displayPrice;
+        private final String displayAbsoluteChange;
+        private final String displayPercentageChange;
+        private final boolean up;
+
+        Entry(long id, String symbol, float price, float absoluteChange,
+              float percentageChange, String displayPrice, String displayAbsoluteChange,
+              String displayPercentageChange, boolean up) {
+            this.id = id;
+            this.symbol = symbol;
+            this.price = price;
+            this.absoluteChange = absoluteChange;
+            this.percentageChange = percentageChange;
+            this.displayPrice = displayPrice;
+            this.displayAbsoluteChange = displayAbsoluteChange;
+            this.displayPercentageChange = displayPercentageChange;
+            this.up = up;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        public float getPrice() {
+            return price;
+        }
+
+        public float getAbsoluteChange() {
+            return absoluteChange;
+        }
+
+        public float getPercentageChange() {
+            return percentageChange;
+        }
+
+        public String getDisplayPrice() {
+            return displayPrice;
+        }
+
+        public String getDisplayAbsoluteChange() {
+            return displayAbsoluteChange;
+        }
+
+        public String getDisplayPercentageChange() {
+            return displayPercentageChange;
+        }
+
+        public boolean isUp() {
+            return up;
+        }
+
+        /**
+         * Returns the value of a column of Contract.Quote.SUMMARY_COLUMNS.
+         */
+        Object getValue(String column) {
+            switch (column) {
+                case Contract.Quote._ID:
+                    return id;
+                case Contract.Quote.COLUMN_SYMBOL:
+                    return symbol;
+                case Contract.Quote.COLUMN_PRICE:
+                    return price;
+                case Contract.Quote.COLUMN_ABSOLUTE_CHANGE:
+                    return absoluteChange;
+                case Contract.Quote.COLUMN_PERCENTAGE_CHANGE:
+                    return percentageChange;
+                case Contract.Quote.COLUMN_DISPLAY_PRICE:
+                    return displayPrice;
+                case Contract.Quote.COLUMN_DISPLAY_ABSOLUTE_CHANGE:
+                    return displayAbsoluteChange;
+                case Contract.Quote.COLUMN_DISPLAY_PERCENTAGE_CHANGE:
+                    return displayPercentageChange;
+                case Contract.Quote.COLUMN_IS_UP:
+                    return up ? 1 : 0;
+                default:
+                    throw new IllegalArgumentException("Not a summary column: " + column);
+            }
+        }
+    }
+}
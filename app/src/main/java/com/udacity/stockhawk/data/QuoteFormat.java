@@ -0,0 +1,122 @@
+package com.udacity.stockhawk.data;
+
+import android.content.ContentValues;
+
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/**
+ * Formats quotes for display.  The display values of a quote are computed when it is written
+ * (see Contract.Quote.COLUMN_DISPLAY_PRICE etc.), so that lists bind them without formatting.
+ * An instance is not thread-safe, as DecimalFormat is not.
+ */
+public final class QuoteFormat {
+
+    /** The columns from which the display values are computed. */
+    static final String[] PRICE_COLUMNS = {
+            Contract.Quote.COLUMN_PRICE,
+            Contract.Quote.COLUMN_ABSOLUTE_CHANGE,
+            Contract.Quote.COLUMN_PERCENTAGE_CHANGE
+    };
+
+    private final DecimalFormat dollarFormat = getDollarFormat();
+    private final DecimalFormat dollarFormatWithPlus = getDollarFormatWithPlus();
+    private final DecimalFormat percentageFormat = getPercentageFormat();
+
+    public String formatPrice(float price) {
+        return dollarFormat.format(price);
+    }
+
+    public String formatAbsoluteChange(float absoluteChange) {
+        return dollarFormatWithPlus.format(absoluteChange);
+    }
+
+    /**
+     * Formats a percentage change.
+     * @param percentageChange the change in percent, e.g. 1.5 for a 1.5% rise
+     * @return the formatted change, e.g. "+1.50%"
+     */
+    public String formatPercentageChange(float percentageChange) {
+        return percentageFormat.format(percentageChange / 100);
+    }
+
+    /**
+     * Returns the display values of a quote.
+     * @param price the price
+     * @param absoluteChange the change in price
+     * @param percentageChange the change in price, in percent
+     * @return the values of the display columns of the quote
+     */
+    public ContentValues getDisplayValues(float price, float absoluteChange,
+                                          float percentageChange) {
+        ContentValues displayCV = new ContentValues();
+        displayCV.put(Contract.Quote.COLUMN_DISPLAY_PRICE, formatPrice(price));
+        displayCV.put(Contract.Quote.COLUMN_DISPLAY_ABSOLUTE_CHANGE,
+                formatAbsoluteChange(absoluteChange));
+        displayCV.put(Contract.Quote.COLUMN_DISPLAY_PERCENTAGE_CHANGE,
+                formatPercentageChange(percentageChange));
+        displayCV.put(Contract.Quote.COLUMN_IS_UP, isUp(absoluteChange) ? 1 : 0);
+        return displayCV;
+    }
+
+    /**
+     * Returns a quote's values together with its display values, if the values include the
+     * price and both changes.
+     * @param values the values of the quote
+     * @return the values with the display values added, or the values themselves if they
+     *         do not include the price and both changes
+     */
+    public ContentValues withDisplayValues(ContentValues values) {
+        Float price = values.getAsFloat(Contract.Quote.COLUMN_PRICE);
+        Float absoluteChange = values.getAsFloat(Contract.Quote.COLUMN_ABSOLUTE_CHANGE);
+        Float percentageChange = values.getAsFloat(Contract.Quote.COLUMN_PERCENTAGE_CHANGE);
+        if (price == null || absoluteChange == null || percentageChange == null) {
+            return values;
+        }
+        ContentValues displayedValues = new ContentValues(values);
+        displayedValues.putAll(getDisplayValues(price, absoluteChange, percentageChange));
+        return displayedValues;
+    }
+
+    /**
+     * Returns whether a quote's values include some, but not all, of the price and both
+     * changes, so that its display values cannot be computed from the values alone.
+     * @param values the values of the quote
+     * @return true if only some of the price and changes are included
+     */
+    public static boolean hasPartialPrice(ContentValues values) {
+        int count = 0;
+        for (String column : PRICE_COLUMNS) {
+            if (values.containsKey(column)) {
+                count++;
+            }
+        }
+        return count > 0 && count < PRICE_COLUMNS.length;
+    }
+
+    /**
+     * Returns whether a change is displayed as a rise.
+     */
+    public static boolean isUp(float absoluteChange) {
+        return absoluteChange > 0;
+    }
+
+    public static DecimalFormat getDollarFormat() {
+        return (DecimalFormat) NumberFormat.getCurrencyInstance(Locale.US);
+    }
+
+    public static DecimalFormat getDollarFormatWithPlus() {
+        DecimalFormat format = getDollarFormat();
+        format.setPositivePrefix("+$");
+        return format;
+    }
+
+    public static DecimalFormat getPercentageFormat() {
+        DecimalFormat format = (DecimalFormat) NumberFormat.getPercentInstance(Locale.getDefault());
+        format.setMaximumFractionDigits(2);
+        format.setMinimumFractionDigits(2);
+        format.setPositivePrefix("+");
+        return format;
+    }
+}
@@ -0,0 +1,192 @@
+package com.udacity.stockhawk.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Upserts quotes using compiled statements, which are reused for every row with the same set
+ * of columns, so that a batch compiles its SQL once rather than once per row.
+ * A quote is updated in place if its stock already has a row, so that the row keeps its _ID,
+ * or is inserted otherwise.  Only the columns present in the values are written, e.g. a quote
+ * without a history leaves the stored history as it is, while a quote with one also replaces
+ * the stock's rows in the history table.
+ * (Inserting with ON CONFLICT REPLACE would instead delete the row and insert a new one.)
+ * The display values of a quote are formatted here, when its price and changes are written,
+ * so that they are formatted once per change rather than every time the quote is displayed.
+ * If only some of the price and changes are written, the others are read from the stored row.
+ * An instance is used for a single batch, on a single thread, and must then be closed.
+ */
+class QuoteUpserter {
+
+    private final SQLiteDatabase db;
+    /** The compiled update statement for each set of columns, keyed on the sorted columns. */
+    private final Map<List<String>, SQLiteStatement> updateStatements = new HashMap<>();
+    /** The compiled insert statement for each set of columns, keyed on the sorted columns. */
+    private final Map<List<String>, SQLiteStatement> insertStatements = new HashMap<>();
+    private final QuoteFormat format = new QuoteFormat();
+    private final HistoryWriter historyWriter;
+
+    QuoteUpserter(SQLiteDatabase db) {
+        this.db = db;
+        historyWriter = new HistoryWriter(db);
+    }
+
+    /**
+     * Updates the quote for the stock in a set of values, or inserts it if the stock has no
+     * quote.
+     * @param values the values, which must include the stock symbol
+     * @return true if a row was updated or inserted
+     */
+    boolean upsert(ContentValues values) {
+        String symbol = values.getAsString(Contract.Quote.COLUMN_SYMBOL);
+        if (symbol == null) {
+            throw new IllegalArgumentException("A quote must have a symbol");
+        }
+        // The display values of a quote whose price or changes are only partly written are
+        // computed from the merged row, so that they match the stored price and changes
+        if (QuoteFormat.hasPartialPrice(values)) {
+            values = withStoredPrice(symbol, values);
+        }
+        values = format.withDisplayValues(values);
+
+        List<String> columns = getColumns(values);
+        SQLiteStatement update = getUpdateStatement(columns);
+        bindValues(update, columns, values);
+        update.bindString(columns.size() + 1, symbol);
+        if (update.executeUpdateDelete() > 0) {
+            writeHistory(symbol, values);
+            return true;
+        }
+
+        // A new stock must have a history, even if it could not be fetched
+        if (!values.containsKey(Contract.Quote.COLUMN_HISTORY)) {
+            values = new ContentValues(values);
+            values.put(Contract.Quote.COLUMN_HISTORY, HistoryCodec.empty());
+            columns = getColumns(values);
+        }
+        SQLiteStatement insert = getInsertStatement(columns);
+        bindValues(insert, columns, values);
+        if (insert.executeInsert() == -1) {
+            return false;
+        }
+        writeHistory(symbol, values);
+        return true;
+    }
+
+    /**
+     * Replaces the stock's rows in the history table, if the values include its history.
+     */
+    private void writeHistory(String symbol, ContentValues values) {
+        if (values.containsKey(Contract.Quote.COLUMN_HISTORY)) {
+            historyWriter.replace(symbol,
+                    values.getAsByteArray(Contract.Quote.COLUMN_HISTORY));
+        }
+    }
+
+    /**
+     * Returns a quote's values with the stored values of the price and changes which they
+     * do not include.
+     * @throws IllegalArgumentException if the stock has no stored quote
+     */
+    private ContentValues withStoredPrice(String symbol, ContentValues values) {
+        Cursor cursor = db.query(Contract.Quote.TABLE_NAME, QuoteFormat.PRICE_COLUMNS,
+                Contract.Quote.COLUMN_SYMBOL + " = ?", new String[]{symbol}, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                throw new IllegalArgumentException(
+                        "A new quote must have a price and both changes: " + symbol);
+            }
+            ContentValues mergedValues = new ContentValues(values);
+            for (int i = 0; i < QuoteFormat.PRICE_COLUMNS.length; i++) {
+                if (!mergedValues.containsKey(QuoteFormat.PRICE_COLUMNS[i])) {
+                    mergedValues.put(QuoteFormat.PRICE_COLUMNS[i], cursor.getFloat(i));
+                }
+            }
+            return mergedValues;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Releases the compiled statements.
+     */
+    void close() {
+        for (SQLiteStatement statement : updateStatements.values()) {
+            statement.close();
+        }
+        for (SQLiteStatement statement : insertStatements.values()) {
+            statement.close();
+        }
+        updateStatements.clear();
+        insertStatements.clear();
+        historyWriter.close();
+    }
+
+    private SQLiteStatement getUpdateStatement(List<String> columns) {
+        SQLiteStatement statement = updateStatements.get(columns);
+        if (statement == null) {
+            StringBuilder sql = new StringBuilder("UPDATE " + Contract.Quote.TABLE_NAME + " SET ");
+            for (int i = 0; i < columns.size(); i++) {
+                sql.append(i == 0 ? "" : ", ").append(columns.get(i)).append(" = ?");
+            }
+            sql.append(" WHERE " + Contract.Quote.COLUMN_SYMBOL + " = ?");
+            statement = db.compileStatement(sql.toString());
+            updateStatements.put(columns, statement);
+        }
+        return statement;
+    }
+
+    private SQLiteStatement getInsertStatement(List<String> columns) {
+        SQLiteStatement statement = insertStatements.get(columns);
+        if (statement == null) {
+            StringBuilder sql =
+                    new StringBuilder("INSERT INTO " + Contract.Quote.TABLE_NAME + " (");
+            StringBuilder parameters = new StringBuilder();
+            for (int i = 0; i < columns.size(); i++) {
+                sql.append(i == 0 ? "" : ", ").append(columns.get(i));
+                parameters.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(") VALUES (").append(parameters).append(")");
+            statement = db.compileStatement(sql.toString());
+            insertStatements.put(columns, statement);
+        }
+        return statement;
+    }
+
+    private static List<String> getColumns(ContentValues values) {
+        return new ArrayList<>(new TreeSet<>(values.keySet()));
+    }
+
+    /**
+     * Binds values to the first parameters of a statement, one per column, in column order.
+     */
+    private static void bindValues(SQLiteStatement statement, List<String> columns,
+                                   ContentValues values) {
+        for (int i = 0; i < columns.size(); i++) {
+            int index = i + 1;
+            Object value = values.get(columns.get(i));
+            if (value == null) {
+                statement.bindNull(index);
+            } else if (value instanceof Float || value instanceof Double) {
+                statement.bindDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                statement.bindLong(index, ((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                statement.bindLong(index, (Boolean) value ? 1 : 0);
+            } else if (value instanceof byte[]) {
+                statement.bindBlob(index, (byte[]) value);
+            } else {
+                statement.bindString(index, value.toString());
+            }
+        }
+    }
+}
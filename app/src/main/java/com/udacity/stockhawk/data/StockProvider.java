@@ -1,28 +1,102 @@
 package com.udacity.stockhawk.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-
-
+import android.text.TextUtils;
+
+import com.udacity.stockhawk.R;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The content provider for quotes and their histories.
+ * <p>
+ * Concurrency contract:
+ * <ul>
+ * <li>The database uses write-ahead logging, so queries never wait for a write: a query sees
+ * the data committed when it starts, and several queries may run in parallel on the pooled
+ * read connections.</li>
+ * <li>Writes are serialised on the single write connection.  Each insert, update, delete and
+ * bulkInsert is atomic, and a bulkInsert is committed in one transaction.</li>
+ * <li>applyBatch runs in one transaction, but yields to waiting threads during very large
+ * batches, so such a batch is committed in several parts.</li>
+ * <li>The QuoteCache is loaded on a read connection, and the load is only published if no
+ * write to the quotes committed while it was being read.</li>
+ * <li>Change notifications are issued after the change is committed.</li>
+ * <li>All methods may be called from any thread, including the main thread, but only
+ * background threads should do so, as any call may do disk I/O.</li>
+ * </ul>
+ */
 public class StockProvider extends ContentProvider {
 
     private static final int QUOTE = 100;
     private static final int QUOTE_FOR_SYMBOL = 101;
+    private static final int HISTORY_FOR_SYMBOL = 102;
+    private static final int QUOTE_SUMMARY = 103;
+    private static final int TICK = 104;
+    private static final int TICKS_FOR_SYMBOL = 105;
+    private static final int BARS_FOR_SYMBOL = 106;
+    private static final int WATCHLIST = 107;
+    private static final int WATCHLIST_FOR_SYMBOL = 108;
+    private static final int LISTING = 109;
+    private static final int LISTING_FOR_SYMBOL = 110;
+
+    /**
+     * The number of operations in a batch after which the batch transaction yields to any
+     * other thread waiting for the database, so that readers are not blocked for the whole
+     * of a very large batch.
+     */
+    private static final int BATCH_YIELD_INTERVAL = 500;
 
     private static final UriMatcher uriMatcher = buildUriMatcher();
 
     private DbHelper dbHelper;
+    /** The maximum number of quotes held in the QuoteCache. */
+    private int maxCacheEntries;
+    /** The maximum number of listings returned by a listings query. */
+    private int maxListings;
+
+    /**
+     * The notifications deferred until the batch being applied by the current thread has been
+     * committed, or null if the thread is not applying a batch.
+     */
+    private final ThreadLocal<Set<Uri>> batchNotifications = new ThreadLocal<>();
 
     private static UriMatcher buildUriMatcher() {
         UriMatcher matcher = new UriMatcher(UriMatcher.NO_MATCH);
         matcher.addURI(Contract.AUTHORITY, Contract.PATH_QUOTE, QUOTE);
         matcher.addURI(Contract.AUTHORITY, Contract.PATH_QUOTE_WITH_SYMBOL, QUOTE_FOR_SYMBOL);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_HISTORY_WITH_SYMBOL, HISTORY_FOR_SYMBOL);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_QUOTE_SUMMARY, QUOTE_SUMMARY);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_TICK, TICK);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_TICKS_WITH_SYMBOL, TICKS_FOR_SYMBOL);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_BARS_WITH_SYMBOL, BARS_FOR_SYMBOL);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_WATCHLIST, WATCHLIST);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_WATCHLIST_WITH_SYMBOL,
+                WATCHLIST_FOR_SYMBOL);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_LISTING, LISTING);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_LISTING_WITH_SYMBOL, LISTING_FOR_SYMBOL);
         return matcher;
     }
 
@@ -30,6 +104,8 @@ public class StockProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         dbHelper = new DbHelper(getContext());
+        maxCacheEntries = getContext().getResources().getInteger(R.integer.quote_cache_max_entries);
+        maxListings = getContext().getResources().getInteger(R.integer.listing_suggestion_limit);
         return true;
     }
 
@@ -38,6 +114,7 @@ public class StockProvider extends ContentProvider {
     public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
         Cursor returnCursor;
         SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Uri notificationUri = uri;
 
         switch (uriMatcher.match(uri)) {
             case QUOTE:
@@ -50,26 +127,137 @@ public class StockProvider extends ContentProvider {
                         null,
                         sortOrder
                 );
+                notificationUri = Contract.Quote.SUMMARY_URI;
                 break;
 
             case QUOTE_FOR_SYMBOL:
+                // A query for the summary columns of a stock is served from memory if possible
+                QuoteCache.Entry entry = null;
+                if (isSummaryProjection(projection) && selection == null) {
+                    entry = getQuoteSnapshot().get(Contract.Quote.getStockFromUri(uri));
+                    QuoteCache.recordLookup(entry != null);
+                }
+                if (entry != null) {
+                    returnCursor = toCursor(projection, Collections.singletonList(entry));
+                } else {
+                    returnCursor = db.query(
+                            Contract.Quote.TABLE_NAME,
+                            projection,
+                            Contract.Quote.COLUMN_SYMBOL + " = ?",
+                            new String[]{Contract.Quote.getStockFromUri(uri)},
+                            null,
+                            null,
+                            sortOrder
+                    );
+                }
+
+                break;
+
+            case QUOTE_SUMMARY:
+                // List-style queries must not load the history into the cursor window
+                if (projection == null) {
+                    projection = Contract.Quote.SUMMARY_COLUMNS;
+                } else if (Arrays.asList(projection).contains(Contract.Quote.COLUMN_HISTORY)) {
+                    throw new IllegalArgumentException(
+                            "History cannot be queried through the summary URI: " + uri);
+                }
+
+                // The whole list in symbol order is served from memory if every quote is cached
+                QuoteCache.Snapshot snapshot = null;
+                if (isSummaryProjection(projection) && selection == null
+                        && isSymbolOrder(sortOrder)) {
+                    snapshot = getQuoteSnapshot();
+                    QuoteCache.recordLookup(snapshot.isComplete());
+                }
+                if (snapshot != null && snapshot.isComplete()) {
+                    returnCursor = toCursor(projection, snapshot.getEntries());
+                } else {
+                    returnCursor = db.query(
+                            Contract.Quote.TABLE_NAME,
+                            projection,
+                            selection,
+                            selectionArgs,
+                            null,
+                            null,
+                            sortOrder
+                    );
+                }
+                notificationUri = Contract.Quote.SUMMARY_URI;
+                break;
+
+            case HISTORY_FOR_SYMBOL:
+                String historySymbol = Contract.History.getStockFromUri(uri);
+                returnCursor = queryRange(db, uri, Contract.History.TABLE_NAME,
+                        Contract.History.COLUMN_SYMBOL + " = ?", new String[]{historySymbol},
+                        Contract.History.COLUMN_BAR_TIME,
+                        projection, selection, selectionArgs, sortOrder);
+                // The history is written with the quote, which notifies the stock's URI
+                notificationUri = Contract.Quote.makeUriForStock(historySymbol);
+                break;
+
+            case TICKS_FOR_SYMBOL:
+                String tickSymbol = Contract.Tick.getStockFromUri(uri);
+                returnCursor = queryRange(db, uri, Contract.Tick.TABLE_NAME,
+                        Contract.Tick.COLUMN_SYMBOL + " = ?", new String[]{tickSymbol},
+                        Contract.Tick.COLUMN_TICK_TIME,
+                        projection, selection, selectionArgs, sortOrder);
+                notificationUri = Contract.Tick.makeUriForStock(tickSymbol);
+                break;
+
+            case BARS_FOR_SYMBOL:
+                String barSymbol = Contract.Bar.getStockFromUri(uri);
+                String resolution = uri.getQueryParameter(Contract.Bar.PARAM_RESOLUTION);
+                if (resolution == null) {
+                    throw new IllegalArgumentException("A bar resolution is required: " + uri);
+                }
+                returnCursor = queryRange(db, uri, Contract.Bar.TABLE_NAME,
+                        Contract.Bar.COLUMN_SYMBOL + " = ? AND "
+                                + Contract.Bar.COLUMN_RESOLUTION + " = ?",
+                        new String[]{barSymbol, resolution},
+                        Contract.Bar.COLUMN_BAR_TIME,
+                        projection, selection, selectionArgs, sortOrder);
+                notificationUri = Contract.Bar.makeNotificationUri(barSymbol);
+                break;
+
+            case WATCHLIST:
                 returnCursor = db.query(
-                        Contract.Quote.TABLE_NAME,
+                        Contract.Watchlist.TABLE_NAME,
                         projection,
-                        Contract.Quote.COLUMN_SYMBOL + " = ?",
-                        new String[]{Contract.Quote.getStockFromUri(uri)},
+                        selection,
+                        selectionArgs,
                         null,
                         null,
-                        sortOrder
+                        sortOrder == null ? Contract.Watchlist.DEFAULT_SORT_ORDER : sortOrder
                 );
+                break;
 
+            case LISTING:
+                returnCursor = queryListings(db, uri,
+                        projection == null ? Contract.Listing.LISTING_COLUMNS : projection,
+                        selection, selectionArgs, sortOrder);
+                notificationUri = Contract.Listing.URI;
                 break;
+
+            case LISTING_FOR_SYMBOL:
+                returnCursor = db.query(
+                        Contract.Listing.TABLE_NAME,
+                        projection,
+                        Contract.Listing.COLUMN_SYMBOL + " = ?",
+                        new String[]{
+                                Contract.Listing.getStockFromUri(uri).toUpperCase(Locale.US)},
+                        null,
+                        null,
+                        sortOrder
+                );
+                notificationUri = Contract.Listing.URI;
+                break;
+
             default:
                 throw new UnsupportedOperationException("Unknown URI:" + uri);
         }
 
         if (getContext() != null) {
-            returnCursor.setNotificationUri(getContext().getContentResolver(), uri);
+            returnCursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         }
 
 //        if (db.isOpen()) {
@@ -90,22 +278,52 @@ public class StockProvider extends ContentProvider {
     public Uri insert(@NonNull Uri uri, ContentValues values) {
         SQLiteDatabase db = dbHelper.getWritableDatabase();
         Uri returnUri;
+        boolean written;
 
         switch (uriMatcher.match(uri)) {
             case QUOTE:
-                db.insert(
-                        Contract.Quote.TABLE_NAME,
-                        null,
-                        values
-                );
-                returnUri = Contract.Quote.URI;
+                db.beginTransactionNonExclusive();
+                QuoteUpserter upserter = new QuoteUpserter(db);
+                boolean published = true;
+                try {
+                    written = upserter.upsert(values);
+                    if (written) {
+                        published = publishQuotes(db, Collections.singletonList(
+                                values.getAsString(Contract.Quote.COLUMN_SYMBOL)));
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    upserter.close();
+                    db.endTransaction();
+                }
+                if (!published) {
+                    QuoteCache.invalidate();
+                }
+                returnUri = Contract.Quote.makeUriForStock(
+                        values.getAsString(Contract.Quote.COLUMN_SYMBOL));
                 break;
+
+            case WATCHLIST:
+                String watchedSymbol = values.getAsString(Contract.Watchlist.COLUMN_SYMBOL);
+                ContentValues watchlistCV = new ContentValues(values);
+                if (!watchlistCV.containsKey(Contract.Watchlist.COLUMN_ADDED_TIME)) {
+                    watchlistCV.put(Contract.Watchlist.COLUMN_ADDED_TIME,
+                            System.currentTimeMillis());
+                }
+                // A stock which is already watched is ignored, and returns -1
+                written = db.insert(Contract.Watchlist.TABLE_NAME, null, watchlistCV) != -1;
+                if (written) {
+                    notifyChange(Contract.Watchlist.URI);
+                }
+                return Contract.Watchlist.makeUriForStock(watchedSymbol);
+
             default:
                 throw new UnsupportedOperationException("Unknown URI:" + uri);
         }
 
-        if (getContext() != null) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        if (written) {
+            notifyChange(returnUri);
+            notifyQuotesChanged();
         }
 
         return returnUri;
@@ -137,19 +355,71 @@ public class StockProvider extends ContentProvider {
                         selectionArgs
                 );
                 break;
+
+            case WATCHLIST:
+            case WATCHLIST_FOR_SYMBOL:
+                return deleteFromWatchlist(db, uri, selection, selectionArgs);
+
             default:
                 throw new UnsupportedOperationException("Unknown URI:" + uri);
         }
 
-        if (getContext() != null && rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        if (rowsDeleted != 0) {
+            QuoteCache.invalidate();
+            // Notifying the whole quote URI also reaches the observers of each stock
+            notifyChange(uri);
+            notifyQuotesChanged();
         }
         return rowsDeleted;
     }
 
     @Override
     public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        return 0;
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        int rowsUpdated;
+        // An update may match several rows, so the display values can only be computed from
+        // the values, which must then include all or none of the price and changes
+        if (QuoteFormat.hasPartialPrice(values)) {
+            throw new IllegalArgumentException(
+                    "The price and both changes of a quote must be updated together: " + uri);
+        }
+        // The history table is kept in step by the upsert of insert and bulkInsert
+        if (values.containsKey(Contract.Quote.COLUMN_HISTORY)) {
+            throw new IllegalArgumentException(
+                    "A history must be written by inserting the quote: " + uri);
+        }
+        values = new QuoteFormat().withDisplayValues(values);
+
+        switch (uriMatcher.match(uri)) {
+            case QUOTE:
+                rowsUpdated = db.update(
+                        Contract.Quote.TABLE_NAME,
+                        values,
+                        selection,
+                        selectionArgs
+                );
+                break;
+
+            case QUOTE_FOR_SYMBOL:
+                rowsUpdated = db.update(
+                        Contract.Quote.TABLE_NAME,
+                        values,
+                        DatabaseUtils.concatenateWhere(
+                                Contract.Quote.COLUMN_SYMBOL + " = ?", selection),
+                        DatabaseUtils.appendSelectionArgs(
+                                new String[]{Contract.Quote.getStockFromUri(uri)}, selectionArgs)
+                );
+                break;
+            default:
+                throw new UnsupportedOperationException("Unknown URI:" + uri);
+        }
+
+        if (rowsUpdated != 0) {
+            QuoteCache.invalidate();
+            notifyChange(uri);
+            notifyQuotesChanged();
+        }
+        return rowsUpdated;
     }
 
     @Override
@@ -159,28 +429,467 @@ public class StockProvider extends ContentProvider {
 
         switch (uriMatcher.match(uri)) {
             case QUOTE:
-                db.beginTransaction();
+                db.beginTransactionNonExclusive();
                 int returnCount = 0;
+                QuoteUpserter upserter = new QuoteUpserter(db);
+                List<String> changedSymbols = new ArrayList<>(values.length);
+                boolean quotesPublished = true;
                 try {
                     for (ContentValues value : values) {
-                        db.insert(
-                                Contract.Quote.TABLE_NAME,
-                                null,
-                                value
-                        );
+                        if (upserter.upsert(value)) {
+                            changedSymbols.add(value.getAsString(Contract.Quote.COLUMN_SYMBOL));
+                        }
                     }
+                    // The new version of the cache is published with the commit
+                    quotesPublished = publishQuotes(db, changedSymbols);
                     db.setTransactionSuccessful();
+                    returnCount = changedSymbols.size();
                 } finally {
+                    upserter.close();
                     db.endTransaction();
                 }
+                if (!quotesPublished && returnCount > 0) {
+                    QuoteCache.invalidate();
+                }
 
-                if (getContext() != null) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                // Notify the observers of each changed stock, then the observers of the list
+                // once for the whole batch.  Only notify if something was actually written.
+                for (String changedSymbol : changedSymbols) {
+                    notifyChange(Contract.Quote.makeUriForStock(changedSymbol));
+                }
+                if (returnCount > 0) {
+                    notifyQuotesChanged();
                 }
                 return returnCount;
+
+            case TICK:
+                db.beginTransactionNonExclusive();
+                int tickCount = 0;
+                Set<String> tickSymbols = new HashSet<>();
+                SQLiteStatement tickInsert = db.compileStatement(
+                        "INSERT INTO " + Contract.Tick.TABLE_NAME + " ("
+                                + Contract.Tick.COLUMN_SYMBOL + ", "
+                                + Contract.Tick.COLUMN_TICK_TIME + ", "
+                                + Contract.Tick.COLUMN_PRICE + ") VALUES (?, ?, ?)");
+                try {
+                    for (ContentValues value : values) {
+                        String tickSymbol = value.getAsString(Contract.Tick.COLUMN_SYMBOL);
+                        tickInsert.bindString(1, tickSymbol);
+                        tickInsert.bindLong(2, value.getAsLong(Contract.Tick.COLUMN_TICK_TIME));
+                        tickInsert.bindDouble(3, value.getAsDouble(Contract.Tick.COLUMN_PRICE));
+                        // A repeated tick is ignored, and returns -1
+                        if (tickInsert.executeInsert() != -1) {
+                            tickCount++;
+                            tickSymbols.add(tickSymbol);
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    tickInsert.close();
+                    db.endTransaction();
+                }
+
+                for (String tickSymbol : tickSymbols) {
+                    notifyChange(Contract.Tick.makeUriForStock(tickSymbol));
+                }
+                return tickCount;
+
+            case LISTING:
+                // The values replace the whole directory, in a single transaction
+                db.beginTransactionNonExclusive();
+                int listingCount;
+                try {
+                    listingCount = SymbolDirectory.replaceAll(db, values);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                notifyChange(Contract.Listing.URI);
+                return listingCount;
+
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    //---------------------------------------------------------------------------
+    // Watchlist
+
+    private int deleteFromWatchlist(SQLiteDatabase db, Uri uri, String selection,
+                                    String[] selectionArgs) {
+        if (uriMatcher.match(uri) == WATCHLIST_FOR_SYMBOL) {
+            selection = DatabaseUtils.concatenateWhere(
+                    Contract.Watchlist.COLUMN_SYMBOL + " = ?", selection);
+            selectionArgs = DatabaseUtils.appendSelectionArgs(
+                    new String[]{Contract.Watchlist.getStockFromUri(uri)}, selectionArgs);
+        }
+        int rowsDeleted = db.delete(Contract.Watchlist.TABLE_NAME, selection, selectionArgs);
+        if (rowsDeleted != 0) {
+            notifyChange(Contract.Watchlist.URI);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Records the outcome of a sync in the watchlist: a stock which was synced has its last
+     * success time set and its failure count reset, while a stock which was not has its
+     * failure count incremented.
+     * @param extras the extras of Contract.Watchlist.METHOD_RECORD_SYNC
+     * @return the number of stocks updated
+     */
+    private int recordSync(Bundle extras) {
+        if (extras == null) {
+            throw new IllegalArgumentException("The outcome of the sync is required");
+        }
+        long syncTime = extras.getLong(Contract.Watchlist.EXTRA_SYNC_TIME);
+        String[] succeeded = extras.getStringArray(Contract.Watchlist.EXTRA_SUCCEEDED);
+        String[] failed = extras.getStringArray(Contract.Watchlist.EXTRA_FAILED);
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        int rowsUpdated = 0;
+        db.beginTransactionNonExclusive();
+        SQLiteStatement success = db.compileStatement(
+                "UPDATE " + Contract.Watchlist.TABLE_NAME + " SET "
+                        + Contract.Watchlist.COLUMN_LAST_SUCCESS_TIME + " = ?, "
+                        + Contract.Watchlist.COLUMN_FAILURE_COUNT + " = 0"
+                        + " WHERE " + Contract.Watchlist.COLUMN_SYMBOL + " = ?");
+        SQLiteStatement failure = db.compileStatement(
+                "UPDATE " + Contract.Watchlist.TABLE_NAME + " SET "
+                        + Contract.Watchlist.COLUMN_FAILURE_COUNT + " = "
+                        + Contract.Watchlist.COLUMN_FAILURE_COUNT + " + 1"
+                        + " WHERE " + Contract.Watchlist.COLUMN_SYMBOL + " = ?");
+        try {
+            if (succeeded != null) {
+                for (String symbol : succeeded) {
+                    success.bindLong(1, syncTime);
+                    success.bindString(2, symbol);
+                    rowsUpdated += success.executeUpdateDelete();
+                }
+            }
+            if (failed != null) {
+                for (String symbol : failed) {
+                    failure.bindString(1, symbol);
+                    rowsUpdated += failure.executeUpdateDelete();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            success.close();
+            failure.close();
+            db.endTransaction();
+        }
+
+        if (rowsUpdated > 0) {
+            notifyChange(Contract.Watchlist.URI);
+        }
+        return rowsUpdated;
+    }
+
+    //---------------------------------------------------------------------------
+    // Listings
+
+    /**
+     * Queries the listings, returning at most the limit parameter of the URI, or
+     * maxListings if that is lower.  If the URI has a non-empty prefix parameter, the listings
+     * whose symbol starts with the prefix are returned in symbol order, followed by those whose
+     * name starts with it in name order; each is a range scan of an index, stopping at the
+     * limit.  The symbols are matched in the form in which they are stored, e.g. a prefix of
+     * BRK.B matches BRK-B.
+     */
+    private Cursor queryListings(SQLiteDatabase db, Uri uri, String[] projection,
+                                 String selection, String[] selectionArgs, String sortOrder) {
+        int limit = getListingLimit(uri);
+        String prefix = uri.getQueryParameter(Contract.Listing.PARAM_PREFIX);
+        if (prefix != null) {
+            prefix = prefix.trim().toUpperCase(Locale.US);
+        }
+        if (prefix == null || prefix.isEmpty()) {
+            return db.query(Contract.Listing.TABLE_NAME, projection, selection, selectionArgs,
+                    null, null, sortOrder, Integer.toString(limit));
+        }
+
+        String upperBound = SymbolDirectory.getPrefixUpperBound(prefix);
+        String symbolPrefix = SymbolDirectory.normalize(prefix);
+        String symbolRange = Contract.Listing.COLUMN_SYMBOL + " >= ? AND "
+                + Contract.Listing.COLUMN_SYMBOL + " < ?";
+        String[] symbolRangeArgs =
+                {symbolPrefix, SymbolDirectory.getPrefixUpperBound(symbolPrefix)};
+        Cursor symbolMatches = db.query(
+                Contract.Listing.TABLE_NAME,
+                projection,
+                DatabaseUtils.concatenateWhere(symbolRange, selection),
+                DatabaseUtils.appendSelectionArgs(symbolRangeArgs, selectionArgs),
+                null,
+                null,
+                Contract.Listing.COLUMN_SYMBOL,
+                Integer.toString(limit));
+        if (symbolMatches.getCount() >= limit) {
+            return symbolMatches;
+        }
+
+        Cursor nameMatches = db.query(
+                Contract.Listing.TABLE_NAME,
+                projection,
+                DatabaseUtils.concatenateWhere(
+                        Contract.Listing.COLUMN_NAME_KEY + " >= ? AND "
+                                + Contract.Listing.COLUMN_NAME_KEY + " < ? AND NOT ("
+                                + symbolRange + ")",
+                        selection),
+                DatabaseUtils.appendSelectionArgs(
+                        new String[]{prefix, upperBound, symbolRangeArgs[0], symbolRangeArgs[1]},
+                        selectionArgs),
+                null,
+                null,
+                Contract.Listing.COLUMN_NAME_KEY,
+                Integer.toString(limit - symbolMatches.getCount()));
+        return new MergeCursor(new Cursor[]{symbolMatches, nameMatches});
+    }
+
+    /**
+     * Returns the limit parameter of a listings URI, clamped to between 1 and maxListings.
+     * A missing or malformed limit is maxListings.
+     */
+    private int getListingLimit(Uri uri) {
+        String limitParameter = uri.getQueryParameter(Contract.Listing.PARAM_LIMIT);
+        if (limitParameter == null) {
+            return maxListings;
+        }
+        try {
+            return Math.max(1, Math.min(maxListings, Integer.parseInt(limitParameter.trim())));
+        } catch (NumberFormatException e) {
+            return maxListings;
+        }
+    }
+
+    //---------------------------------------------------------------------------
+    // Quote cache
+
+    /**
+     * Returns the quote cache snapshot, loading it from the database if it has not been loaded.
+     * The load reads on a reader connection, so that it does not wait for a sync.  A write
+     * which commits while the quotes are being read publishes or discards a version, so the
+     * quotes read are then not published, and the snapshot returned is not loaded.
+     */
+    private QuoteCache.Snapshot getQuoteSnapshot() {
+        QuoteCache.Snapshot snapshot = QuoteCache.getSnapshot();
+        if (snapshot.isLoaded()) {
+            return snapshot;
+        }
+
+        QuoteCache.publishAll(readCacheEntries(dbHelper.getReadableDatabase(), null, null),
+                maxCacheEntries, snapshot.getVersion());
+        return QuoteCache.getSnapshot();
+    }
+
+    /**
+     * Publishes the new quotes of some stocks to the cache.  This must be called in the
+     * transaction which writes them.
+     * @return false if the cache was not loaded, in which case it must be invalidated once the
+     *         transaction has ended, so that a load which read the quotes before the commit is
+     *         not published
+     */
+    private boolean publishQuotes(SQLiteDatabase db, List<String> symbols) {
+        if (!QuoteCache.getSnapshot().isLoaded()) {
+            return false;
+        }
+        if (symbols.isEmpty()) {
+            return true;
+        }
+        QuoteCache.publishChanges(readCacheEntries(db,
+                Contract.Quote.COLUMN_SYMBOL + " IN ("
+                        + TextUtils.join(",", Collections.nCopies(symbols.size(), "?")) + ")",
+                symbols.toArray(new String[symbols.size()])),
+                maxCacheEntries);
+        return true;
+    }
+
+    private static List<QuoteCache.Entry> readCacheEntries(SQLiteDatabase db, String selection,
+                                                           String[] selectionArgs) {
+        List<QuoteCache.Entry> entries = new ArrayList<>();
+        Cursor cursor = db.query(Contract.Quote.TABLE_NAME, Contract.Quote.SUMMARY_COLUMNS,
+                selection, selectionArgs, null, null, Contract.Quote.COLUMN_SYMBOL);
+        try {
+            while (cursor.moveToNext()) {
+                entries.add(new QuoteCache.Entry(
+                        cursor.getLong(Contract.Quote.POSITION_ID),
+                        cursor.getString(Contract.Quote.POSITION_SYMBOL),
+                        cursor.getFloat(Contract.Quote.POSITION_PRICE),
+                        cursor.getFloat(Contract.Quote.POSITION_ABSOLUTE_CHANGE),
+                        cursor.getFloat(Contract.Quote.POSITION_PERCENTAGE_CHANGE),
+                        cursor.getString(Contract.Quote.POSITION_DISPLAY_PRICE),
+                        cursor.getString(Contract.Quote.POSITION_DISPLAY_ABSOLUTE_CHANGE),
+                        cursor.getString(Contract.Quote.POSITION_DISPLAY_PERCENTAGE_CHANGE),
+                        cursor.getInt(Contract.Quote.POSITION_IS_UP) != 0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return entries;
+    }
+
+    private static boolean isSummaryProjection(String[] projection) {
+        return projection != null
+                && Arrays.asList(Contract.Quote.SUMMARY_COLUMNS)
+                        .containsAll(Arrays.asList(projection));
+    }
+
+    private static boolean isSymbolOrder(String sortOrder) {
+        return sortOrder == null
+                || sortOrder.trim().equalsIgnoreCase(Contract.Quote.COLUMN_SYMBOL)
+                || sortOrder.trim().equalsIgnoreCase(Contract.Quote.COLUMN_SYMBOL + " ASC");
+    }
+
+    private static Cursor toCursor(String[] projection, List<QuoteCache.Entry> entries) {
+        MatrixCursor cursor = new MatrixCursor(projection, entries.size());
+        for (QuoteCache.Entry entry : entries) {
+            MatrixCursor.RowBuilder row = cursor.newRow();
+            for (String column : projection) {
+                row.add(entry.getValue(column));
+            }
+        }
+        return cursor;
+    }
+
+    //---------------------------------------------------------------------------
+
+    /**
+     * Queries the rows of a stock in a table which are in the time range given by the
+     * from and to query parameters of a URI, if any, in time order by default.
+     * @param stockSelection the selection of the stock's rows
+     * @param stockSelectionArgs the arguments of the stock selection
+     * @param timeColumn the column holding the time of each row
+     */
+    private static Cursor queryRange(SQLiteDatabase db, Uri uri, String table,
+                                     String stockSelection, String[] stockSelectionArgs,
+                                     String timeColumn, String[] projection, String selection,
+                                     String[] selectionArgs, String sortOrder) {
+        String rangeSelection = stockSelection;
+        String[] rangeSelectionArgs = stockSelectionArgs;
+
+        // Restrict the rows to the requested range
+        String from = uri.getQueryParameter(Contract.PARAM_FROM);
+        if (from != null) {
+            rangeSelection = DatabaseUtils.concatenateWhere(rangeSelection, timeColumn + " >= ?");
+            rangeSelectionArgs = DatabaseUtils.appendSelectionArgs(
+                    rangeSelectionArgs, new String[]{from});
+        }
+        String to = uri.getQueryParameter(Contract.PARAM_TO);
+        if (to != null) {
+            rangeSelection = DatabaseUtils.concatenateWhere(rangeSelection, timeColumn + " <= ?");
+            rangeSelectionArgs = DatabaseUtils.appendSelectionArgs(
+                    rangeSelectionArgs, new String[]{to});
+        }
+
+        return db.query(
+                table,
+                projection,
+                DatabaseUtils.concatenateWhere(rangeSelection, selection),
+                DatabaseUtils.appendSelectionArgs(rangeSelectionArgs, selectionArgs),
+                null,
+                null,
+                sortOrder == null ? timeColumn + " ASC" : sortOrder
+        );
+    }
+
+    /**
+     * Runs a provider method: Contract.Bar.METHOD_COMPACT or
+     * Contract.Watchlist.METHOD_RECORD_SYNC.
+     */
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        if (Contract.Watchlist.METHOD_RECORD_SYNC.equals(method)) {
+            recordSync(extras);
+            return null;
+        }
+        if (!Contract.Bar.METHOD_COMPACT.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+
+        TickCompactor compactor = new TickCompactor(dbHelper.getWritableDatabase());
+        compactor.compact(System.currentTimeMillis());
+
+        for (String symbol : compactor.getChangedSymbols()) {
+            notifyChange(Contract.Bar.makeNotificationUri(symbol));
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(Contract.Bar.RESULT_BARS_WRITTEN, compactor.getBarsWritten());
+        result.putInt(Contract.Bar.RESULT_ROWS_DELETED, compactor.getRowsDeleted());
+        return result;
+    }
+
+    /**
+     * Applies a batch of operations in a transaction.  Every BATCH_YIELD_INTERVAL operations,
+     * and at each operation which allows it, the transaction yields to any other thread waiting
+     * for the database; the operations before a yield are committed, so a very large batch is
+     * not applied atomically.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+
+        Set<Uri> notifications = new LinkedHashSet<>();
+        batchNotifications.set(notifications);
+        boolean applied = false;
+        db.beginTransactionNonExclusive();
+        try {
+            for (int i = 0; i < operations.size(); i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && (operation.isYieldAllowed() || i % BATCH_YIELD_INTERVAL == 0)) {
+                    db.yieldIfContendedSafely();
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            db.setTransactionSuccessful();
+            applied = true;
+        } finally {
+            try {
+                db.endTransaction();
+            } finally {
+                batchNotifications.remove();
+                // The operations publish the quotes they write to the quote cache, which must
+                // not keep them if the batch is rolled back; and a load of the cache which read
+                // the quotes before the batch was committed must not be published
+                if (!applied || notifications.contains(Contract.Quote.SUMMARY_URI)) {
+                    QuoteCache.invalidate();
+                }
+            }
+        }
+
+        // Each observer is notified once for the whole batch, after it has been committed
+        for (Uri notification : notifications) {
+            notifyChange(notification);
+        }
+        return results;
+    }
+
+    //---------------------------------------------------------------------------
+    // Change notification
+
+    /**
+     * Notifies the observers of a URI of a change.
+     * While a batch is being applied, the notification is deferred to the end of the batch.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> notifications = batchNotifications.get();
+        if (notifications != null) {
+            notifications.add(uri);
+        } else if (getContext() != null) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Notifies the observers of the list of quotes that at least one quote has changed.
+     */
+    private void notifyQuotesChanged() {
+        notifyChange(Contract.Quote.SUMMARY_URI);
+    }
+
 }
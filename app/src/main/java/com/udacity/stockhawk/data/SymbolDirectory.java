@@ -0,0 +1,236 @@
+package com.udacity.stockhawk.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Reads and looks up the directory of listed stocks (see Contract.Listing).
+ * <p>
+ * Directories are read in the pipe-delimited format of the NASDAQ Trader symbol directory
+ * files (nasdaqlisted.txt and otherlisted.txt): a header line naming the columns, one line
+ * per listing, and a trailing "File Creation Time" line.  The symbol is taken from the
+ * "Symbol" or "ACT Symbol" column, the name from "Security Name", and the exchange from
+ * "Exchange" if there is one.  Test issues are skipped.  The bundled directory,
+ * ASSET_LISTINGS, is in the same format.  Symbols are stored in the form in which quotes are
+ * requested, with the '.' of a share class replaced by '-', e.g. BRK-B rather than BRK.B.
+ * <p>
+ * The directory is advisory: it suggests symbols as they are typed, and only warns that a
+ * symbol is not listed once the full directory has been downloaded, and then only for a
+ * symbol in the form of a US listing, as the directory does not cover indices such as ^GSPC
+ * or stocks listed elsewhere such as VOD.L.
+ */
+public final class SymbolDirectory {
+
+    /** The asset holding the directory bundled with the app. */
+    static final String ASSET_LISTINGS = "listings.txt";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SEPARATOR_REGEX = "\\|";
+    private static final String FOOTER_PREFIX = "File Creation Time";
+    private static final List<String> SYMBOL_HEADERS = Arrays.asList("Symbol", "ACT Symbol");
+    private static final String NAME_HEADER = "Security Name";
+    private static final String EXCHANGE_HEADER = "Exchange";
+    private static final String TEST_ISSUE_HEADER = "Test Issue";
+    /** The form of the symbol of a US listing, e.g. AAPL or BRK-B. */
+    private static final Pattern US_SYMBOL = Pattern.compile("[A-Z0-9]+(-[A-Z0-9]+)?");
+
+    private SymbolDirectory() {
+    }
+
+    /**
+     * Reads a directory.
+     * @param reader the reader of the directory file
+     * @param defaultExchange the exchange of the listings, if the file has no Exchange column
+     * @return the listings, as values of the Contract.Listing columns
+     * @throws IOException if the directory could not be read, or has no symbol column
+     */
+    public static List<ContentValues> read(BufferedReader reader, String defaultExchange)
+            throws IOException {
+        String header = reader.readLine();
+        if (header == null) {
+            throw new IOException("The symbol directory is empty");
+        }
+        List<String> headers = Arrays.asList(header.trim().split(SEPARATOR_REGEX));
+        int symbolIndex = -1;
+        for (String symbolHeader : SYMBOL_HEADERS) {
+            if (headers.contains(symbolHeader)) {
+                symbolIndex = headers.indexOf(symbolHeader);
+                break;
+            }
+        }
+        if (symbolIndex < 0) {
+            throw new IOException("The symbol directory has no symbol column: " + header);
+        }
+        int nameIndex = headers.indexOf(NAME_HEADER);
+        int exchangeIndex = headers.indexOf(EXCHANGE_HEADER);
+        int testIssueIndex = headers.indexOf(TEST_ISSUE_HEADER);
+
+        List<ContentValues> listings = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(FOOTER_PREFIX)) {
+                break;
+            }
+            String[] fields = line.split(SEPARATOR_REGEX, -1);
+            String symbol = getField(fields, symbolIndex);
+            if (symbol.isEmpty() || "Y".equals(getField(fields, testIssueIndex))) {
+                continue;
+            }
+            String exchange = getField(fields, exchangeIndex);
+
+            ContentValues listingCV = new ContentValues();
+            listingCV.put(Contract.Listing.COLUMN_SYMBOL, normalize(symbol));
+            listingCV.put(Contract.Listing.COLUMN_NAME, getField(fields, nameIndex));
+            listingCV.put(Contract.Listing.COLUMN_EXCHANGE,
+                    exchange.isEmpty() ? defaultExchange : exchange);
+            listings.add(listingCV);
+        }
+        return listings;
+    }
+
+    private static String getField(String[] fields, int index) {
+        return index >= 0 && index < fields.length ? fields[index].trim() : "";
+    }
+
+    /**
+     * Returns the symbol under which a typed symbol is watched: the symbol in upper case, or,
+     * if the directory lists the symbol with its '.' replaced by '-', that listed symbol.
+     * A symbol such as VOD.L, whose suffix is an exchange rather than a share class, is left
+     * as it is.  This takes at most one indexed lookup.
+     * @param context the context
+     * @param symbol the symbol as typed
+     * @return the symbol to watch
+     */
+    public static String resolveSymbol(Context context, String symbol) {
+        String typed = symbol.trim().toUpperCase(Locale.US);
+        if (typed.indexOf('.') >= 0) {
+            String classSymbol = normalize(typed);
+            if (hasListing(context, Contract.Listing.makeUriForStock(classSymbol))) {
+                return classSymbol;
+            }
+        }
+        return typed;
+    }
+
+    /**
+     * Returns whether a symbol is known not to be listed: whether the full directory has been
+     * downloaded, the symbol is in the form of a US listing, and the directory does not list
+     * it.  Any other symbol is validated by the next sync.  This takes one indexed lookup.
+     * @param context the context
+     * @param symbol the stock symbol, as returned by resolveSymbol
+     * @return true if the user should be warned that the symbol is not listed
+     */
+    public static boolean isKnownUnlisted(Context context, String symbol) {
+        return PrefUtils.getLastDirectoryUpdate(context) != 0
+                && US_SYMBOL.matcher(symbol).matches()
+                && !hasListing(context, Contract.Listing.makeUriForStock(symbol));
+    }
+
+    private static boolean hasListing(Context context, Uri uri) {
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(
+                    uri, new String[]{Contract.Listing._ID}, null, null, null);
+            return cursor != null && cursor.getCount() > 0;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Replaces the directory in the database.  This must be called in a transaction.
+     * @param db the database
+     * @param listings the listings, as values of the Contract.Listing columns
+     * @return the number of listings inserted; a repeated symbol is only inserted once
+     */
+    static int replaceAll(SQLiteDatabase db, ContentValues[] listings) {
+        db.delete(Contract.Listing.TABLE_NAME, null, null);
+
+        int count = 0;
+        SQLiteStatement insert = db.compileStatement(
+                "INSERT INTO " + Contract.Listing.TABLE_NAME + " ("
+                        + Contract.Listing.COLUMN_SYMBOL + ", "
+                        + Contract.Listing.COLUMN_NAME + ", "
+                        + Contract.Listing.COLUMN_EXCHANGE + ", "
+                        + Contract.Listing.COLUMN_NAME_KEY + ") VALUES (?, ?, ?, ?)");
+        try {
+            for (ContentValues listing : listings) {
+                String symbol = listing.getAsString(Contract.Listing.COLUMN_SYMBOL);
+                String name = listing.getAsString(Contract.Listing.COLUMN_NAME);
+                String exchange = listing.getAsString(Contract.Listing.COLUMN_EXCHANGE);
+                insert.bindString(1, normalize(symbol));
+                insert.bindString(2, name == null ? "" : name);
+                insert.bindString(3, exchange == null ? "" : exchange);
+                insert.bindString(4, getNameKey(name));
+                // A repeated symbol is ignored, and returns -1
+                if (insert.executeInsert() != -1) {
+                    count++;
+                }
+            }
+        } finally {
+            insert.close();
+        }
+        return count;
+    }
+
+    /**
+     * Loads the directory bundled with the app.  This must be called in a transaction.
+     * @param context the context
+     * @param db the database
+     * @return the number of listings loaded
+     * @throws IOException if the bundled directory could not be read
+     */
+    static int loadBundled(Context context, SQLiteDatabase db) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(context.getAssets().open(ASSET_LISTINGS), UTF_8));
+        try {
+            List<ContentValues> listings = read(reader, "");
+            return replaceAll(db, listings.toArray(new ContentValues[listings.size()]));
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Returns a listed symbol in the form in which it is stored: in upper case, with the '.'
+     * of a share class replaced by '-'.
+     */
+    static String normalize(String symbol) {
+        return symbol.toUpperCase(Locale.US).replace('.', '-');
+    }
+
+    /**
+     * Returns the key on which a name prefix is matched.
+     */
+    static String getNameKey(String name) {
+        return name == null ? "" : name.toUpperCase(Locale.US);
+    }
+
+    /**
+     * Returns the least string which is greater than every string starting with a prefix,
+     * so that the strings starting with the prefix are those in [prefix, upper bound), which
+     * is a range of an index.
+     * @param prefix the prefix, which must not be empty
+     * @return the upper bound
+     */
+    static String getPrefixUpperBound(String prefix) {
+        char last = prefix.charAt(prefix.length() - 1);
+        return prefix.substring(0, prefix.length() - 1) + (char) (last + 1);
+    }
+}
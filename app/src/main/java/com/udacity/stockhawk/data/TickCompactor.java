@@ -0,0 +1,201 @@
+package com.udacity.stockhawk.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.udacity.stockhawk.data.Contract.Bar;
+import com.udacity.stockhawk.data.Contract.Tick;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * Rolls the ticks up into 5-minute bars, and the 5-minute bars up into hourly bars, and
+ * deletes the ticks and bars which are past their retention period, so that the storage used
+ * for intraday prices is bounded however long the app runs.
+ * Each compaction rolls up again the bars from shortly before the newest 5-minute bar, which
+ * covers the bars which were incomplete at the previous compaction and any late ticks.
+ */
+class TickCompactor {
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+    /** The period for which raw ticks are kept. */
+    private static final long TICK_RETENTION = 2 * MILLIS_PER_DAY;
+    /** The period for which 5-minute bars are kept. */
+    private static final long FIVE_MINUTE_BAR_RETENTION = 30 * MILLIS_PER_DAY;
+    /** The period for which hourly bars are kept. */
+    private static final long HOUR_BAR_RETENTION = 365 * MILLIS_PER_DAY;
+    /** How late a tick may be observed, after the newest bar was rolled up, and still be used. */
+    private static final long LATE_TICK_MARGIN = Bar.RESOLUTION_HOUR;
+
+    private final SQLiteDatabase db;
+    /** The number of bars written by the compaction. */
+    private int barsWritten;
+    /** The number of ticks and bars deleted by the compaction. */
+    private int rowsDeleted;
+    /** The stocks whose bars have been written or deleted by the compaction. */
+    private final Set<String> changedSymbols = new HashSet<>();
+
+    TickCompactor(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Runs a compaction, in a single transaction.
+     * @param millis the current time
+     */
+    void compact(long millis) {
+        db.beginTransactionNonExclusive();
+        try {
+            long since = getNewestBarTime(Bar.RESOLUTION_5_MINUTES) - LATE_TICK_MARGIN;
+            // Start from the beginning of an hour, so that every bar rolled up is complete
+            since = Math.max(0, since - since % Bar.RESOLUTION_HOUR);
+
+            rollUp("SELECT " + Tick.COLUMN_SYMBOL + ", " + Tick.COLUMN_TICK_TIME + ", "
+                            + Tick.COLUMN_PRICE + ", " + Tick.COLUMN_PRICE + ", "
+                            + Tick.COLUMN_PRICE + ", " + Tick.COLUMN_PRICE + ", 1"
+                            + " FROM " + Tick.TABLE_NAME
+                            + " WHERE " + Tick.COLUMN_TICK_TIME + " >= ?"
+                            + " ORDER BY " + Tick.COLUMN_SYMBOL + ", " + Tick.COLUMN_TICK_TIME,
+                    new String[]{Long.toString(since)},
+                    Bar.RESOLUTION_5_MINUTES);
+
+            rollUp("SELECT " + Bar.COLUMN_SYMBOL + ", " + Bar.COLUMN_BAR_TIME + ", "
+                            + Bar.COLUMN_OPEN + ", " + Bar.COLUMN_HIGH + ", "
+                            + Bar.COLUMN_LOW + ", " + Bar.COLUMN_CLOSE + ", "
+                            + Bar.COLUMN_TICK_COUNT
+                            + " FROM " + Bar.TABLE_NAME
+                            + " WHERE " + Bar.COLUMN_RESOLUTION + " = ?"
+                            + " AND " + Bar.COLUMN_BAR_TIME + " >= ?"
+                            + " ORDER BY " + Bar.COLUMN_SYMBOL + ", " + Bar.COLUMN_BAR_TIME,
+                    new String[]{Long.toString(Bar.RESOLUTION_5_MINUTES), Long.toString(since)},
+                    Bar.RESOLUTION_HOUR);
+
+            rowsDeleted += db.delete(Tick.TABLE_NAME, Tick.COLUMN_TICK_TIME + " < ?",
+                    new String[]{Long.toString(millis - TICK_RETENTION)});
+            deleteBars(Bar.RESOLUTION_5_MINUTES, millis - FIVE_MINUTE_BAR_RETENTION);
+            deleteBars(Bar.RESOLUTION_HOUR, millis - HOUR_BAR_RETENTION);
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        Timber.d("Compaction wrote %d bars and deleted %d rows", barsWritten, rowsDeleted);
+    }
+
+    int getBarsWritten() {
+        return barsWritten;
+    }
+
+    int getRowsDeleted() {
+        return rowsDeleted;
+    }
+
+    /**
+     * Returns the stocks whose bars have been written or deleted by the compaction.
+     */
+    Set<String> getChangedSymbols() {
+        return changedSymbols;
+    }
+
+    private long getNewestBarTime(long resolution) {
+        Cursor cursor = db.rawQuery("SELECT MAX(" + Bar.COLUMN_BAR_TIME + ") FROM "
+                        + Bar.TABLE_NAME + " WHERE " + Bar.COLUMN_RESOLUTION + " = ?",
+                new String[]{Long.toString(resolution)});
+        try {
+            // MAX is null if there are no bars
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Rolls rows up into bars.
+     * @param sql a query returning symbol, time, open, high, low, close and tick count,
+     *            ordered by symbol and time
+     * @param selectionArgs the arguments of the query
+     * @param resolution the resolution of the bars to write
+     */
+    private void rollUp(String sql, String[] selectionArgs, long resolution) {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + Bar.TABLE_NAME + " ("
+                + Bar.COLUMN_SYMBOL + ", " + Bar.COLUMN_RESOLUTION + ", "
+                + Bar.COLUMN_BAR_TIME + ", " + Bar.COLUMN_OPEN + ", " + Bar.COLUMN_HIGH + ", "
+                + Bar.COLUMN_LOW + ", " + Bar.COLUMN_CLOSE + ", " + Bar.COLUMN_TICK_COUNT
+                + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+        Cursor cursor = db.rawQuery(sql, selectionArgs);
+        try {
+            String barSymbol = null;
+            long barTime = 0;
+            double open = 0;
+            double high = 0;
+            double low = 0;
+            double close = 0;
+            long tickCount = 0;
+
+            while (cursor.moveToNext()) {
+                String symbol = cursor.getString(0);
+                long time = cursor.getLong(1);
+                long rowBarTime = time - time % resolution;
+
+                if (!symbol.equals(barSymbol) || rowBarTime != barTime) {
+                    if (barSymbol != null) {
+                        writeBar(insert, barSymbol, resolution, barTime,
+                                open, high, low, close, tickCount);
+                    }
+                    barSymbol = symbol;
+                    barTime = rowBarTime;
+                    open = cursor.getDouble(2);
+                    high = cursor.getDouble(3);
+                    low = cursor.getDouble(4);
+                    tickCount = 0;
+                }
+                high = Math.max(high, cursor.getDouble(3));
+                low = Math.min(low, cursor.getDouble(4));
+                close = cursor.getDouble(5);
+                tickCount += cursor.getLong(6);
+            }
+            if (barSymbol != null) {
+                writeBar(insert, barSymbol, resolution, barTime, open, high, low, close, tickCount);
+            }
+        } finally {
+            cursor.close();
+            insert.close();
+        }
+    }
+
+    private void writeBar(SQLiteStatement insert, String symbol, long resolution, long barTime,
+                          double open, double high, double low, double close, long tickCount) {
+        insert.bindString(1, symbol);
+        insert.bindLong(2, resolution);
+        insert.bindLong(3, barTime);
+        insert.bindDouble(4, open);
+        insert.bindDouble(5, high);
+        insert.bindDouble(6, low);
+        insert.bindDouble(7, close);
+        insert.bindLong(8, tickCount);
+        if (insert.executeInsert() != -1) {
+            barsWritten++;
+            changedSymbols.add(symbol);
+        }
+    }
+
+    private void deleteBars(long resolution, long before) {
+        String where = Bar.COLUMN_RESOLUTION + " = ? AND " + Bar.COLUMN_BAR_TIME + " < ?";
+        String[] whereArgs = {Long.toString(resolution), Long.toString(before)};
+
+        Cursor cursor = db.query(true, Bar.TABLE_NAME, new String[]{Bar.COLUMN_SYMBOL},
+                where, whereArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                changedSymbols.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        rowsDeleted += db.delete(Bar.TABLE_NAME, where, whereArgs);
+    }
+}
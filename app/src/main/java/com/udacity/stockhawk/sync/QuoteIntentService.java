@@ -15,6 +15,14 @@ public class QuoteIntentService extends IntentService {
     @Override
     protected void onHandleIntent(Intent intent) {
         Timber.d("Intent handled");
-        QuoteSyncJob.getQuotes(getApplicationContext());
+        try {
+            // Run the requested sync, and any requested while it runs
+            SyncCoordinator.runPendingSyncs(getApplicationContext());
+        } finally {
+            // Schedule the next periodic sync once the syncs are done, even if one failed.  A
+            // periodic job which fires while a sync runs only requests a sync, which runs
+            // above, so the schedule is only kept if it is made after that sync.
+            QuoteSyncJob.scheduleNext(getApplicationContext());
+        }
     }
 }
@@ -2,7 +2,6 @@ package com.udacity.stockhawk.sync;
 
 import android.app.job.JobParameters;
 import android.app.job.JobService;
-import android.content.Intent;
 
 import timber.log.Timber;
 
@@ -12,9 +11,9 @@ public class QuoteJobService extends JobService {
     @Override
     public boolean onStartJob(JobParameters jobParameters) {
         Timber.d("Intent handled");
-        Intent nowIntent = new Intent(getApplicationContext(), QuoteIntentService.class);
-        getApplicationContext().startService(nowIntent);
-        return true;
+        SyncCoordinator.requestSync(getApplicationContext(), false);
+        // The sync is done by the intent service, so there is no more work for this job
+        return false;
     }
 
     @Override
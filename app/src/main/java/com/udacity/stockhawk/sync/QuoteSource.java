@@ -0,0 +1,35 @@
+package com.udacity.stockhawk.sync;
+
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+
+import yahoofinance.histquotes.HistoricalQuote;
+import yahoofinance.quotes.stock.StockQuote;
+
+/**
+ * A source of stock quotes and weekly price histories, used by the sync job.
+ */
+public interface QuoteSource {
+
+    /**
+     * Returns the current quotes for a number of stocks.
+     * @param symbols the symbols of the stocks
+     * @return a map of stock symbol to quote; stocks for which no quote is available
+     *         may be missing from the map
+     * @throws IOException if the quotes could not be fetched
+     */
+    Map<String, StockQuote> getQuotes(String[] symbols) throws IOException;
+
+    /**
+     * Returns the weekly price history of a stock, most recent point first.
+     * @param symbol the symbol of the stock
+     * @param from the start of the period of the history
+     * @param to the end of the period of the history
+     * @return the price history of the stock
+     * @throws IOException if the history could not be fetched
+     */
+    List<HistoricalQuote> getHistory(String symbol, Calendar from, Calendar to)
+            throws IOException;
+}
@@ -3,189 +3,171 @@ package com.udacity.stockhawk.sync;
 import android.app.job.JobInfo;
 import android.app.job.JobScheduler;
 import android.content.ComponentName;
-import android.content.ContentValues;
 import android.content.Context;
-import android.content.Intent;
-import android.database.Cursor;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 
-import com.udacity.stockhawk.data.Contract;
-import com.udacity.stockhawk.data.PrefUtils;
-import com.udacity.stockhawk.widget.ListWidgetProvider;
-
-import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import timber.log.Timber;
-import yahoofinance.Stock;
-import yahoofinance.YahooFinance;
-import yahoofinance.histquotes.HistoricalQuote;
-import yahoofinance.histquotes.Interval;
-import yahoofinance.quotes.stock.StockQuote;
 
 public final class QuoteSyncJob {
 
     private static final int ONE_OFF_ID = 2;
-    private static final int PERIOD = 300000;
+    /** The interval between syncs while the market is open. */
+    private static final long PERIOD_OPEN = 60000;
+    /** The maximum interval between syncs while the market is closed. */
+    private static final long PERIOD_CLOSED = 3 * 60 * 60000;
+    /** The delay after the market closes before syncing, to pick up closing prices. */
+    private static final long CLOSE_GRACE = 5 * 60000;
     private static final int INITIAL_BACKOFF = 10000;
     private static final int PERIODIC_ID = 1;
-    private static final int YEARS_OF_HISTORY = 2;
+    private static final int COMPACTION_ID = 3;
+    /** The interval between compactions of the intraday ticks. */
+    private static final long PERIOD_COMPACTION = 60 * 60000;
+    private static final int DIRECTORY_UPDATE_ID = 4;
+    /** The interval between updates of the symbol directory. */
+    private static final long PERIOD_DIRECTORY_UPDATE = 7 * 24 * 60 * 60000L;
+    static final TradingCalendar TRADING_CALENDAR = TradingCalendar.US_EQUITIES;
+    /** Connect and read deadline for each request to the quote source. */
+    static final int REQUEST_TIMEOUT_MILLIS = 10000;
+
+    /** The source of stock quotes and histories. */
+    private static volatile QuoteSource quoteSource = new YahooQuoteSource();
 
     private QuoteSyncJob() {
     }
 
-    static void getQuotes(Context context) {
+    /**
+     * Sets the source of stock quotes and histories used by the sync job, e.g. to point it at
+     * a stand-in for Yahoo Finance.
+     * @param source the source of stock quotes and histories
+     */
+    static void setQuoteSource(QuoteSource source) {
+        quoteSource = source;
+    }
 
-        Timber.d("Running sync job");
+    /**
+     * Fetches the latest quotes for the stocks in the preferences and stores them in the database.
+     * Unless a full history fetch is requested, only the history since the newest stored point
+     * is requested for each stock, and it is merged into the stored history.
+     * @param context the context
+     * @param symbols the symbols of the stocks to fetch, or null for every stock in the
+     *                preferences
+     * @param fullHistory if true, the full history is fetched for every stock, replacing the
+     *                    stored history
+     * @return statistics for the sync
+     */
+    static SyncStats getQuotes(Context context, Collection<String> symbols,
+                               boolean fullHistory) {
+        return new QuoteSyncRun(context, quoteSource, symbols, fullHistory).run();
+    }
 
-        Calendar from = Calendar.getInstance();
-        Calendar to = Calendar.getInstance();
-        from.add(Calendar.YEAR, -YEARS_OF_HISTORY);
+    /**
+     * Schedules the next periodic sync.  Syncs are frequent while the market is open, with one
+     * just after it closes to pick up the closing prices, and infrequent while it is closed.
+     * Each sync run schedules the next periodic sync when it finishes.
+     * @param context the context
+     */
+    static void scheduleNext(Context context) {
+        long delay = getSyncDelay(TRADING_CALENDAR, System.currentTimeMillis());
+        Timber.d("Scheduling the next periodic sync in %d ms", delay);
 
-        try {
+        JobInfo.Builder builder = new JobInfo.Builder(PERIODIC_ID, new ComponentName(context, QuoteJobService.class));
 
-            Set<String> stockPref = PrefUtils.getStocks(context);
-            Set<String> stockCopy = new HashSet<>();
-            stockCopy.addAll(stockPref);
-            String[] stockArray = stockPref.toArray(new String[stockPref.size()]);
+        builder.setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setMinimumLatency(delay)
+                .setBackoffCriteria(INITIAL_BACKOFF, JobInfo.BACKOFF_POLICY_EXPONENTIAL);
 
-            Timber.d(stockCopy.toString());
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
 
-            if (stockArray.length == 0) {
-                return;
-            }
-            Map<String, Stock> quotes = YahooFinance.get(stockArray);
-            Timber.d(quotes.toString());
-
-            Set<String> symbolsToRemove = null;
-            ArrayList<ContentValues> quoteCVs = new ArrayList<>();
-
-            // The stock preferences may have been updated in a different thread,
-            // while obtaining the stock info from Yahoo Finance,
-            // so get the latest preference values here
-            Set<String> stockPrefNew = PrefUtils.getStocks(context);
-
-            for (String symbol : stockCopy) {
-
-                // do nothing if the stock was removed from preferences while its data was
-                // being fetched from Yahoo Finance
-                if (!stockPrefNew.contains(symbol)) {
-                    continue;
-                }
-
-                Stock stock = quotes.get(symbol);
-                StockQuote quote = stock.getQuote();
-
-                if (quote.getPrice() != null
-                        && quote.getChange() != null
-                        && quote.getChangeInPercent() != null) {
-
-                    float price = quote.getPrice().floatValue();
-                    float change = quote.getChange().floatValue();
-                    float percentChange = quote.getChangeInPercent().floatValue();
-
-                    // WARNING! Don't request historical data for a stock that doesn't exist!
-                    // The request will hang forever X_x
-                    List<HistoricalQuote> history = stock.getHistory(from, to, Interval.WEEKLY);
-
-                    StringBuilder historyBuilder = new StringBuilder();
-
-                    if (history != null) {
-                        for (HistoricalQuote it : history) {
-                            historyBuilder.append(it.getDate().getTimeInMillis());
-                            historyBuilder.append(", ");
-                            historyBuilder.append(it.getClose());
-                            historyBuilder.append("\n");
-                        }
-                    }
-
-                    ContentValues quoteCV = new ContentValues();
-                    quoteCV.put(Contract.Quote.COLUMN_SYMBOL, symbol);
-                    quoteCV.put(Contract.Quote.COLUMN_PRICE, price);
-                    quoteCV.put(Contract.Quote.COLUMN_PERCENTAGE_CHANGE, percentChange);
-                    quoteCV.put(Contract.Quote.COLUMN_ABSOLUTE_CHANGE, change);
-
-                    quoteCV.put(Contract.Quote.COLUMN_HISTORY, historyBuilder.toString());
-
-                    quoteCVs.add(quoteCV);
-                } else {
-                    // If no stock data was returned for the symbol (i.e. we are here) AND the
-                    // stock symbol is not in the database (i.e. there has never been stock data
-                    // for the stock), it is almost certain that the stock symbol is not a valid
-                    // stock symbol. (If the symbol is in the database, there has been stock info
-                    // for it in the past and the stock info may just be temporarily unavailable.)
-                    // In this case, add the symbol to a list of stocks to be removed from preferences.
-
-                    Set<String> symbolsInDatabase = getSymbolsInDatabase(context);
-                    Timber.d("symbolsInDatabase: " + symbolsInDatabase.toString());
-                    if (!symbolsInDatabase.contains(symbol)) {
-                        if (symbolsToRemove == null) {
-                            symbolsToRemove = new HashSet<>();
-                        }
-                        symbolsToRemove.add(symbol);
-                    }
-                }
-            }
+        scheduler.schedule(builder.build());
+    }
 
-            context.getContentResolver()
-                    .bulkInsert(
-                            Contract.Quote.URI,
-                            quoteCVs.toArray(new ContentValues[quoteCVs.size()]));
+    /**
+     * Returns the delay until the next periodic sync.
+     * @param calendar the trading calendar of the market
+     * @param millis the current time
+     * @return the delay in milliseconds
+     */
+    static long getSyncDelay(TradingCalendar calendar, long millis) {
+        if (calendar.isOpen(millis)) {
+            return Math.min(PERIOD_OPEN, calendar.getNextClose(millis) + CLOSE_GRACE - millis);
+        }
+        long previousClose = calendar.getPreviousClose(millis);
+        if (previousClose != Long.MIN_VALUE && millis - previousClose < CLOSE_GRACE) {
+            return previousClose + CLOSE_GRACE - millis;
+        }
+        return Math.min(PERIOD_CLOSED, calendar.getNextOpen(millis) - millis);
+    }
 
-            // Update any widgets with the latest stock info
-            ListWidgetProvider.updateWidgets(context);
 
-            // Remove any symbols which are not valid stocks from the preferences
-            if (symbolsToRemove != null) {
-                for (String symbolToRemove : symbolsToRemove) {
-                    Timber.d("Removing symbol from preferences: " + symbolToRemove);
-                    PrefUtils.removeStock(context, symbolToRemove);
-                }
-            }
+    /**
+     * Schedules the periodic compaction of the intraday ticks, unless it is already scheduled.
+     * @param context the context
+     */
+    static void scheduleCompaction(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
 
-        } catch (Exception exception) {
-            Timber.e(exception, "Error fetching stock quotes");
+        // Rescheduling would restart the period, so leave an existing schedule alone
+        if (isPending(scheduler, COMPACTION_ID)) {
+            return;
         }
-    }
 
-    private static void schedulePeriodic(Context context) {
-        Timber.d("Scheduling a periodic task");
+        JobInfo.Builder builder = new JobInfo.Builder(COMPACTION_ID, new ComponentName(context, TickCompactionJobService.class));
 
+        builder.setPeriodic(PERIOD_COMPACTION);
 
-        JobInfo.Builder builder = new JobInfo.Builder(PERIODIC_ID, new ComponentName(context, QuoteJobService.class));
-
+        scheduler.schedule(builder.build());
+    }
 
-        builder.setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
-                .setPeriodic(PERIOD)
-                .setBackoffCriteria(INITIAL_BACKOFF, JobInfo.BACKOFF_POLICY_EXPONENTIAL);
 
+    /**
+     * Schedules the periodic update of the symbol directory, unless it is already scheduled.
+     * The directory is a few hundred kilobytes, so it is only downloaded on an unmetered
+     * network.
+     * @param context the context
+     */
+    static void scheduleDirectoryUpdate(Context context) {
         JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
 
+        if (isPending(scheduler, DIRECTORY_UPDATE_ID)) {
+            return;
+        }
+
+        JobInfo.Builder builder = new JobInfo.Builder(DIRECTORY_UPDATE_ID,
+                new ComponentName(context, SymbolDirectoryJobService.class));
+
+        builder.setPeriodic(PERIOD_DIRECTORY_UPDATE)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED);
+
         scheduler.schedule(builder.build());
     }
 
+    private static boolean isPending(JobScheduler scheduler, int jobId) {
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == jobId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
 
     public static synchronized void initialize(final Context context) {
 
-        schedulePeriodic(context);
+        scheduleNext(context);
+        scheduleCompaction(context);
+        scheduleDirectoryUpdate(context);
         syncImmediately(context);
 
     }
 
     public static synchronized void syncImmediately(Context context) {
 
-        ConnectivityManager cm =
-                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-        NetworkInfo networkInfo = cm.getActiveNetworkInfo();
-        if (networkInfo != null && networkInfo.isConnectedOrConnecting()) {
-            Intent nowIntent = new Intent(context, QuoteIntentService.class);
-            context.startService(nowIntent);
+        if (isNetworkUp(context)) {
+            SyncCoordinator.requestSync(context, false);
         } else {
 
             JobInfo.Builder builder = new JobInfo.Builder(ONE_OFF_ID, new ComponentName(context, QuoteJobService.class));
@@ -199,35 +181,36 @@ public final class QuoteSyncJob {
         }
     }
 
-    private static Set<String> getSymbolsInDatabase(Context context) {
-        Cursor cursor = null;
-        Set<String> symbols = null;
-
-        try {
-            cursor = context.getContentResolver().query(
-                    Contract.Quote.URI,
-                    Contract.Quote.QUOTE_COLUMNS,
-                    null,
-                    null,
-                    null);
-
-            if (cursor != null && cursor.getCount() > 0) {
-                symbols = new HashSet<>();
-                while (cursor.moveToNext()) {
-                    symbols.add(cursor.getString(Contract.Quote.POSITION_SYMBOL));
-                }
-            }
-
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-        }
-        // do this check here rather than returning earlier to ensure the cursor gets closed
-        if (symbols == null) {
-            return Collections.emptySet();
+    /**
+     * Fetches and stores the quote and history for a stock only, e.g. a stock which has just
+     * been added.  If the stock turns out not to be a valid stock, it is removed from the
+     * preferences.
+     * @param context the context
+     * @param symbol the stock symbol
+     */
+    public static synchronized void syncStock(Context context, String symbol) {
+        if (isNetworkUp(context)) {
+            SyncCoordinator.requestSync(context, Collections.singleton(symbol));
+        } else {
+            // The stock will be fetched by the sync scheduled for when the network is up
+            syncImmediately(context);
         }
-        return symbols;
+    }
+
+    /**
+     * Starts a sync which fetches the full history of every stock, replacing the stored
+     * histories.  This repairs any stored history which has gaps or bad points.
+     * @param context the context
+     */
+    public static void repairHistory(Context context) {
+        SyncCoordinator.requestSync(context, true);
+    }
+
+    private static boolean isNetworkUp(Context context) {
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = cm.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnectedOrConnecting();
     }
 
 }
@@ -0,0 +1,638 @@
+package com.udacity.stockhawk.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.text.TextUtils;
+
+import com.udacity.stockhawk.R;
+import com.udacity.stockhawk.data.Contract;
+import com.udacity.stockhawk.data.HistoryCodec;
+import com.udacity.stockhawk.data.HistoryPyramid;
+import com.udacity.stockhawk.data.HistorySeries;
+import com.udacity.stockhawk.data.PrefUtils;
+import com.udacity.stockhawk.widget.ListWidgetProvider;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import timber.log.Timber;
+import yahoofinance.histquotes.HistoricalQuote;
+import yahoofinance.quotes.stock.StockQuote;
+
+/**
+ * A single run of the sync job, which fetches the latest quotes and histories for a list of
+ * stocks and stores them in the database.
+ * The stocks are processed as a pipeline of fixed-size chunks: while one chunk's histories are
+ * fetched and the chunk is committed to the database in its own transaction, the quotes for
+ * the next chunk are downloaded.  The memory used is therefore bounded by the chunk size rather
+ * than the number of stocks, and the UI sees the results of each chunk as it is committed.
+ */
+class QuoteSyncRun {
+
+    private static final int YEARS_OF_HISTORY = 10;
+    /**
+     * How much later than the start of the history period a stored history may start before
+     * it is fetched in full again: one weekly point.
+     */
+    private static final long HISTORY_START_TOLERANCE_MILLIS = 7 * 24 * 60 * 60 * 1000L;
+    /**
+     * Deadline for waiting for a chunk's quotes, after which the chunk is abandoned.
+     * This is a backstop in case a request does not honour REQUEST_TIMEOUT_MILLIS.
+     */
+    private static final long QUOTE_FETCH_DEADLINE_MILLIS =
+            2 * QuoteSyncJob.REQUEST_TIMEOUT_MILLIS;
+    /**
+     * Deadline for all the history fetches of a chunk to complete, after which those still
+     * outstanding are abandoned and the stored histories kept.  The fetches run in parallel,
+     * so this allows several rounds of requests which each take up to REQUEST_TIMEOUT_MILLIS.
+     */
+    private static final long CHUNK_HISTORY_DEADLINE_MILLIS =
+            6 * QuoteSyncJob.REQUEST_TIMEOUT_MILLIS;
+
+    private final Context context;
+    private final QuoteSource source;
+    /** The stocks to sync, or null for every stock in the watchlist. */
+    private final Collection<String> targetSymbols;
+    private final boolean fullHistory;
+    private final Calendar from;
+    private final Calendar to;
+    /** Whether histories are to be fetched, rather than keeping the stored histories. */
+    private final boolean refreshHistory;
+    private final SymbolCircuitBreaker circuitBreaker;
+
+    /** The symbols which are almost certainly not valid stock symbols. */
+    private final Set<String> symbolsToRemove = new HashSet<>();
+    /** The symbols for which a quote was fetched. */
+    private final ArrayList<String> succeededSymbols = new ArrayList<>();
+    /** The symbols of known stocks for which no quote could be fetched. */
+    private final ArrayList<String> failedSymbols = new ArrayList<>();
+    /** Whether every chunk has been fetched and committed successfully. */
+    private boolean complete = true;
+    /** The number of rows which have changed, and so have been written to the database. */
+    private int changedRows;
+    /** The number of rows which have not changed, and so have not been written. */
+    private int skippedRows;
+
+    /**
+     * Constructor.
+     * @param context the context
+     * @param source the source of stock quotes and histories
+     * @param targetSymbols the symbols of the stocks to sync, or null for every stock in the
+     *                      watchlist
+     * @param fullHistory if true, the full history is fetched for every stock, replacing the
+     *                    stored history
+     */
+    QuoteSyncRun(Context context, QuoteSource source, Collection<String> targetSymbols,
+                 boolean fullHistory) {
+        this.context = context;
+        this.source = source;
+        this.targetSymbols = targetSymbols;
+        this.fullHistory = fullHistory;
+
+        from = Calendar.getInstance();
+        to = Calendar.getInstance();
+        from.add(Calendar.YEAR, -YEARS_OF_HISTORY);
+
+        // The weekly bars are fetched again once per session, by the first sync after it
+        // closes, rather than by every sync while the market is open: the latest bar is
+        // provisional until the week ends, and the latest price is in the quote anyway
+        refreshHistory = fullHistory || QuoteSyncJob.TRADING_CALENDAR.hasClosedBetween(
+                PrefUtils.getLastHistorySync(context), to.getTimeInMillis());
+
+        circuitBreaker = new SymbolCircuitBreaker(context);
+    }
+
+    /**
+     * Fetches and stores the quotes for the stocks in the watchlist, or for the target
+     * stocks which are in the watchlist.
+     * @return statistics for the sync
+     */
+    SyncStats run() {
+        long startMillis = System.currentTimeMillis();
+        Timber.d("Running sync job, targetSymbols: %s, fullHistory: %b, refreshHistory: %b",
+                targetSymbols, fullHistory, refreshHistory);
+
+        List<String> symbols = new ArrayList<>(PrefUtils.getStocks(context));
+        if (targetSymbols != null) {
+            symbols.retainAll(targetSymbols);
+        } else {
+            // Forget the history request failures of stocks which are no longer watched
+            circuitBreaker.retainOnly(symbols);
+        }
+        Timber.d(symbols.toString());
+
+        if (symbols.isEmpty()) {
+            circuitBreaker.save();
+            return new SyncStats(0, 0, System.currentTimeMillis() - startMillis);
+        }
+
+        int chunkSize = context.getResources().getInteger(R.integer.sync_chunk_size);
+        ExecutorService quoteExecutor = Executors.newSingleThreadExecutor();
+        ExecutorService historyExecutor =
+                createHistoryExecutor(Math.min(chunkSize, symbols.size()));
+
+        try {
+            Future<Map<String, StockQuote>> nextQuotes =
+                    quoteExecutor.submit(new QuoteFetch(getChunk(symbols, 0, chunkSize)));
+
+            for (int start = 0; start < symbols.size(); start += chunkSize) {
+                List<String> chunk = getChunk(symbols, start, chunkSize);
+                Future<Map<String, StockQuote>> quotesFuture = nextQuotes;
+
+                // Start downloading the next chunk's quotes while this chunk is processed
+                if (start + chunkSize < symbols.size()) {
+                    nextQuotes = quoteExecutor.submit(
+                            new QuoteFetch(getChunk(symbols, start + chunkSize, chunkSize)));
+                }
+
+                Map<String, StockQuote> quotes;
+                try {
+                    quotes = quotesFuture.get(QUOTE_FETCH_DEADLINE_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (ExecutionException e) {
+                    // Nothing is known about the stocks in this chunk, so move on to the next
+                    Timber.e(e.getCause(), "Error fetching stock quotes");
+                    complete = false;
+                    failedSymbols.addAll(chunk);
+                    continue;
+                } catch (TimeoutException e) {
+                    Timber.e("Timed out fetching stock quotes");
+                    quotesFuture.cancel(true);
+                    complete = false;
+                    failedSymbols.addAll(chunk);
+                    continue;
+                }
+                Timber.d(quotes.toString());
+
+                syncChunk(chunk, quotes, historyExecutor);
+            }
+
+        } catch (Exception exception) {
+            Timber.e(exception, "Error fetching stock quotes");
+            complete = false;
+        } finally {
+            quoteExecutor.shutdownNow();
+            historyExecutor.shutdownNow();
+            circuitBreaker.save();
+        }
+
+        // Update any widgets with the latest stock info, if any has changed
+        if (changedRows > 0) {
+            ListWidgetProvider.updateWidgets(context);
+        }
+
+        // Only a sync of every stock brings every history up to date
+        if (refreshHistory && complete && targetSymbols == null) {
+            PrefUtils.setLastHistorySync(context, to.getTimeInMillis());
+        }
+
+        // Remove any symbols which are not valid stocks from the watchlist
+        for (String symbolToRemove : symbolsToRemove) {
+            Timber.d("Removing symbol from watchlist: " + symbolToRemove);
+            PrefUtils.removeStock(context, symbolToRemove);
+            circuitBreaker.forget(symbolToRemove);
+        }
+        circuitBreaker.save();
+        recordSync(startMillis);
+
+        SyncStats stats = new SyncStats(changedRows, skippedRows,
+                System.currentTimeMillis() - startMillis);
+        Timber.i("Sync finished: %s", stats);
+        return stats;
+    }
+
+    /**
+     * Fetches the histories for a chunk of stocks and commits the chunk to the database.
+     * @param chunk the symbols of the stocks in the chunk
+     * @param quotes the quotes for the stocks in the chunk
+     * @param historyExecutor the executor on which histories are fetched
+     */
+    private void syncChunk(List<String> chunk, Map<String, StockQuote> quotes,
+                           ExecutorService historyExecutor) throws InterruptedException {
+
+        Map<String, ContentValues> storedQuotes = getQuotesInDatabase(chunk);
+        long historyDeadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(CHUNK_HISTORY_DEADLINE_MILLIS);
+
+        // The history fetch for each valid stock, or null if the fetch is being skipped
+        Map<String, Future<byte[]>> historyFutures = new LinkedHashMap<>();
+        ArrayList<ContentValues> quoteCVs = new ArrayList<>();
+        // Every quote observed is recorded as a tick, whether or not it has changed
+        ArrayList<ContentValues> tickCVs = new ArrayList<>();
+
+        // Fetch the history of each stock concurrently, using a bounded pool of workers
+        for (String symbol : chunk) {
+
+            StockQuote quote = quotes.get(symbol);
+
+            if (quote != null
+                    && quote.getPrice() != null
+                    && quote.getChange() != null
+                    && quote.getChangeInPercent() != null) {
+
+                succeededSymbols.add(symbol);
+                byte[] storedHistory = getStoredHistory(storedQuotes, symbol);
+                boolean hasStoredHistory = HistoryCodec.getSize(storedHistory) > 0;
+
+                // WARNING! Don't request historical data for a stock that doesn't exist!
+                // The request will hang forever X_x
+                // (The request timeouts and the circuit breaker guard against this.)
+                if (!refreshHistory && hasStoredHistory) {
+                    historyFutures.put(symbol, null);
+                } else if (circuitBreaker.allowRequest(symbol)) {
+                    historyFutures.put(symbol, historyExecutor.submit(
+                            new HistoryFetch(symbol, storedHistory, !fullHistory)));
+                } else {
+                    Timber.d("Skipping history fetch for %s, circuit breaker is open", symbol);
+                    historyFutures.put(symbol, null);
+                }
+            } else {
+                // If no stock data was returned for the symbol (i.e. we are here) AND the
+                // stock symbol is not in the database (i.e. there has never been stock data
+                // for the stock), it is almost certain that the stock symbol is not a valid
+                // stock symbol. (If the symbol is in the database, there has been stock info
+                // for it in the past and the stock info may just be temporarily unavailable.)
+                // In this case, add the symbol to a list of stocks to be removed from the
+                // watchlist.
+
+                if (!storedQuotes.containsKey(symbol)) {
+                    symbolsToRemove.add(symbol);
+                } else {
+                    failedSymbols.add(symbol);
+                }
+            }
+        }
+
+        for (Map.Entry<String, Future<byte[]>> entry : historyFutures.entrySet()) {
+            String symbol = entry.getKey();
+            Future<byte[]> historyFuture = entry.getValue();
+
+            // If the history could not be fetched, keep the stored history, so that the
+            // latest quote is still stored
+            byte[] history = getStoredHistory(storedQuotes, symbol);
+            if (historyFuture != null) {
+                try {
+                    // Every fetch of the chunk shares one deadline, so however many hang, the
+                    // chunk waits no longer than CHUNK_HISTORY_DEADLINE_MILLIS in all
+                    history = historyFuture.get(Math.max(0, historyDeadline - System.nanoTime()),
+                            TimeUnit.NANOSECONDS);
+                    circuitBreaker.recordSuccess(symbol);
+                } catch (ExecutionException e) {
+                    Timber.e(e.getCause(), "Error fetching history for %s", symbol);
+                    circuitBreaker.recordFailure(symbol);
+                } catch (TimeoutException e) {
+                    Timber.e("Timed out fetching history for %s", symbol);
+                    historyFuture.cancel(true);
+                    circuitBreaker.recordFailure(symbol);
+                }
+            }
+            if (history == null) {
+                history = HistoryCodec.empty();
+            }
+            StockQuote quote = quotes.get(symbol);
+
+            ContentValues quoteCV = new ContentValues();
+            quoteCV.put(Contract.Quote.COLUMN_SYMBOL, symbol);
+            quoteCV.put(Contract.Quote.COLUMN_PRICE, quote.getPrice().floatValue());
+            quoteCV.put(Contract.Quote.COLUMN_PERCENTAGE_CHANGE,
+                    quote.getChangeInPercent().floatValue());
+            quoteCV.put(Contract.Quote.COLUMN_ABSOLUTE_CHANGE, quote.getChange().floatValue());
+
+            // Only write the history if it has changed, so that a price-only update leaves
+            // the stored history untouched
+            if (!Arrays.equals(history, getStoredHistory(storedQuotes, symbol))) {
+                quoteCV.put(Contract.Quote.COLUMN_HISTORY, history);
+                quoteCV.put(Contract.Quote.COLUMN_HISTORY_PYRAMID,
+                        getHistoryPyramid(history, storedQuotes.get(symbol)));
+            }
+
+            // The time of the last trade is used, so that a trade observed again while the
+            // market is closed is only recorded once.  A quote without a trade time is not
+            // recorded as a tick, as the time of the sync would record it again on every sync.
+            Calendar tradeTime = quote.getLastTradeTime();
+            if (tradeTime != null) {
+                ContentValues tickCV = new ContentValues();
+                tickCV.put(Contract.Tick.COLUMN_SYMBOL, symbol);
+                tickCV.put(Contract.Tick.COLUMN_TICK_TIME, tradeTime.getTimeInMillis());
+                tickCV.put(Contract.Tick.COLUMN_PRICE, quote.getPrice().floatValue());
+                tickCVs.add(tickCV);
+            }
+
+            // Don't rewrite a row which has not changed, e.g. while the market is closed
+            if (isUnchanged(quoteCV, storedQuotes.get(symbol))) {
+                skippedRows++;
+            } else {
+                quoteCVs.add(quoteCV);
+            }
+        }
+
+        // The watchlist may have been updated in a different thread,
+        // while obtaining the stock info from Yahoo Finance,
+        // so check which of the chunk's stocks are still watched here
+        Set<String> stockPrefNew = getWatchedStocks(chunk);
+
+        // do nothing for any stock which was removed from the watchlist while its data was
+        // being fetched from Yahoo Finance
+        ArrayList<ContentValues> committedCVs = new ArrayList<>(quoteCVs.size());
+        for (ContentValues quoteCV : quoteCVs) {
+            if (stockPrefNew.contains(quoteCV.getAsString(Contract.Quote.COLUMN_SYMBOL))) {
+                committedCVs.add(quoteCV);
+            }
+        }
+
+        ArrayList<ContentValues> committedTickCVs = new ArrayList<>(tickCVs.size());
+        for (ContentValues tickCV : tickCVs) {
+            if (stockPrefNew.contains(tickCV.getAsString(Contract.Tick.COLUMN_SYMBOL))) {
+                committedTickCVs.add(tickCV);
+            }
+        }
+        if (!committedTickCVs.isEmpty()) {
+            context.getContentResolver().bulkInsert(
+                    Contract.Tick.URI,
+                    committedTickCVs.toArray(new ContentValues[committedTickCVs.size()]));
+        }
+
+        if (committedCVs.isEmpty()) {
+            return;
+        }
+
+        // Each chunk is committed in its own transaction
+        changedRows += context.getContentResolver()
+                .bulkInsert(
+                        Contract.Quote.URI,
+                        committedCVs.toArray(new ContentValues[committedCVs.size()]));
+    }
+
+    /**
+     * Returns whether a quote is the same as the stored quote for the stock.
+     * @param quoteCV the quote
+     * @param storedCV the stored quote, or null if there is none
+     * @return true if the price, changes and history are all unchanged
+     *         (the quote only includes the history if it has changed)
+     */
+    private static boolean isUnchanged(ContentValues quoteCV, ContentValues storedCV) {
+        return storedCV != null
+                && quoteCV.getAsFloat(Contract.Quote.COLUMN_PRICE)
+                        .equals(storedCV.getAsFloat(Contract.Quote.COLUMN_PRICE))
+                && quoteCV.getAsFloat(Contract.Quote.COLUMN_ABSOLUTE_CHANGE)
+                        .equals(storedCV.getAsFloat(Contract.Quote.COLUMN_ABSOLUTE_CHANGE))
+                && quoteCV.getAsFloat(Contract.Quote.COLUMN_PERCENTAGE_CHANGE)
+                        .equals(storedCV.getAsFloat(Contract.Quote.COLUMN_PERCENTAGE_CHANGE))
+                && !quoteCV.containsKey(Contract.Quote.COLUMN_HISTORY);
+    }
+
+    /**
+     * Returns the history pyramid of a changed history.  The stored pyramid is updated, which
+     * only downsamples the parts of the history which have changed, e.g. the latest weeks.
+     * @param history the changed history
+     * @param storedCV the stored quote, or null if there is none
+     * @return the levels of the pyramid, encoded for storing
+     */
+    private static byte[] getHistoryPyramid(byte[] history, ContentValues storedCV) {
+        HistorySeries series = HistorySeries.decode(history);
+        if (storedCV == null) {
+            return HistoryPyramid.build(series).encodeLevels();
+        }
+        HistoryPyramid storedPyramid = HistoryPyramid.decode(
+                HistorySeries.decode(storedCV.getAsByteArray(Contract.Quote.COLUMN_HISTORY)),
+                storedCV.getAsByteArray(Contract.Quote.COLUMN_HISTORY_PYRAMID));
+        return storedPyramid.update(series).encodeLevels();
+    }
+
+    private static byte[] getStoredHistory(Map<String, ContentValues> storedQuotes,
+                                           String symbol) {
+        ContentValues storedCV = storedQuotes.get(symbol);
+        return storedCV == null ? null : storedCV.getAsByteArray(Contract.Quote.COLUMN_HISTORY);
+    }
+
+    /**
+     * Returns an executor for fetching stock histories concurrently.  The number of workers is
+     * bounded by the configured pool size, and is never more than the number of stocks.
+     * @param stockCount the maximum number of stocks whose histories are fetched at once
+     * @return an executor for fetching stock histories
+     */
+    private ExecutorService createHistoryExecutor(int stockCount) {
+        int poolSize = context.getResources().getInteger(R.integer.sync_history_fetch_threads);
+        return Executors.newFixedThreadPool(Math.max(1, Math.min(poolSize, stockCount)));
+    }
+
+    private static List<String> getChunk(List<String> symbols, int start, int chunkSize) {
+        return symbols.subList(start, Math.min(start + chunkSize, symbols.size()));
+    }
+
+    /**
+     * Fetches the quotes for a chunk of stocks.
+     */
+    private final class QuoteFetch implements Callable<Map<String, StockQuote>> {
+        private final List<String> symbols;
+
+        QuoteFetch(List<String> symbols) {
+            this.symbols = symbols;
+        }
+
+        @Override
+        public Map<String, StockQuote> call() throws Exception {
+            return source.getQuotes(symbols.toArray(new String[symbols.size()]));
+        }
+    }
+
+    /**
+     * Fetches the weekly price history of a stock, returning it encoded in the format in which
+     * it is stored in the database, most recent point first.
+     * If the stock already has a stored history, only the points from the newest stored point
+     * onwards are fetched. (The newest stored point is fetched again, as it may have been
+     * for a week which was incomplete at the time.)  These are merged with the stored history,
+     * and any stored points older than the start of the history period are dropped.
+     * If the stored history starts well after the start of the history period, e.g. as it was
+     * fetched when the period was shorter, the full history is fetched instead.  (So is that
+     * of a stock listed within the period, whose history is short.)
+     * A repair, which does not merge, always fetches the full history, replacing the stored one.
+     * A full fetch which returns no points fails, leaving the stored history in place.
+     */
+    private final class HistoryFetch implements Callable<byte[]> {
+        private final String symbol;
+        private final byte[] storedHistory;
+        private final boolean merge;
+
+        /**
+         * Constructor.
+         * @param symbol the stock symbol
+         * @param storedHistory the stored history, or null if there is none
+         * @param merge whether to fetch only the newer points and merge them with the stored
+         *              history, if it covers the history period
+         */
+        HistoryFetch(String symbol, byte[] storedHistory, boolean merge) {
+            this.symbol = symbol;
+            this.storedHistory = storedHistory;
+            this.merge = merge;
+        }
+
+        @Override
+        public byte[] call() throws Exception {
+            long[] storedMillis = new long[HistoryCodec.getSize(storedHistory)];
+            float[] storedCloses = new float[storedMillis.length];
+            // A corrupt stored history decodes as empty, so is fetched again in full
+            int storedSize = HistoryCodec.decode(storedHistory, storedMillis, storedCloses);
+
+            Calendar fetchFrom = from;
+            // The stored history is most-recent first
+            if (merge && storedSize > 0 && storedMillis[0] > from.getTimeInMillis()
+                    && storedMillis[storedSize - 1]
+                            <= from.getTimeInMillis() + HISTORY_START_TOLERANCE_MILLIS) {
+                fetchFrom = Calendar.getInstance();
+                fetchFrom.setTimeInMillis(storedMillis[0]);
+            }
+
+            List<HistoricalQuote> history = source.getHistory(symbol, fetchFrom, to);
+            int fetchedSize = history == null ? 0 : history.size();
+
+            long[] millis = new long[fetchedSize + storedSize];
+            float[] closes = new float[fetchedSize + storedSize];
+            int size = 0;
+            long oldestFetchedMillis = Long.MAX_VALUE;
+
+            if (history != null) {
+                for (HistoricalQuote it : history) {
+                    if (it.getClose() == null) {
+                        continue;
+                    }
+                    millis[size] = it.getDate().getTimeInMillis();
+                    closes[size] = it.getClose().floatValue();
+                    oldestFetchedMillis = Math.min(oldestFetchedMillis, millis[size]);
+                    size++;
+                }
+            }
+
+            // A full fetch which returns nothing is a failure, rather than an empty history,
+            // so the stored history is kept rather than overwritten
+            if (fetchFrom == from && size == 0 && storedSize > 0) {
+                throw new IOException("No history returned for " + symbol);
+            }
+
+            // Append the stored points which are older than those just fetched
+            if (fetchFrom != from) {
+                for (int i = 0; i < storedSize; i++) {
+                    if (storedMillis[i] >= from.getTimeInMillis()
+                            && storedMillis[i] < oldestFetchedMillis) {
+                        millis[size] = storedMillis[i];
+                        closes[size] = storedCloses[i];
+                        size++;
+                    }
+                }
+            }
+            return HistoryCodec.encode(millis, closes, size);
+        }
+    }
+
+    /**
+     * Returns which of a number of stocks are in the watchlist.
+     * @param symbols the symbols of the stocks
+     * @return the symbols of the stocks which are in the watchlist
+     */
+    private Set<String> getWatchedStocks(List<String> symbols) {
+        Set<String> watchedStocks = new HashSet<>();
+        Cursor cursor = null;
+
+        try {
+            cursor = context.getContentResolver().query(
+                    Contract.Watchlist.URI,
+                    new String[]{Contract.Watchlist.COLUMN_SYMBOL},
+                    Contract.Watchlist.COLUMN_SYMBOL + " IN ("
+                            + TextUtils.join(",", Collections.nCopies(symbols.size(), "?")) + ")",
+                    symbols.toArray(new String[symbols.size()]),
+                    null);
+
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    watchedStocks.add(cursor.getString(0));
+                }
+            }
+
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return watchedStocks;
+    }
+
+    /**
+     * Records in the watchlist which stocks were synced and which were not.
+     * @param syncMillis the time of the sync
+     */
+    private void recordSync(long syncMillis) {
+        if (succeededSymbols.isEmpty() && failedSymbols.isEmpty()) {
+            return;
+        }
+        Bundle extras = new Bundle();
+        extras.putLong(Contract.Watchlist.EXTRA_SYNC_TIME, syncMillis);
+        extras.putStringArray(Contract.Watchlist.EXTRA_SUCCEEDED,
+                succeededSymbols.toArray(new String[succeededSymbols.size()]));
+        extras.putStringArray(Contract.Watchlist.EXTRA_FAILED,
+                failedSymbols.toArray(new String[failedSymbols.size()]));
+        context.getContentResolver().call(Contract.Watchlist.URI,
+                Contract.Watchlist.METHOD_RECORD_SYNC, null, extras);
+    }
+
+    /**
+     * Returns the stored quote of each of a number of stocks.
+     * @param symbols the symbols of the stocks
+     * @return a map of stock symbol to stored quote, for the stocks which are in the database
+     */
+    private Map<String, ContentValues> getQuotesInDatabase(List<String> symbols) {
+        Map<String, ContentValues> storedQuotes = new HashMap<>();
+        Cursor cursor = null;
+
+        try {
+            cursor = context.getContentResolver().query(
+                    Contract.Quote.URI,
+                    Contract.Quote.QUOTE_COLUMNS,
+                    Contract.Quote.COLUMN_SYMBOL + " IN ("
+                            + TextUtils.join(",", Collections.nCopies(symbols.size(), "?")) + ")",
+                    symbols.toArray(new String[symbols.size()]),
+                    null);
+
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    ContentValues storedCV = new ContentValues();
+                    storedCV.put(Contract.Quote.COLUMN_PRICE,
+                            cursor.getFloat(Contract.Quote.POSITION_PRICE));
+                    storedCV.put(Contract.Quote.COLUMN_ABSOLUTE_CHANGE,
+                            cursor.getFloat(Contract.Quote.POSITION_ABSOLUTE_CHANGE));
+                    storedCV.put(Contract.Quote.COLUMN_PERCENTAGE_CHANGE,
+                            cursor.getFloat(Contract.Quote.POSITION_PERCENTAGE_CHANGE));
+                    storedCV.put(Contract.Quote.COLUMN_HISTORY,
+                            cursor.getBlob(Contract.Quote.POSITION_HISTORY));
+                    storedCV.put(Contract.Quote.COLUMN_HISTORY_PYRAMID,
+                            cursor.getBlob(Contract.Quote.POSITION_HISTORY_PYRAMID));
+                    storedQuotes.put(cursor.getString(Contract.Quote.POSITION_SYMBOL), storedCV);
+                }
+            }
+
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return storedQuotes;
+    }
+
+}
@@ -0,0 +1,141 @@
+package com.udacity.stockhawk.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * A per-symbol circuit breaker for history requests.
+ * After FAILURE_THRESHOLD consecutive failures or timeouts for a symbol, the breaker trips and
+ * requests for the symbol are skipped for a cooling-off period, which doubles each time the
+ * breaker trips again, up to MAX_COOL_OFF_MILLIS.  Once the cooling-off period has passed, a
+ * single request is allowed through; success resets the breaker, failure trips it again.
+ * The state is persisted, so that a bad symbol does not cost a full timeout on every sync.
+ * The methods of this class may be called from multiple threads.
+ */
+class SymbolCircuitBreaker {
+
+    private static final String PREFS_NAME = "symbol_circuit_breaker";
+    private static final String KEY_SUFFIX_FAILURES = ".failures";
+    private static final String KEY_SUFFIX_OPEN_UNTIL = ".openUntil";
+
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long COOL_OFF_MILLIS = 60 * 60 * 1000L;
+    private static final long MAX_COOL_OFF_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private final SharedPreferences prefs;
+    /** The number of consecutive failures for each symbol which has failed. */
+    private final Map<String, Integer> failures = new HashMap<>();
+    /** The time until which requests are skipped, for each symbol whose breaker has tripped. */
+    private final Map<String, Long> openUntil = new HashMap<>();
+    /** The symbols whose state has changed since the state was last saved. */
+    private final Set<String> changed = new HashSet<>();
+
+    SymbolCircuitBreaker(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if (key.endsWith(KEY_SUFFIX_FAILURES) && value instanceof Integer) {
+                failures.put(stripSuffix(key, KEY_SUFFIX_FAILURES), (Integer) value);
+            } else if (key.endsWith(KEY_SUFFIX_OPEN_UNTIL) && value instanceof Long) {
+                openUntil.put(stripSuffix(key, KEY_SUFFIX_OPEN_UNTIL), (Long) value);
+            }
+        }
+    }
+
+    /**
+     * Returns whether a request for a symbol should be made.
+     * @param symbol the stock symbol
+     * @return false if the breaker for the symbol has tripped and is cooling off
+     */
+    synchronized boolean allowRequest(String symbol) {
+        Long until = openUntil.get(symbol);
+        return until == null || System.currentTimeMillis() >= until;
+    }
+
+    synchronized void recordSuccess(String symbol) {
+        if (failures.containsKey(symbol) || openUntil.containsKey(symbol)) {
+            failures.remove(symbol);
+            openUntil.remove(symbol);
+            changed.add(symbol);
+        }
+    }
+
+    synchronized void recordFailure(String symbol) {
+        Integer previousFailures = failures.get(symbol);
+        int symbolFailures = previousFailures == null ? 1 : previousFailures + 1;
+        failures.put(symbol, symbolFailures);
+
+        if (symbolFailures >= FAILURE_THRESHOLD) {
+            int trips = symbolFailures - FAILURE_THRESHOLD;
+            long coolOff = trips >= 5 ? MAX_COOL_OFF_MILLIS
+                    : Math.min(COOL_OFF_MILLIS << trips, MAX_COOL_OFF_MILLIS);
+            openUntil.put(symbol, System.currentTimeMillis() + coolOff);
+            Timber.d("Circuit breaker tripped for %s, cooling off for %d ms", symbol, coolOff);
+        }
+        changed.add(symbol);
+    }
+
+    /**
+     * Saves the state of the symbols which have changed since the state was last saved.
+     */
+    synchronized void save() {
+        if (changed.isEmpty()) {
+            return;
+        }
+        SharedPreferences.Editor editor = prefs.edit();
+        for (String symbol : changed) {
+            Integer symbolFailures = failures.get(symbol);
+            if (symbolFailures == null) {
+                editor.remove(symbol + KEY_SUFFIX_FAILURES);
+            } else {
+                editor.putInt(symbol + KEY_SUFFIX_FAILURES, symbolFailures);
+            }
+            Long until = openUntil.get(symbol);
+            if (until == null) {
+                editor.remove(symbol + KEY_SUFFIX_OPEN_UNTIL);
+            } else {
+                editor.putLong(symbol + KEY_SUFFIX_OPEN_UNTIL, until);
+            }
+        }
+        editor.apply();
+        changed.clear();
+    }
+
+    /**
+     * Forgets the state of a symbol, e.g. when it is removed from the watchlist.
+     * @param symbol the stock symbol
+     */
+    synchronized void forget(String symbol) {
+        boolean hadFailures = failures.remove(symbol) != null;
+        boolean wasOpen = openUntil.remove(symbol) != null;
+        if (hadFailures || wasOpen) {
+            changed.add(symbol);
+        }
+    }
+
+    /**
+     * Forgets the state of every symbol other than some, e.g. those still in the watchlist.
+     * @param symbols the stock symbols whose state is kept
+     */
+    synchronized void retainOnly(Collection<String> symbols) {
+        Set<String> forgotten = new HashSet<>(failures.keySet());
+        forgotten.addAll(openUntil.keySet());
+        forgotten.removeAll(symbols);
+        for (String symbol : forgotten) {
+            forget(symbol);
+        }
+    }
+
+    private static String stripSuffix(String key, String suffix) {
+        return key.substring(0, key.length() - suffix.length());
+    }
+}
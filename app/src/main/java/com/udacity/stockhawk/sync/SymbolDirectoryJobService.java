@@ -0,0 +1,96 @@
+package com.udacity.stockhawk.sync;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.content.ContentValues;
+
+import com.udacity.stockhawk.data.Contract;
+import com.udacity.stockhawk.data.PrefUtils;
+import com.udacity.stockhawk.data.SymbolDirectory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Periodically replaces the directory of listed stocks with the latest NASDAQ Trader symbol
+ * directory, which covers the stocks listed on NASDAQ and on the other US exchanges.
+ * The directory is only replaced if every file was downloaded, so that a failed download
+ * never leaves a partial directory.
+ */
+public class SymbolDirectoryJobService extends JobService {
+
+    private static final String URL_NASDAQ_LISTED =
+            "https://www.nasdaqtrader.com/dynamic/SymDir/nasdaqlisted.txt";
+    private static final String URL_OTHER_LISTED =
+            "https://www.nasdaqtrader.com/dynamic/SymDir/otherlisted.txt";
+    /** The exchange code of the stocks in nasdaqlisted.txt, which has no Exchange column. */
+    private static final String EXCHANGE_NASDAQ = "Q";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Override
+    public boolean onStartJob(final JobParameters jobParameters) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean retry = false;
+                try {
+                    List<ContentValues> listings = new ArrayList<>();
+                    listings.addAll(download(URL_NASDAQ_LISTED, EXCHANGE_NASDAQ));
+                    listings.addAll(download(URL_OTHER_LISTED, ""));
+                    int count = getContentResolver().bulkInsert(Contract.Listing.URI,
+                            listings.toArray(new ContentValues[listings.size()]));
+                    PrefUtils.setLastDirectoryUpdate(SymbolDirectoryJobService.this,
+                            System.currentTimeMillis());
+                    Timber.d("Symbol directory updated with %d listings", count);
+                } catch (IOException e) {
+                    Timber.e(e, "Error updating the symbol directory");
+                    retry = true;
+                }
+                jobFinished(jobParameters, retry);
+            }
+        }, "SymbolDirectoryUpdate").start();
+        // The update is still running
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters jobParameters) {
+        // The directory is replaced in a single transaction, so the update can safely be retried
+        return true;
+    }
+
+    private static List<ContentValues> download(String url, String defaultExchange)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(QuoteSyncJob.REQUEST_TIMEOUT_MILLIS);
+        connection.setReadTimeout(QuoteSyncJob.REQUEST_TIMEOUT_MILLIS);
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response " + connection.getResponseCode()
+                        + " for " + url);
+            }
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(connection.getInputStream(), UTF_8));
+            try {
+                List<ContentValues> listings = SymbolDirectory.read(reader, defaultExchange);
+                if (listings.isEmpty()) {
+                    throw new IOException("No listings in " + url);
+                }
+                return listings;
+            } finally {
+                reader.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+}
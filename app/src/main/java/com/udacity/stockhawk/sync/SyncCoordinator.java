@@ -0,0 +1,182 @@
+package com.udacity.stockhawk.sync;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import timber.log.Timber;
+
+/**
+ * Ensures that at most one sync is in flight at a time.
+ * Sync requests which arrive while a sync is running are coalesced into a single follow-up
+ * sync, which runs as soon as the current one finishes.
+ * Listeners may be registered to follow whether a sync is in flight, e.g. to show a progress
+ * indicator.
+ */
+public final class SyncCoordinator {
+
+    private static final Object lock = new Object();
+    private static final List<SyncStateListener> listeners = new CopyOnWriteArrayList<>();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** Statistics for the most recently completed sync. */
+    private static volatile SyncStats lastSyncStats;
+
+    /** Whether a sync is running, or has been requested and not yet finished. */
+    private static boolean syncing;
+    /** Whether a sync of every stock has been requested which has not yet started. */
+    private static boolean syncPending;
+    /** The stocks for which a targeted sync has been requested which has not yet started. */
+    private static final Set<String> pendingSymbols = new HashSet<>();
+    /** Whether a pending sync is to fetch the full history of every stock. */
+    private static boolean fullHistoryPending;
+
+    private SyncCoordinator() {
+    }
+
+    /**
+     * Listener for changes to whether a sync is in flight.
+     * Listeners are called on the main thread.
+     */
+    public interface SyncStateListener {
+        void onSyncStateChanged(boolean syncing);
+    }
+
+    public static void addListener(SyncStateListener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(SyncStateListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns whether a sync is in flight.
+     * @return true if a sync is running, or has been requested and not yet finished
+     */
+    public static boolean isSyncing() {
+        synchronized (lock) {
+            return syncing;
+        }
+    }
+
+    /**
+     * Returns statistics for the most recently completed sync in this process.
+     * @return the statistics, or null if no sync has completed
+     */
+    public static SyncStats getLastSyncStats() {
+        return lastSyncStats;
+    }
+
+    /**
+     * Requests a sync.  If no sync is in flight, one is started; otherwise a follow-up sync
+     * is run when the current one finishes, however many requests arrive in the meantime.
+     * @param context the context
+     * @param fullHistory if true, the sync fetches the full history of every stock
+     */
+    static void requestSync(Context context, boolean fullHistory) {
+        synchronized (lock) {
+            syncPending = true;
+            fullHistoryPending |= fullHistory;
+            if (syncing) {
+                Timber.d("Sync already in flight, coalescing request");
+                return;
+            }
+            syncing = true;
+        }
+        notifyListeners();
+        context.startService(new Intent(context, QuoteIntentService.class));
+    }
+
+    /**
+     * Requests a sync of only some stocks, e.g. stocks which have just been added.
+     * If a sync is in flight, the stocks are synced when it finishes, together with any other
+     * stocks requested in the meantime, unless a sync of every stock is also pending.
+     * @param context the context
+     * @param symbols the symbols of the stocks to sync
+     */
+    static void requestSync(Context context, Collection<String> symbols) {
+        synchronized (lock) {
+            pendingSymbols.addAll(symbols);
+            if (syncing) {
+                Timber.d("Sync already in flight, coalescing request for %s", symbols);
+                return;
+            }
+            syncing = true;
+        }
+        notifyListeners();
+        context.startService(new Intent(context, QuoteIntentService.class));
+    }
+
+    /**
+     * Runs syncs until none are pending.  This is called on the sync worker thread.
+     * If a sync fails with an exception, the coordinator is left idle, so that the next request
+     * starts a sync, and the exception is rethrown.
+     * @param context the context
+     */
+    static void runPendingSyncs(Context context) {
+        // Whether the loop finished normally, having marked the coordinator idle
+        boolean finished = false;
+        try {
+            while (true) {
+                // The stocks to sync, or null for every stock
+                List<String> symbols = null;
+                boolean fullHistory = false;
+                synchronized (lock) {
+                    if (syncPending) {
+                        // A sync of every stock covers any targeted syncs
+                        syncPending = false;
+                        pendingSymbols.clear();
+                        fullHistory = fullHistoryPending;
+                        fullHistoryPending = false;
+                    } else if (!pendingSymbols.isEmpty()) {
+                        symbols = new ArrayList<>(pendingSymbols);
+                        pendingSymbols.clear();
+                    } else {
+                        finished = true;
+                        if (!syncing) {
+                            return;
+                        }
+                        // Checked and cleared under the lock, so that a request arriving now
+                        // starts a new sync rather than being coalesced into this one
+                        syncing = false;
+                        break;
+                    }
+                    syncing = true;
+                }
+                lastSyncStats = QuoteSyncJob.getQuotes(context, symbols, fullHistory);
+            }
+        } finally {
+            if (!finished) {
+                synchronized (lock) {
+                    syncing = false;
+                }
+                notifyListeners();
+            }
+        }
+        notifyListeners();
+    }
+
+    /**
+     * Notifies the listeners of the current state, on the main thread.
+     */
+    private static void notifyListeners() {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                boolean syncing = isSyncing();
+                for (SyncStateListener listener : listeners) {
+                    listener.onSyncStateChanged(syncing);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,39 @@
+package com.udacity.stockhawk.sync;
+
+import java.util.Locale;
+
+/**
+ * Statistics for a completed sync, for monitoring.
+ */
+public final class SyncStats {
+
+    private final int changedRows;
+    private final int skippedRows;
+    private final long durationMillis;
+
+    SyncStats(int changedRows, int skippedRows, long durationMillis) {
+        this.changedRows = changedRows;
+        this.skippedRows = skippedRows;
+        this.durationMillis = durationMillis;
+    }
+
+    /** Returns the number of rows which had changed, and so were written to the database. */
+    public int getChangedRows() {
+        return changedRows;
+    }
+
+    /** Returns the number of rows which had not changed, and so were not written. */
+    public int getSkippedRows() {
+        return skippedRows;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "SyncStats{changed=%d, skipped=%d, duration=%dms}",
+                changedRows, skippedRows, durationMillis);
+    }
+}
@@ -0,0 +1,42 @@
+package com.udacity.stockhawk.sync;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Bundle;
+
+import com.udacity.stockhawk.data.Contract;
+
+import timber.log.Timber;
+
+/**
+ * Periodically rolls the intraday ticks up into bars, and enforces the retention period of
+ * each resolution, by calling the provider's compaction method on a background thread.
+ */
+public class TickCompactionJobService extends JobService {
+
+    @Override
+    public boolean onStartJob(final JobParameters jobParameters) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Bundle result = getContentResolver().call(
+                        Contract.Tick.URI, Contract.Bar.METHOD_COMPACT, null, null);
+                if (result != null) {
+                    Timber.d("Tick compaction wrote %d bars, deleted %d rows",
+                            result.getInt(Contract.Bar.RESULT_BARS_WRITTEN),
+                            result.getInt(Contract.Bar.RESULT_ROWS_DELETED));
+                }
+                jobFinished(jobParameters, false);
+            }
+        }, "TickCompaction").start();
+        // The compaction is still running
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters jobParameters) {
+        // The compaction runs in a single transaction, so it can safely be retried
+        return true;
+    }
+
+}
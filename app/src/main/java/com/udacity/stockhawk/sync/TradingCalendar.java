@@ -0,0 +1,272 @@
+package com.udacity.stockhawk.sync;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * The trading calendar of an exchange: its time zone, its regular session hours, and the days
+ * on which it is closed or closes early.
+ * This class uses no Android APIs, and instances are immutable.
+ */
+public final class TradingCalendar {
+
+    /** The calendar of the US equity exchanges (NYSE and NASDAQ). */
+    public static final TradingCalendar US_EQUITIES = new TradingCalendar(
+            TimeZone.getTimeZone("America/New_York"), 9 * 60 + 30, 16 * 60, 13 * 60,
+            new UsEquityHolidays());
+
+    /** The number of days searched for the next or previous session. */
+    private static final int MAX_DAYS_SEARCHED = 14;
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+
+    private final TimeZone timeZone;
+    private final int openMinute;
+    private final int closeMinute;
+    private final int earlyCloseMinute;
+    private final Holidays holidays;
+
+    /**
+     * Constructor.
+     * @param timeZone the time zone of the exchange
+     * @param openMinute the minute of the day at which regular sessions open
+     * @param closeMinute the minute of the day at which regular sessions close
+     * @param earlyCloseMinute the minute of the day at which sessions close on early-close days
+     * @param holidays the days on which the exchange is closed or closes early
+     */
+    public TradingCalendar(TimeZone timeZone, int openMinute, int closeMinute,
+                           int earlyCloseMinute, Holidays holidays) {
+        this.timeZone = timeZone;
+        this.openMinute = openMinute;
+        this.closeMinute = closeMinute;
+        this.earlyCloseMinute = earlyCloseMinute;
+        this.holidays = holidays;
+    }
+
+    /**
+     * Returns whether the exchange is in a trading session at a given time.
+     * @param millis the time
+     * @return true if the exchange is open at the time
+     */
+    public boolean isOpen(long millis) {
+        Calendar day = getStartOfDay(millis);
+        return isTradingDay(day)
+                && millis >= getOpen(day)
+                && millis < getClose(day);
+    }
+
+    /**
+     * Returns the start of the first session which opens after a given time.
+     * @param millis the time
+     * @return the time the next session opens, or Long.MAX_VALUE if none was found
+     */
+    public long getNextOpen(long millis) {
+        Calendar day = getStartOfDay(millis);
+        for (int i = 0; i < MAX_DAYS_SEARCHED; i++) {
+            if (isTradingDay(day) && getOpen(day) > millis) {
+                return getOpen(day);
+            }
+            day.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the end of the first session which closes after a given time.
+     * @param millis the time
+     * @return the time the next session closes, or Long.MAX_VALUE if none was found
+     */
+    public long getNextClose(long millis) {
+        Calendar day = getStartOfDay(millis);
+        for (int i = 0; i < MAX_DAYS_SEARCHED; i++) {
+            if (isTradingDay(day) && getClose(day) > millis) {
+                return getClose(day);
+            }
+            day.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the end of the most recent session which closed at or before a given time.
+     * @param millis the time
+     * @return the time the previous session closed, or Long.MIN_VALUE if none was found
+     */
+    public long getPreviousClose(long millis) {
+        Calendar day = getStartOfDay(millis);
+        for (int i = 0; i < MAX_DAYS_SEARCHED; i++) {
+            if (isTradingDay(day) && getClose(day) <= millis) {
+                return getClose(day);
+            }
+            day.add(Calendar.DAY_OF_MONTH, -1);
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * Returns whether a session has closed between two times, i.e. whether a day's trading
+     * has been completed since the earlier time.
+     * @param sinceMillis the earlier time
+     * @param millis the later time
+     * @return true if a session closed after the earlier time and at or before the later one
+     */
+    public boolean hasClosedBetween(long sinceMillis, long millis) {
+        return getPreviousClose(millis) > sinceMillis;
+    }
+
+    private boolean isTradingDay(Calendar day) {
+        int dayOfWeek = day.get(Calendar.DAY_OF_WEEK);
+        return dayOfWeek != Calendar.SATURDAY
+                && dayOfWeek != Calendar.SUNDAY
+                && !holidays.isHoliday(day.get(Calendar.YEAR), day.get(Calendar.MONTH),
+                        day.get(Calendar.DAY_OF_MONTH), dayOfWeek);
+    }
+
+    private long getOpen(Calendar day) {
+        return day.getTimeInMillis() + openMinute * MILLIS_PER_MINUTE;
+    }
+
+    private long getClose(Calendar day) {
+        boolean earlyClose = holidays.isEarlyClose(day.get(Calendar.YEAR),
+                day.get(Calendar.MONTH), day.get(Calendar.DAY_OF_MONTH),
+                day.get(Calendar.DAY_OF_WEEK));
+        int minute = earlyClose ? earlyCloseMinute : closeMinute;
+        return day.getTimeInMillis() + minute * MILLIS_PER_MINUTE;
+    }
+
+    /**
+     * Returns a calendar set to midnight, in the exchange's time zone, of the day containing
+     * a given time.
+     */
+    private Calendar getStartOfDay(long millis) {
+        Calendar day = new GregorianCalendar(timeZone);
+        day.setTimeInMillis(millis);
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        day.set(Calendar.MILLISECOND, 0);
+        return day;
+    }
+
+    //---------------------------------------------------------------------------
+    // Holidays
+
+    /**
+     * The days on which an exchange is closed or closes early, other than weekends.
+     * Months are zero-based, and days of the week are Calendar.SUNDAY to Calendar.SATURDAY.
+     */
+    public interface Holidays {
+        boolean isHoliday(int year, int month, int dayOfMonth, int dayOfWeek);
+
+        boolean isEarlyClose(int year, int month, int dayOfMonth, int dayOfWeek);
+    }
+
+    /**
+     * The holidays and early closes of the US equity exchanges.
+     */
+    static final class UsEquityHolidays implements Holidays {
+
+        @Override
+        public boolean isHoliday(int year, int month, int dayOfMonth, int dayOfWeek) {
+            switch (month) {
+                case Calendar.JANUARY:
+                    // New Year's Day (not observed on the preceding Friday), Martin Luther King Day
+                    return isObserved(dayOfMonth, dayOfWeek, 1, false)
+                            || isNthWeekday(dayOfMonth, dayOfWeek, Calendar.MONDAY, 3);
+                case Calendar.FEBRUARY:
+                    // Washington's Birthday
+                    return isNthWeekday(dayOfMonth, dayOfWeek, Calendar.MONDAY, 3);
+                case Calendar.MARCH:
+                case Calendar.APRIL:
+                    return isGoodFriday(year, month, dayOfMonth);
+                case Calendar.MAY:
+                    // Memorial Day
+                    return dayOfWeek == Calendar.MONDAY && dayOfMonth > 31 - 7;
+                case Calendar.JUNE:
+                    // Juneteenth
+                    return year >= 2022 && isObserved(dayOfMonth, dayOfWeek, 19, true);
+                case Calendar.JULY:
+                    // Independence Day
+                    return isObserved(dayOfMonth, dayOfWeek, 4, true);
+                case Calendar.SEPTEMBER:
+                    // Labor Day
+                    return isNthWeekday(dayOfMonth, dayOfWeek, Calendar.MONDAY, 1);
+                case Calendar.NOVEMBER:
+                    // Thanksgiving
+                    return isNthWeekday(dayOfMonth, dayOfWeek, Calendar.THURSDAY, 4);
+                case Calendar.DECEMBER:
+                    // Christmas
+                    return isObserved(dayOfMonth, dayOfWeek, 25, true);
+                default:
+                    return false;
+            }
+        }
+
+        @Override
+        public boolean isEarlyClose(int year, int month, int dayOfMonth, int dayOfWeek) {
+            switch (month) {
+                case Calendar.JULY:
+                    // The day before Independence Day
+                    return dayOfMonth == 3 && dayOfWeek != Calendar.FRIDAY;
+                case Calendar.NOVEMBER:
+                    // The day after Thanksgiving
+                    return dayOfWeek == Calendar.FRIDAY
+                            && isNthWeekday(dayOfMonth - 1, Calendar.THURSDAY, Calendar.THURSDAY, 4);
+                case Calendar.DECEMBER:
+                    // Christmas Eve
+                    return dayOfMonth == 24 && dayOfWeek != Calendar.FRIDAY;
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * Returns whether a day is the observance of a fixed-date holiday, which is observed on
+         * the following Monday if it falls on a Sunday and, if observedOnFriday, on the
+         * preceding Friday if it falls on a Saturday.
+         */
+        private static boolean isObserved(int dayOfMonth, int dayOfWeek, int holidayDayOfMonth,
+                                          boolean observedOnFriday) {
+            switch (dayOfWeek) {
+                case Calendar.MONDAY:
+                    return dayOfMonth == holidayDayOfMonth || dayOfMonth == holidayDayOfMonth + 1;
+                case Calendar.FRIDAY:
+                    return dayOfMonth == holidayDayOfMonth
+                            || (observedOnFriday && dayOfMonth == holidayDayOfMonth - 1);
+                default:
+                    return dayOfMonth == holidayDayOfMonth;
+            }
+        }
+
+        /**
+         * Returns whether a day is the nth occurrence of a weekday in its month.
+         */
+        private static boolean isNthWeekday(int dayOfMonth, int dayOfWeek, int weekday, int n) {
+            return dayOfWeek == weekday && (dayOfMonth - 1) / 7 == n - 1;
+        }
+
+        private static boolean isGoodFriday(int year, int month, int dayOfMonth) {
+            // Easter Sunday, by the anonymous Gregorian algorithm
+            int a = year % 19;
+            int b = year / 100;
+            int c = year % 100;
+            int d = b / 4;
+            int e = b % 4;
+            int f = (b + 8) / 25;
+            int g = (b - f + 1) / 3;
+            int h = (19 * a + b - d - g + 15) % 30;
+            int i = c / 4;
+            int k = c % 4;
+            int l = (32 + 2 * e + 2 * i - h - k) % 7;
+            int m = (a + 11 * h + 22 * l) / 451;
+            int easterMonth = (h + l - 7 * m + 114) / 31;
+            int easterDay = ((h + l - 7 * m + 114) % 31) + 1;
+
+            // Good Friday is two days before Easter Sunday
+            Calendar goodFriday = new GregorianCalendar(year, easterMonth - 1, easterDay);
+            goodFriday.add(Calendar.DAY_OF_MONTH, -2);
+            return goodFriday.get(Calendar.MONTH) == month
+                    && goodFriday.get(Calendar.DAY_OF_MONTH) == dayOfMonth;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.udacity.stockhawk.sync;
+
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import yahoofinance.Stock;
+import yahoofinance.YahooFinance;
+import yahoofinance.histquotes.HistQuotesRequest;
+import yahoofinance.histquotes.HistoricalQuote;
+import yahoofinance.histquotes.Interval;
+import yahoofinance.quotes.stock.StockQuote;
+
+/**
+ * A QuoteSource which obtains quotes and histories from Yahoo Finance.
+ */
+public class YahooQuoteSource implements QuoteSource {
+
+    private static final String PROPERTY_QUOTES_BASE_URL = "yahoofinance.baseurl.quotes";
+    private static final String PROPERTY_HISTORY_BASE_URL = "yahoofinance.baseurl.histquotes";
+    private static final String PROPERTY_CONNECTION_TIMEOUT = "yahoofinance.connection.timeout";
+
+    static {
+        // The Yahoo Finance API applies this timeout to both connecting and reading, so that
+        // a request cannot hang indefinitely.  It is read once, when the API is first used.
+        if (System.getProperty(PROPERTY_CONNECTION_TIMEOUT) == null) {
+            System.setProperty(PROPERTY_CONNECTION_TIMEOUT,
+                    String.valueOf(QuoteSyncJob.REQUEST_TIMEOUT_MILLIS));
+        }
+    }
+
+    /**
+     * Points the Yahoo Finance API at different servers, e.g. a StandInQuoteServer.
+     * The Yahoo Finance API reads its base URLs once, so this must be called before the API
+     * is first used in the process.
+     * @param quotesUrl the base URL for quote requests
+     * @param historyUrl the base URL for history requests
+     */
+    public static void setBaseUrls(String quotesUrl, String historyUrl) {
+        System.setProperty(PROPERTY_QUOTES_BASE_URL, quotesUrl);
+        System.setProperty(PROPERTY_HISTORY_BASE_URL, historyUrl);
+    }
+
+    @Override
+    public Map<String, StockQuote> getQuotes(String[] symbols) throws IOException {
+        Map<String, Stock> stocks = YahooFinance.get(symbols);
+        Map<String, StockQuote> quotes = new HashMap<>();
+        for (Map.Entry<String, Stock> entry : stocks.entrySet()) {
+            if (entry.getValue() != null) {
+                quotes.put(entry.getKey(), entry.getValue().getQuote());
+            }
+        }
+        return quotes;
+    }
+
+    @Override
+    public List<HistoricalQuote> getHistory(String symbol, Calendar from, Calendar to)
+            throws IOException {
+        return new HistQuotesRequest(symbol, from, to, Interval.WEEKLY).getResult();
+    }
+}
@@ -4,17 +4,24 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.DialogFragment;
+import android.content.Context;
 import android.content.DialogInterface;
+import android.database.Cursor;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.Window;
 import android.view.WindowManager;
-import android.widget.EditText;
+import android.widget.AutoCompleteTextView;
+import android.widget.FilterQueryProvider;
+import android.widget.SimpleCursorAdapter;
 import android.widget.TextView;
 
 import com.udacity.stockhawk.R;
+import com.udacity.stockhawk.data.Contract;
+import com.udacity.stockhawk.data.SymbolDirectory;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
@@ -23,7 +30,12 @@ import butterknife.ButterKnife;
 public class AddStockDialog extends DialogFragment {
 
     @BindView(R.id.dialog_stock)
-    EditText stock;
+    AutoCompleteTextView stock;
+
+    /** Suggests listings as the symbol is typed, from the local symbol directory. */
+    private SimpleCursorAdapter suggestionAdapter;
+    /** The unlisted symbol which the user has been warned about, and may add anyway. */
+    private String warnedSymbol;
 
     @Override
     public Dialog onCreateDialog(Bundle savedInstanceState) {
@@ -35,6 +47,7 @@ public class AddStockDialog extends DialogFragment {
 
         ButterKnife.bind(this, custom);
 
+        stock.setAdapter(createSuggestionAdapter());
         stock.setOnEditorActionListener(new TextView.OnEditorActionListener() {
             @Override
             public boolean onEditorAction(TextView v, int actionId, KeyEvent event) {
@@ -45,15 +58,24 @@ public class AddStockDialog extends DialogFragment {
         builder.setView(custom);
 
         builder.setMessage(getString(R.string.dialog_title));
-        builder.setPositiveButton(getString(R.string.dialog_add),
-                new DialogInterface.OnClickListener() {
-                    public void onClick(DialogInterface dialog, int id) {
-                        addStock();
-                    }
-                });
+        // The click listener is set when the dialog is shown, so that the dialog stays open
+        // if the symbol is not listed
+        builder.setPositiveButton(getString(R.string.dialog_add), null);
         builder.setNegativeButton(getString(R.string.dialog_cancel), null);
 
-        Dialog dialog = builder.create();
+        final AlertDialog dialog = builder.create();
+        dialog.setOnShowListener(new DialogInterface.OnShowListener() {
+            @Override
+            public void onShow(DialogInterface dialogInterface) {
+                dialog.getButton(AlertDialog.BUTTON_POSITIVE).setOnClickListener(
+                        new View.OnClickListener() {
+                            @Override
+                            public void onClick(View v) {
+                                addStock();
+                            }
+                        });
+            }
+        });
 
         Window window = dialog.getWindow();
         if (window != null) {
@@ -63,12 +85,90 @@ public class AddStockDialog extends DialogFragment {
         return dialog;
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (suggestionAdapter != null) {
+            suggestionAdapter.changeCursor(null);
+        }
+    }
+
+    /**
+     * Creates the adapter for the symbol suggestions.  Each query is a range scan of an index
+     * of the symbol directory, run on the filter's background thread.
+     */
+    private SimpleCursorAdapter createSuggestionAdapter() {
+        suggestionAdapter = new SimpleCursorAdapter(getActivity(),
+                android.R.layout.simple_list_item_2,
+                null,
+                new String[]{Contract.Listing.COLUMN_SYMBOL, Contract.Listing.COLUMN_NAME},
+                new int[]{android.R.id.text1, android.R.id.text2},
+                0);
+
+        final Activity activity = getActivity();
+        final int limit = getResources().getInteger(R.integer.listing_suggestion_limit);
+        suggestionAdapter.setFilterQueryProvider(new FilterQueryProvider() {
+            @Override
+            public Cursor runQuery(CharSequence constraint) {
+                if (constraint == null || constraint.length() == 0) {
+                    return null;
+                }
+                return activity.getContentResolver().query(
+                        Contract.Listing.makeUriForPrefix(constraint.toString(), limit),
+                        Contract.Listing.LISTING_COLUMNS,
+                        null,
+                        null,
+                        null);
+            }
+        });
+        suggestionAdapter.setCursorToStringConverter(
+                new SimpleCursorAdapter.CursorToStringConverter() {
+                    @Override
+                    public CharSequence convertToString(Cursor cursor) {
+                        return cursor.getString(Contract.Listing.POSITION_SYMBOL);
+                    }
+                });
+        return suggestionAdapter;
+    }
+
     private void addStock() {
-        Activity parent = getActivity();
-        if (parent instanceof MainActivity) {
-            ((MainActivity) parent).addStock(stock.getText().toString());
+        final String typed = stock.getText().toString().trim();
+        if (typed.isEmpty()) {
+            dismissAllowingStateLoss();
+            return;
         }
-        dismissAllowingStateLoss();
+
+        // Warn about a symbol which is not listed before any network request is made.  The
+        // directory is looked up off the main thread.
+        final Context context = getActivity().getApplicationContext();
+        new AsyncTask<Void, Void, String>() {
+            private boolean unlisted;
+
+            @Override
+            protected String doInBackground(Void... params) {
+                String symbol = SymbolDirectory.resolveSymbol(context, typed);
+                unlisted = SymbolDirectory.isKnownUnlisted(context, symbol);
+                return symbol;
+            }
+
+            @Override
+            protected void onPostExecute(String symbol) {
+                if (!isAdded()) {
+                    return;
+                }
+                // The warning is advisory: adding the same symbol again adds it
+                if (unlisted && !symbol.equals(warnedSymbol)) {
+                    warnedSymbol = symbol;
+                    stock.setError(getString(R.string.dialog_unknown_symbol, symbol));
+                    return;
+                }
+                Activity parent = getActivity();
+                if (parent instanceof MainActivity) {
+                    ((MainActivity) parent).addStock(symbol);
+                }
+                dismissAllowingStateLoss();
+            }
+        }.execute();
     }
 
 
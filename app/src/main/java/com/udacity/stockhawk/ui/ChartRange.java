@@ -0,0 +1,107 @@
+package com.udacity.stockhawk.ui;
+
+import com.udacity.stockhawk.R;
+
+import java.util.Calendar;
+
+/**
+ * The ranges of time which the stock chart can display.
+ * The short ranges are charted from the stored hourly bars, if there are any; the ranges of
+ * no more than HistoryPyramid.MAX_POINTS weeks, from the weekly bars read from the history
+ * table; and the longest, from the pyramid of the weekly history (see HistoryPyramid).
+ */
+enum ChartRange {
+
+    ONE_WEEK(R.id.range_1w, Calendar.DAY_OF_YEAR, -7, Source.HOURLY_BARS,
+            Calendar.DAY_OF_YEAR, "EEE"),
+    ONE_MONTH(R.id.range_1m, Calendar.MONTH, -1, Source.HOURLY_BARS,
+            Calendar.WEEK_OF_YEAR, "d MMM"),
+    SIX_MONTHS(R.id.range_6m, Calendar.MONTH, -6, Source.WEEKLY_BARS, Calendar.MONTH, "MMM"),
+    ONE_YEAR(R.id.range_1y, Calendar.YEAR, -1, Source.WEEKLY_BARS, Calendar.MONTH, "MMM"),
+    FIVE_YEARS(R.id.range_5y, Calendar.YEAR, -5, Source.PYRAMID, Calendar.YEAR, "yyyy"),
+    MAX(R.id.range_max, Calendar.YEAR, 0, Source.PYRAMID, Calendar.YEAR, "yyyy");
+
+    /**
+     * The data from which a range is charted.
+     */
+    enum Source {
+        /** The hourly bars, or the weekly history if there are too few of them. */
+        HOURLY_BARS,
+        /** The weekly bars of the range, read from the history table. */
+        WEEKLY_BARS,
+        /** The pyramid of the weekly history, downsampled to HistoryPyramid.MAX_POINTS. */
+        PYRAMID
+    }
+
+    /** The id of the button which selects the range. */
+    private final int buttonId;
+    private final int startField;
+    private final int startAmount;
+    private final Source source;
+    private final int labelField;
+    private final String labelPattern;
+
+    /**
+     * Constructor.
+     * @param buttonId the id of the button which selects the range
+     * @param startField the calendar field by which the start of the range precedes now
+     * @param startAmount the amount added to the field to give the start, or 0 for all time
+     * @param source the data from which the range is charted
+     * @param labelField the calendar field which, when it changes, labels a point
+     * @param labelPattern the SimpleDateFormat pattern of the labels
+     */
+    ChartRange(int buttonId, int startField, int startAmount, Source source,
+               int labelField, String labelPattern) {
+        this.buttonId = buttonId;
+        this.startField = startField;
+        this.startAmount = startAmount;
+        this.source = source;
+        this.labelField = labelField;
+        this.labelPattern = labelPattern;
+    }
+
+    /**
+     * Returns the range selected by a button.
+     * @param buttonId the id of the button
+     * @return the range, or null if the button selects none
+     */
+    static ChartRange forButton(int buttonId) {
+        for (ChartRange range : values()) {
+            if (range.buttonId == buttonId) {
+                return range;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the start of the range.
+     * @param nowMillis the current time
+     * @return the time at which the range starts, or Long.MIN_VALUE for all time
+     */
+    long getStartMillis(long nowMillis) {
+        if (startAmount == 0) {
+            return Long.MIN_VALUE;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(nowMillis);
+        calendar.add(startField, startAmount);
+        return calendar.getTimeInMillis();
+    }
+
+    int getButtonId() {
+        return buttonId;
+    }
+
+    Source getSource() {
+        return source;
+    }
+
+    int getLabelField() {
+        return labelField;
+    }
+
+    String getLabelPattern() {
+        return labelPattern;
+    }
+}
@@ -0,0 +1,70 @@
+package com.udacity.stockhawk.ui;
+
+import android.util.LruCache;
+
+import com.udacity.stockhawk.data.HistoryPyramid;
+import com.udacity.stockhawk.data.HistorySeries;
+
+/**
+ * The decoded price history of a stock, and its pyramid of downsampled levels, for the chart.
+ * Instances are immutable, and are cached per stock, keyed on the version of the stored
+ * history, so that the history is only decoded again when it has changed.
+ */
+final class ChartSeries {
+
+    /** The number of stocks whose series are cached. */
+    private static final int CACHE_SIZE = 16;
+    private static final LruCache<String, ChartSeries> cache = new LruCache<>(CACHE_SIZE);
+
+    private final long historyVersion;
+    private final HistoryPyramid pyramid;
+
+    private ChartSeries(long historyVersion, HistoryPyramid pyramid) {
+        this.historyVersion = historyVersion;
+        this.pyramid = pyramid;
+    }
+
+    /**
+     * Returns the cached series of a stock.
+     * @param symbol the stock symbol
+     * @param historyVersion the current version of the stock's history
+     * @return the series, or null if it is not cached or was decoded from an older history
+     */
+    static ChartSeries getCached(String symbol, long historyVersion) {
+        ChartSeries series = cache.get(symbol);
+        return series != null && series.historyVersion == historyVersion ? series : null;
+    }
+
+    /**
+     * Decodes a history and its pyramid, and caches the series.
+     * @param symbol the stock symbol
+     * @param historyVersion the version of the history
+     * @param history the history, encoded by HistoryCodec, or null
+     * @param pyramidLevels the stored levels of the history pyramid, or null
+     * @return the series
+     */
+    static ChartSeries decode(String symbol, long historyVersion, byte[] history,
+                              byte[] pyramidLevels) {
+        ChartSeries series = new ChartSeries(historyVersion,
+                HistoryPyramid.decode(HistorySeries.decode(history), pyramidLevels));
+        cache.put(symbol, series);
+        return series;
+    }
+
+    /**
+     * Returns the whole history, oldest point first.
+     */
+    HistorySeries getHistory() {
+        return pyramid.getHistory();
+    }
+
+    /**
+     * Returns the points from which to chart the history from a time onwards: no more than
+     * HistoryPyramid.MAX_POINTS of them, however long the range.
+     * @param fromMillis the time, or Long.MIN_VALUE for the whole history
+     * @return the points, oldest first
+     */
+    HistorySeries getRange(long fromMillis) {
+        return pyramid.getRange(fromMillis);
+    }
+}
@@ -24,17 +24,27 @@ import com.udacity.stockhawk.R;
 import com.udacity.stockhawk.data.Contract;
 import com.udacity.stockhawk.data.PrefUtils;
 import com.udacity.stockhawk.sync.QuoteSyncJob;
+import com.udacity.stockhawk.sync.SyncCoordinator;
 import com.udacity.stockhawk.widget.ListWidgetProvider;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import timber.log.Timber;
 
 public class MainActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor>,
         SwipeRefreshLayout.OnRefreshListener,
-        StockAdapter.StockAdapterOnClickHandler {
+        StockAdapter.StockAdapterOnClickHandler,
+        SyncCoordinator.SyncStateListener {
 
     private static final int STOCK_LOADER = 0;
+    /**
+     * Adds and removes stocks off the main thread, as each is a database write, in the order
+     * in which they were requested.
+     */
+    private static final Executor watchlistExecutor = Executors.newSingleThreadExecutor();
     @BindView(R.id.recycler_view)
     RecyclerView stockRecyclerView;
     @BindView(R.id.swipe_refresh)
@@ -42,6 +52,8 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
     @BindView(R.id.error)
     TextView error;
     private StockAdapter adapter;
+    /** The number of stocks in the list's cursor, or -1 until the list has loaded. */
+    private int stockCount = -1;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -76,6 +88,30 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
 
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        SyncCoordinator.addListener(this);
+        // A sync may have started or finished while the activity was stopped
+        onSyncStateChanged(SyncCoordinator.isSyncing());
+    }
+
+    @Override
+    protected void onStop() {
+        SyncCoordinator.removeListener(this);
+        super.onStop();
+    }
+
+    /**
+     * Shows the refresh indicator for as long as a sync is in flight.
+     * @param syncing whether a sync is in flight
+     */
+    @Override
+    public void onSyncStateChanged(boolean syncing) {
+        swipeRefreshLayout.setRefreshing(syncing);
+        showNoStocksIfEmpty();
+    }
+
     @Override
     public void onRefresh() {
 
@@ -88,7 +124,7 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         } else if (!networkUp()) {
             swipeRefreshLayout.setRefreshing(false);
             Toast.makeText(this, R.string.toast_no_connectivity, Toast.LENGTH_LONG).show();
-        } else if (PrefUtils.getStocks(this).size() == 0) {
+        } else if (stockCount == 0) {
             swipeRefreshLayout.setRefreshing(false);
             error.setText(getString(R.string.error_no_stocks));
             error.setVisibility(View.VISIBLE);
@@ -111,7 +147,7 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         new AddStockDialog().show(getFragmentManager(), "StockDialogFragment");
     }
 
-    void addStock(String symbol) {
+    void addStock(final String symbol) {
         if (symbol != null && !symbol.isEmpty()) {
 
             if (networkUp()) {
@@ -121,52 +157,89 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
                 Toast.makeText(this, message, Toast.LENGTH_LONG).show();
             }
 
-            // Add to the list of symbols in preferences
-            PrefUtils.addStock(this, symbol);
-            // Schedule a job to fetch and display stock info
-            QuoteSyncJob.syncImmediately(this);
+            final Context context = getApplicationContext();
+            watchlistExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // Add to the watchlist
+                    PrefUtils.addStock(context, symbol);
+                    // Fetch and display the stock info for this stock only
+                    QuoteSyncJob.syncStock(context, symbol);
+                }
+            });
         }
     }
 
-    private void deleteStock(String symbol) {
+    private void deleteStock(final String symbol) {
         if (symbol != null && !symbol.isEmpty()) {
-            // Remove from the list of symbols in preferences
-            PrefUtils.removeStock(this, symbol);
-            // Remove from the database where the displayed stock info is stored
-            getContentResolver().delete(Contract.Quote.makeUriForStock(symbol),
-                    null, null);
-
-            // Update the widget(s). This is best done here immediately, as removing a stock
-            // does not require an internet connection.
-            ListWidgetProvider.updateWidgets(this);
-            // If the only displayed item is being deleted, display the appropriate message
-            if (stockRecyclerView.getAdapter().getItemCount() <= 1) {
-                onRefresh();
-            }
+            final Context context = getApplicationContext();
+            final boolean lastStock = stockRecyclerView.getAdapter().getItemCount() <= 1;
+            watchlistExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // Remove from the watchlist
+                    PrefUtils.removeStock(context, symbol);
+                    // Remove from the database where the displayed stock info is stored
+                    context.getContentResolver().delete(Contract.Quote.makeUriForStock(symbol),
+                            null, null);
+
+                    // Update the widget(s). This is best done here immediately, as removing
+                    // a stock does not require an internet connection.
+                    ListWidgetProvider.updateWidgets(context);
+
+                    // If the only displayed item has been deleted, display the appropriate
+                    // message
+                    if (lastStock) {
+                        stockRecyclerView.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (!isFinishing()) {
+                                    onRefresh();
+                                }
+                            }
+                        });
+                    }
+                }
+            });
         }
     }
 
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         return new CursorLoader(this,
-                Contract.Quote.URI,
-                Contract.Quote.QUOTE_COLUMNS,
+                Contract.Quote.SUMMARY_URI,
+                Contract.Quote.SUMMARY_COLUMNS,
                 null, null, Contract.Quote.COLUMN_SYMBOL);
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        swipeRefreshLayout.setRefreshing(false);
-
-        if (data.getCount() != 0) {
+        // The refresh indicator is left to onSyncStateChanged, as the results of a sync
+        // may be delivered in several chunks
+        stockCount = data.getCount();
+        if (stockCount != 0) {
             error.setVisibility(View.GONE);
         }
         adapter.setCursor(data);
+        showNoStocksIfEmpty();
+    }
+
+    /**
+     * Shows that there are no stocks, if the loaded list is empty and no sync is in flight
+     * which might fill it.  The list's cursor is used rather than the watchlist, so that
+     * nothing is queried on the main thread.
+     */
+    private void showNoStocksIfEmpty() {
+        if (stockCount == 0 && networkUp() && !SyncCoordinator.isSyncing()) {
+            error.setText(getString(R.string.error_no_stocks));
+            error.setVisibility(View.VISIBLE);
+        }
     }
 
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
+        stockCount = -1;
         swipeRefreshLayout.setRefreshing(false);
         adapter.setCursor(null);
     }
@@ -189,7 +262,7 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
             // The widget is best updated here immediately, as the change in
             // price change format does not require an internet connection.
             ListWidgetProvider.updateWidgets(this);
-            adapter.notifyDataSetChanged();
+            adapter.refreshDisplayMode();
             return true;
         }
         return super.onOptionsItemSelected(item);
@@ -0,0 +1,102 @@
+package com.udacity.stockhawk.ui;
+
+import android.database.Cursor;
+
+import com.udacity.stockhawk.data.Contract;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable row of the stock list, holding the display values of a quote, so that binding
+ * a row to its view assigns them without formatting or allocation.
+ */
+final class QuoteRow {
+
+    private final long id;
+    private final String symbol;
+    private final String displayPrice;
+    private final String displayAbsoluteChange;
+    private final String displayPercentageChange;
+    private final boolean up;
+
+    private QuoteRow(long id, String symbol, String displayPrice, String displayAbsoluteChange,
+                     String displayPercentageChange, boolean up) {
+        this.id = id;
+        this.symbol = symbol;
+        this.displayPrice = displayPrice;
+        this.displayAbsoluteChange = displayAbsoluteChange;
+        this.displayPercentageChange = displayPercentageChange;
+        this.up = up;
+    }
+
+    /**
+     * Reads the rows of a cursor over Contract.Quote.SUMMARY_COLUMNS.
+     * @param cursor the cursor, or null
+     * @return the rows, in cursor order
+     */
+    static List<QuoteRow> fromCursor(Cursor cursor) {
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+        List<QuoteRow> rows = new ArrayList<>(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            rows.add(new QuoteRow(
+                    cursor.getLong(Contract.Quote.POSITION_ID),
+                    cursor.getString(Contract.Quote.POSITION_SYMBOL),
+                    cursor.getString(Contract.Quote.POSITION_DISPLAY_PRICE),
+                    cursor.getString(Contract.Quote.POSITION_DISPLAY_ABSOLUTE_CHANGE),
+                    cursor.getString(Contract.Quote.POSITION_DISPLAY_PERCENTAGE_CHANGE),
+                    cursor.getInt(Contract.Quote.POSITION_IS_UP) != 0));
+        }
+        return rows;
+    }
+
+    /**
+     * Returns whether this row is for the same quote as another, so that one replaces the other
+     * in the list rather than being removed and inserted.
+     */
+    boolean isSameQuoteAs(QuoteRow other) {
+        return id == other.id && symbol.equals(other.symbol);
+    }
+
+    /**
+     * Returns whether this row displays the same values as another row for the same quote.
+     */
+    boolean hasSameValuesAs(QuoteRow other) {
+        return up == other.up
+                && equal(displayPrice, other.displayPrice)
+                && equal(displayAbsoluteChange, other.displayAbsoluteChange)
+                && equal(displayPercentageChange, other.displayPercentageChange);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    long getId() {
+        return id;
+    }
+
+    String getSymbol() {
+        return symbol;
+    }
+
+    String getDisplayPrice() {
+        return displayPrice;
+    }
+
+    String getDisplayAbsoluteChange() {
+        return displayAbsoluteChange;
+    }
+
+    String getDisplayPercentageChange() {
+        return displayPercentageChange;
+    }
+
+    boolean isUp() {
+        return up;
+    }
+}
@@ -1,22 +1,27 @@
 package com.udacity.stockhawk.ui;
 
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.Loader;
 import android.support.v7.app.AppCompatActivity;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.widget.RadioGroup;
 import android.widget.TextView;
 
 import com.db.chart.model.LineSet;
 import com.db.chart.view.LineChartView;
 import com.udacity.stockhawk.R;
-import com.udacity.stockhawk.data.Contract;
+import com.udacity.stockhawk.data.HistorySeries;
 import com.udacity.stockhawk.data.PrefUtils;
 import com.udacity.stockhawk.widget.ListWidgetProvider;
 
-import java.text.DecimalFormat;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.Locale;
 
@@ -26,17 +31,27 @@ import timber.log.Timber;
 
 /**
  * The activity class for the stock screen.
+ * The stock and its chart series are loaded in the background by a StockDetailLoader, so the
+ * activity does no disk I/O on the main thread.
  * @author Edmund Johnson
  */
-public class StockActivity extends AppCompatActivity {
+public class StockActivity extends AppCompatActivity
+        implements LoaderManager.LoaderCallbacks<StockDetailLoader.StockDetail> {
 
-    private static final int WEEKS_ON_CHART_DEFAULT = 52;
+    private static final ChartRange CHART_RANGE_DEFAULT = ChartRange.ONE_YEAR;
+    private static final String STATE_CHART_RANGE = "chartRange";
+    private static final int STOCK_DETAIL_LOADER = 0;
 
     private Uri stockUri;
 
-    private static final DecimalFormat dollarFormatWithPlus;
-    private static final DecimalFormat dollarFormat;
-    private static final DecimalFormat percentageFormat;
+    /** The range of time displayed by the chart. */
+    private ChartRange chartRange = CHART_RANGE_DEFAULT;
+
+    /** The stock detail currently displayed, or null if none has been loaded. */
+    private StockDetailLoader.StockDetail stockDetail;
+
+    /** The time at which the activity was created, for logging the time to the first chart. */
+    private long createdMillis;
 
     @BindView(R.id.symbol)
     TextView symbol;
@@ -47,23 +62,15 @@ public class StockActivity extends AppCompatActivity {
     @BindView(R.id.change)
     TextView change;
 
+    @BindView(R.id.chartRange)
+    RadioGroup chartRangeGroup;
+
     @BindView(R.id.stockChart)
     LineChartView stockChart;
 
-    /** The maximum value of the stock price in the period displayed. */
-    private float mMaxPrice;
-    /** The minimum value of the stock price in the period displayed. */
-    private float mMinPrice;
-
 //    @BindView(R.id.history)
 //    TextView history;
 
-    static {
-        dollarFormat = StockAdapter.getDollarFormat();
-        dollarFormatWithPlus = StockAdapter.getDollarFormatWithPlus();
-        percentageFormat = StockAdapter.getPercentageFormat();
-    }
-
     //---------------------------------------------------------------------------
     // Activity Lifecycle Methods
 
@@ -74,21 +81,68 @@ public class StockActivity extends AppCompatActivity {
     @Override
     protected void onCreate(final Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        createdMillis = SystemClock.elapsedRealtime();
         setContentView(R.layout.activity_stock);
 
         stockUri = getIntent().getData();
 
         ButterKnife.bind(this, findViewById(R.id.stockView));
+
+        if (savedInstanceState != null && savedInstanceState.containsKey(STATE_CHART_RANGE)) {
+            chartRange = ChartRange.valueOf(savedInstanceState.getString(STATE_CHART_RANGE));
+        }
+        chartRangeGroup.check(chartRange.getButtonId());
+        chartRangeGroup.setOnCheckedChangeListener(new RadioGroup.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(RadioGroup group, int checkedId) {
+                ChartRange range = ChartRange.forButton(checkedId);
+                if (range != null && range != chartRange) {
+                    chartRange = range;
+                    // The series of every range is already loaded
+                    if (stockDetail != null) {
+                        displayChart();
+                    }
+                }
+            }
+        });
+
+        if (stockUri != null) {
+            getSupportLoaderManager().initLoader(STOCK_DETAIL_LOADER, null, this);
+        }
     }
 
-    /**
-     * Perform UI processing for resumption of the activity.
-     */
     @Override
-    public void onResume() {
-        super.onResume();
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_CHART_RANGE, chartRange.name());
+    }
+
+    //---------------------------------------------------------------------------
+    // Loader Callbacks
+
+    @Override
+    public Loader<StockDetailLoader.StockDetail> onCreateLoader(int id, Bundle args) {
+        return new StockDetailLoader(this, stockUri);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<StockDetailLoader.StockDetail> loader,
+                               StockDetailLoader.StockDetail data) {
+        if (data == null) {
+            return;
+        }
+        boolean first = stockDetail == null;
+        stockDetail = data;
+        displayStockInfo();
+        if (first) {
+            Timber.d("Time to first chart for %s: %d ms", data.getSymbol(),
+                    SystemClock.elapsedRealtime() - createdMillis);
+        }
+    }
 
-        displayStockInfo(stockUri);
+    @Override
+    public void onLoaderReset(Loader<StockDetailLoader.StockDetail> loader) {
+        stockDetail = null;
     }
 
     //---------------------------------------------------------------------------
@@ -112,7 +166,8 @@ public class StockActivity extends AppCompatActivity {
             // The widget is best updated here immediately, as the change in
             // price change format does not require an internet connection.
             ListWidgetProvider.updateWidgets(this);
-            displayStockInfo(stockUri);
+            // Only the change is affected, and it is already loaded
+            displayChange();
             return true;
         }
         return super.onOptionsItemSelected(item);
@@ -130,144 +185,111 @@ public class StockActivity extends AppCompatActivity {
 
     //---------------------------------------------------------------------------
 
-    private void displayStockInfo(Uri uri) {
-        Timber.d("displayStockInfo: %s", uri);
-        if (uri == null) {
-            return;
-        }
-
-        Cursor cursor = null;
-
-        try {
-            cursor = getContentResolver().query(
-                    uri,
-                    Contract.Quote.QUOTE_COLUMNS,
-                    null,
-                    null,
-                    null);
+    private void displayStockInfo() {
+        Timber.d("displayStockInfo: %s", stockUri);
 
-            if (cursor != null && cursor.getCount() > 0) {
-                cursor.moveToFirst();
+        // Display the current stock price and today's change
+        symbol.setText(stockDetail.getSymbol());
+        price.setText(stockDetail.getDisplayPrice());
 
-                // Display the current stock price and today's change
-
-                symbol.setText(cursor.getString(Contract.Quote.POSITION_SYMBOL));
-                price.setText(dollarFormat.format(cursor.getFloat(Contract.Quote.POSITION_PRICE)));
-
-                float rawAbsoluteChange = cursor.getFloat(Contract.Quote.POSITION_ABSOLUTE_CHANGE);
-                float rawPercentageChange = cursor.getFloat(Contract.Quote.POSITION_PERCENTAGE_CHANGE);
+        if (stockDetail.isUp()) {
+            change.setBackgroundResource(R.drawable.percent_change_pill_green);
+        } else {
+            change.setBackgroundResource(R.drawable.percent_change_pill_red);
+        }
+        displayChange();
 
-                if (rawAbsoluteChange > 0) {
-                    change.setBackgroundResource(R.drawable.percent_change_pill_green);
-                } else {
-                    change.setBackgroundResource(R.drawable.percent_change_pill_red);
-                }
+        displayChart();
+    }
 
-                String absoluteChange = dollarFormatWithPlus.format(rawAbsoluteChange);
-                String percentageChange = percentageFormat.format(rawPercentageChange / 100);
+    /**
+     * Displays the chart of the selected range.  However long the range, it is drawn from no
+     * more than HistoryPyramid.MAX_POINTS points, and its axis range is that of every point in
+     * the range.
+     */
+    private void displayChart() {
+        long startMillis = chartRange.getStartMillis(System.currentTimeMillis());
+        ChartSeries series = stockDetail.getSeries();
+        // A month of hourly bars, and a year of weekly bars, are fewer than MAX_POINTS
+        HistorySeries hourlyBars = stockDetail.getHourlyBars().from(startMillis);
+
+        HistorySeries points;
+        float minClose;
+        float maxClose;
+        if (chartRange.getSource() == ChartRange.Source.HOURLY_BARS && hourlyBars.size() >= 2) {
+            points = hourlyBars;
+            minClose = points.getMinClose();
+            maxClose = points.getMaxClose();
+        } else if (chartRange.getSource() == ChartRange.Source.WEEKLY_BARS) {
+            points = stockDetail.getWeeklyBars().from(startMillis);
+            minClose = points.getMinClose();
+            maxClose = points.getMaxClose();
+        } else {
+            points = series.getRange(startMillis);
+            // A downsampled range may have dropped the extremes, which the history still has
+            HistorySeries history = series.getHistory().from(startMillis);
+            minClose = history.getMinClose();
+            maxClose = history.getMaxClose();
+        }
 
-                if (PrefUtils.getDisplayMode(this)
-                        .equals(this.getString(R.string.pref_display_mode_absolute_key))) {
-                    change.setText(absoluteChange);
-                } else {
-                    change.setText(percentageChange);
-                }
+        stockChart.reset();
+        stockChart.addData(getHistoricPriceData(points));
+
+        // Set y axis range to the range of values
+        int yAxisMin = (int) Math.floor(minClose);
+        int yAxisMax = (int) Math.ceil(maxClose);
+        // yAxisStep is the value difference between labels,
+        // calculate a value which gives us 8 or 9 labels
+        int yAxisStep = Math.max((8 + yAxisMax - yAxisMin) / 8, 1);
+        // max must be an exact number of steps greater than min
+        int numberOfLabels = (yAxisMax - yAxisMin) / yAxisStep;
+        yAxisMax = yAxisMin + (yAxisStep * (numberOfLabels + 1));
+        stockChart.setAxisBorderValues(yAxisMin, yAxisMax, yAxisStep);
+
+        stockChart.show();
+    }
 
-                // Display the stock price history
-                String strHistory = cursor.getString(Contract.Quote.POSITION_HISTORY);
-                LineSet historicPriceData = getHistoricPriceData(strHistory);
-                stockChart.addData(historicPriceData);
-
-                // Set y axis range to the range of values
-                int yAxisMin = (int) Math.floor(mMinPrice);
-                int yAxisMax = (int) Math.ceil(mMaxPrice);
-                // yAxisStep is the value difference between labels,
-                // calculate a value which gives us 8 or 9 labels
-                int yAxisStep = Math.max((8 + yAxisMax - yAxisMin) / 8, 1);
-                // max must be an exact number of steps greater than min
-                int numberOfLabels = (yAxisMax - yAxisMin) / yAxisStep;
-                yAxisMax = yAxisMin + (yAxisStep * (numberOfLabels + 1));
-                stockChart.setAxisBorderValues(yAxisMin, yAxisMax, yAxisStep);
-
-                stockChart.show();
-            }
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
+    private void displayChange() {
+        if (stockDetail == null) {
+            return;
+        }
+        if (PrefUtils.getDisplayMode(this)
+                .equals(this.getString(R.string.pref_display_mode_absolute_key))) {
+            change.setText(stockDetail.getDisplayAbsoluteChange());
+        } else {
+            change.setText(stockDetail.getDisplayPercentageChange());
         }
     }
 
     /**
-     * Returns a LineSet of historic price data corresponding to a stock's history as stored in the
-     * database as a String
-     * @param history the history as a String
-     * @return a list of historic prices corresponding to the history
+     * Returns a LineSet of the points of a history series, labelled for the selected range.
+     * @param series the history series, oldest point first
+     * @return a LineSet of the historic prices in the series
      */
-    private LineSet getHistoricPriceData(String history) {
-
+    private LineSet getHistoricPriceData(HistorySeries series) {
         LineSet historicPriceData = new LineSet();
         historicPriceData.setColor(getResources().getColor(R.color.chartLine));
 
-        if (history == null || history.length() == 0) {
-            return historicPriceData;
-        }
-
-        String[] strDataPoints = history.split("\n");
-        String[] strDataPointSplit;
-        int dataPointsOnChart = Math.min(strDataPoints.length, WEEKS_ON_CHART_DEFAULT);
-        // The history is most-recent first, so the order must be reversed
-        for (int i = dataPointsOnChart - 1; i >= 0; i--) {
-            String strDataPoint = strDataPoints[i];
-            strDataPointSplit = strDataPoint.split(", ");
-            if (strDataPointSplit.length == 2) {
-                String strMillis = strDataPointSplit[0];
-                String strPrice = strDataPointSplit[1];
-
-                try {
-                    String label = getLabel(Long.valueOf(strMillis));
-                    float value = Float.valueOf(strPrice);
-
-                    // Update the max and min value if they are breached
-                    if (i == dataPointsOnChart - 1) {
-                        mMaxPrice = value;
-                        mMinPrice = value;
-                    } else {
-                        if (mMaxPrice < value) {
-                            mMaxPrice = value;
-                        }
-                        if (mMinPrice > value) {
-                            mMinPrice = value;
-                        }
-                    }
-
-                    historicPriceData.addPoint(label, value);
-                } catch (Exception e) {
-                    Timber.d("Error creating HistoricPrice", e);
-                }
-            }
+        // A single calendar and format label every point
+        Calendar calendar = new GregorianCalendar();
+        DateFormat labelFormat =
+                new SimpleDateFormat(chartRange.getLabelPattern(), Locale.getDefault());
+        int labelField = chartRange.getLabelField();
+        int previousValue = 0;
+        for (int i = 0; i < series.size(); i++) {
+            long millis = series.getMillis(i);
+            calendar.setTimeInMillis(millis);
+            int value = calendar.get(labelField);
+
+            // Label the first point of each day, week, month or year, other than the first
+            String label = i > 0 && value != previousValue
+                    ? labelFormat.format(new Date(millis)) : "";
+            historicPriceData.addPoint(label, series.getClose(i));
+            previousValue = value;
         }
-
         return historicPriceData;
     }
 
-    private String getLabel(long millis) {
-        Calendar cal = GregorianCalendar.getInstance();
-        cal.setTimeInMillis(millis);
-
-        //noinspection WrongConstant
-        if (isInFirstWeekOfMonth(cal)) {
-            return cal.getDisplayName(Calendar.MONTH, Calendar.SHORT, Locale.getDefault());
-        } else {
-            return "";
-        }
-    }
-
-    private boolean isInFirstWeekOfMonth(Calendar cal) {
-        int day = cal.get(Calendar.DAY_OF_MONTH);
-        return 1 <= day && day <= 7;
-    }
-
 //    /**
 //     * Returns a list of HistoricPrices corresponding to a stock's history as stored in the
 //     * database as a String
@@ -3,6 +3,9 @@ package com.udacity.stockhawk.ui;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -10,50 +13,115 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import com.udacity.stockhawk.R;
-import com.udacity.stockhawk.data.Contract;
 import com.udacity.stockhawk.data.PrefUtils;
 
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
-import java.util.Locale;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
 
 public class StockAdapter extends RecyclerView.Adapter<StockAdapter.StockViewHolder> {
 
+    /** The payload of a row whose quote has changed: only the quote views are rebound. */
+    private static final Object PAYLOAD_QUOTE = new Object();
+    /** The payload of a row after the display mode is toggled: only the change is rebound. */
+    private static final Object PAYLOAD_DISPLAY_MODE = new Object();
+
+    /** Computes the differences between the displayed rows and those of a new cursor. */
+    private static final Executor diffExecutor = Executors.newSingleThreadExecutor();
+
     private final Context context;
-    private final DecimalFormat dollarFormatWithPlus;
-    private final DecimalFormat dollarFormat;
-    private final DecimalFormat percentageFormat;
-    private Cursor cursor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    /** The rows displayed, read from the cursor when it is set. */
+    private List<QuoteRow> rows = Collections.emptyList();
+    /**
+     * Incremented whenever rows are set, so that a difference computed against rows which
+     * are no longer displayed is discarded.
+     */
+    private int rowsGeneration;
+    /** Whether the absolute change is displayed, rather than the percentage change. */
+    private boolean absoluteChangeDisplayed;
     private final StockAdapterOnClickHandler clickHandler;
 
     StockAdapter(Context context, StockAdapterOnClickHandler clickHandler) {
         this.context = context;
         this.clickHandler = clickHandler;
 
-//        dollarFormat = (DecimalFormat) NumberFormat.getCurrencyInstance(Locale.US);
-//        dollarFormatWithPlus = (DecimalFormat) NumberFormat.getCurrencyInstance(Locale.US);
-//        dollarFormatWithPlus.setPositivePrefix("+$");
-//        percentageFormat = (DecimalFormat) NumberFormat.getPercentInstance(Locale.getDefault());
-//        percentageFormat.setMaximumFractionDigits(2);
-//        percentageFormat.setMinimumFractionDigits(2);
-//        percentageFormat.setPositivePrefix("+");
-        dollarFormat = getDollarFormat();
-        dollarFormatWithPlus = getDollarFormatWithPlus();
-        percentageFormat = getPercentageFormat();
+        // Rows keep their _ID across syncs, so views can be matched to stocks
+        setHasStableIds(true);
     }
 
+    /**
+     * Sets the quotes to display.  The display values of the quotes are read once here, so
+     * that binding a row only assigns them to its views.
+     * The differences from the displayed rows are computed in the background, and only the
+     * rows which were inserted, removed, moved or changed are then notified; a changed row
+     * only has its quote views rebound.
+     * @param cursor a cursor over Contract.Quote.SUMMARY_COLUMNS, or null
+     */
     void setCursor(Cursor cursor) {
-        this.cursor = cursor;
-        notifyDataSetChanged();
+        // The cursor belongs to the loader, so it is read here rather than in the background
+        final List<QuoteRow> newRows = QuoteRow.fromCursor(cursor);
+        final List<QuoteRow> oldRows = rows;
+        final int generation = ++rowsGeneration;
+        absoluteChangeDisplayed = isAbsoluteChangeDisplayed();
+
+        if (oldRows.isEmpty() || newRows.isEmpty()) {
+            // There is nothing to compare
+            rows = newRows;
+            notifyItemRangeRemoved(0, oldRows.size());
+            notifyItemRangeInserted(0, newRows.size());
+            return;
+        }
+
+        diffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult diff =
+                        DiffUtil.calculateDiff(new QuoteRowDiffCallback(oldRows, newRows));
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == rowsGeneration) {
+                            rows = newRows;
+                            diff.dispatchUpdatesTo(StockAdapter.this);
+                        }
+                    }
+                });
+            }
+        });
     }
 
-    String getSymbolAtPosition(int position) {
+    /**
+     * Redisplays the change of each row after the display mode has been toggled.
+     */
+    void refreshDisplayMode() {
+        absoluteChangeDisplayed = isAbsoluteChangeDisplayed();
+        notifyItemRangeChanged(0, rows.size(), PAYLOAD_DISPLAY_MODE);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        // Discard any difference still being computed
+        rowsGeneration++;
+    }
+
+    private boolean isAbsoluteChangeDisplayed() {
+        return PrefUtils.getDisplayMode(context)
+                .equals(context.getString(R.string.pref_display_mode_absolute_key));
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return rows.get(position).getId();
+    }
 
-        cursor.moveToPosition(position);
-        return cursor.getString(Contract.Quote.POSITION_SYMBOL);
+    String getSymbolAtPosition(int position) {
+        return rows.get(position).getSymbol();
     }
 
     @Override
@@ -67,58 +135,90 @@ public class StockAdapter extends RecyclerView.Adapter<StockAdapter.StockViewHol
     @Override
     public void onBindViewHolder(StockViewHolder holder, int position) {
 
-        cursor.moveToPosition(position);
+        QuoteRow row = rows.get(position);
 
+        holder.symbol.setText(row.getSymbol());
+        bindQuote(holder, row);
+    }
 
-        holder.symbol.setText(cursor.getString(Contract.Quote.POSITION_SYMBOL));
-        holder.price.setText(dollarFormat.format(cursor.getFloat(Contract.Quote.POSITION_PRICE)));
+    @Override
+    public void onBindViewHolder(StockViewHolder holder, int position, List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
 
+        QuoteRow row = rows.get(position);
+        if (payloads.contains(PAYLOAD_QUOTE)) {
+            bindQuote(holder, row);
+        } else {
+            bindChange(holder, row);
+        }
+    }
 
-        float rawAbsoluteChange = cursor.getFloat(Contract.Quote.POSITION_ABSOLUTE_CHANGE);
-        float percentageChange = cursor.getFloat(Contract.Quote.POSITION_PERCENTAGE_CHANGE);
+    private void bindQuote(StockViewHolder holder, QuoteRow row) {
+        holder.price.setText(row.getDisplayPrice());
 
-        if (rawAbsoluteChange > 0) {
+        if (row.isUp()) {
             holder.change.setBackgroundResource(R.drawable.percent_change_pill_green);
         } else {
             holder.change.setBackgroundResource(R.drawable.percent_change_pill_red);
         }
+        bindChange(holder, row);
+    }
 
-        String change = dollarFormatWithPlus.format(rawAbsoluteChange);
-        String percentage = percentageFormat.format(percentageChange / 100);
-
-        if (PrefUtils.getDisplayMode(context)
-                .equals(context.getString(R.string.pref_display_mode_absolute_key))) {
-            holder.change.setText(change);
+    private void bindChange(StockViewHolder holder, QuoteRow row) {
+        if (absoluteChangeDisplayed) {
+            holder.change.setText(row.getDisplayAbsoluteChange());
         } else {
-            holder.change.setText(percentage);
+            holder.change.setText(row.getDisplayPercentageChange());
         }
     }
 
     @Override
     public int getItemCount() {
-        int count = 0;
-        if (cursor != null) {
-            count = cursor.getCount();
-        }
-        return count;
+        return rows.size();
     }
 
-    public static DecimalFormat getDollarFormat() {
-        return (DecimalFormat) NumberFormat.getCurrencyInstance(Locale.US);
-    }
+    /**
+     * Compares the displayed rows with new rows.  Rows are matched on their quote, and a
+     * matched row has changed if any of its display values has.
+     */
+    private static class QuoteRowDiffCallback extends DiffUtil.Callback {
 
-    public static DecimalFormat getDollarFormatWithPlus() {
-        DecimalFormat format = getDollarFormat();
-        format.setPositivePrefix("+$");
-        return format;
-    }
+        private final List<QuoteRow> oldRows;
+        private final List<QuoteRow> newRows;
 
-    public static DecimalFormat getPercentageFormat() {
-        DecimalFormat format = (DecimalFormat) NumberFormat.getPercentInstance(Locale.getDefault());
-        format.setMaximumFractionDigits(2);
-        format.setMinimumFractionDigits(2);
-        format.setPositivePrefix("+");
-        return format;
+        QuoteRowDiffCallback(List<QuoteRow> oldRows, List<QuoteRow> newRows) {
+            this.oldRows = oldRows;
+            this.newRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldRows.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newRows.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldRows.get(oldItemPosition).isSameQuoteAs(newRows.get(newItemPosition));
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldRows.get(oldItemPosition).hasSameValuesAs(newRows.get(newItemPosition));
+        }
+
+        @Override
+        public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+            // The symbol of a matched row is unchanged
+            return PAYLOAD_QUOTE;
+        }
     }
 
     interface StockAdapterOnClickHandler {
@@ -146,9 +246,7 @@ public class StockAdapter extends RecyclerView.Adapter<StockAdapter.StockViewHol
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
             if (adapterPosition != RecyclerView.NO_POSITION) {
-                cursor.moveToPosition(adapterPosition);
-                int symbolColumn = cursor.getColumnIndex(Contract.Quote.COLUMN_SYMBOL);
-                clickHandler.onClick(cursor.getString(symbolColumn));
+                clickHandler.onClick(rows.get(adapterPosition).getSymbol());
             }
         }
 
@@ -0,0 +1,277 @@
+package com.udacity.stockhawk.ui;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.udacity.stockhawk.data.Contract;
+import com.udacity.stockhawk.data.HistorySeries;
+
+/**
+ * Loads the quote and chart series of a stock in the background, and reloads them when the
+ * stock changes.
+ * The quote is read without the history; the history is only read and decoded if the cached
+ * series of the stock is older than the stored history.  The hourly bars of the longest
+ * intraday chart range are read on every load, as they are few and change throughout the day,
+ * as are the weekly bars of the longest range charted from them, which an indexed range query
+ * on the history table reads without decoding the rest of the history.
+ */
+class StockDetailLoader extends AsyncTaskLoader<StockDetailLoader.StockDetail> {
+
+    /** The columns of the quote, other than the history. */
+    private static final String[] DETAIL_COLUMNS = {
+            Contract.Quote.COLUMN_SYMBOL,
+            Contract.Quote.COLUMN_DISPLAY_PRICE,
+            Contract.Quote.COLUMN_DISPLAY_ABSOLUTE_CHANGE,
+            Contract.Quote.COLUMN_DISPLAY_PERCENTAGE_CHANGE,
+            Contract.Quote.COLUMN_IS_UP,
+            Contract.Quote.COLUMN_HISTORY_VERSION
+    };
+    private static final int POSITION_SYMBOL = 0;
+    private static final int POSITION_DISPLAY_PRICE = 1;
+    private static final int POSITION_DISPLAY_ABSOLUTE_CHANGE = 2;
+    private static final int POSITION_DISPLAY_PERCENTAGE_CHANGE = 3;
+    private static final int POSITION_IS_UP = 4;
+    private static final int POSITION_HISTORY_VERSION = 5;
+
+    /** The longest chart range which is charted from the hourly bars. */
+    private static final ChartRange LONGEST_INTRADAY_RANGE = ChartRange.ONE_MONTH;
+    /** The longest chart range which is charted from the weekly bars. */
+    private static final ChartRange LONGEST_WEEKLY_RANGE = ChartRange.ONE_YEAR;
+
+    private final Uri stockUri;
+    private final ForceLoadContentObserver observer = new ForceLoadContentObserver();
+    private StockDetail detail;
+    private boolean observing;
+
+    /**
+     * Constructor.
+     * @param context the context
+     * @param stockUri the URI of the stock
+     */
+    StockDetailLoader(Context context, Uri stockUri) {
+        super(context);
+        this.stockUri = stockUri;
+    }
+
+    @Override
+    public StockDetail loadInBackground() {
+        Cursor cursor = getContext().getContentResolver().query(
+                stockUri, DETAIL_COLUMNS, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            String symbol = cursor.getString(POSITION_SYMBOL);
+            long historyVersion = cursor.getLong(POSITION_HISTORY_VERSION);
+
+            ChartSeries series = ChartSeries.getCached(symbol, historyVersion);
+            if (series == null) {
+                series = loadSeries(symbol);
+            }
+
+            return new StockDetail(
+                    symbol,
+                    cursor.getString(POSITION_DISPLAY_PRICE),
+                    cursor.getString(POSITION_DISPLAY_ABSOLUTE_CHANGE),
+                    cursor.getString(POSITION_DISPLAY_PERCENTAGE_CHANGE),
+                    cursor.getInt(POSITION_IS_UP) != 0,
+                    series,
+                    loadHourlyBars(symbol),
+                    loadWeeklyBars(symbol));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads and decodes the stored history of a stock, and its pyramid.  The version is read
+     * with the history, as the history may have changed since the quote was read.
+     */
+    private ChartSeries loadSeries(String symbol) {
+        Cursor cursor = getContext().getContentResolver().query(stockUri,
+                new String[]{
+                        Contract.Quote.COLUMN_HISTORY_VERSION,
+                        Contract.Quote.COLUMN_HISTORY,
+                        Contract.Quote.COLUMN_HISTORY_PYRAMID},
+                null, null, null);
+        try {
+            if (cursor == null || !cursor.moveToFirst()) {
+                return ChartSeries.decode(symbol, -1, null, null);
+            }
+            return ChartSeries.decode(symbol, cursor.getLong(0), cursor.getBlob(1),
+                    cursor.getBlob(2));
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Reads the closes of the hourly bars of a stock in the longest intraday chart range.
+     */
+    private HistorySeries loadHourlyBars(String symbol) {
+        long nowMillis = System.currentTimeMillis();
+        return readCloses(getContext().getContentResolver().query(
+                Contract.Bar.makeUriForStock(symbol, Contract.Bar.RESOLUTION_HOUR,
+                        LONGEST_INTRADAY_RANGE.getStartMillis(nowMillis), nowMillis),
+                new String[]{Contract.Bar.COLUMN_BAR_TIME, Contract.Bar.COLUMN_CLOSE},
+                null,
+                null,
+                Contract.Bar.COLUMN_BAR_TIME + " ASC"));
+    }
+
+    /**
+     * Reads the closes of the weekly bars of a stock in the longest chart range which is
+     * charted from them.
+     */
+    private HistorySeries loadWeeklyBars(String symbol) {
+        long nowMillis = System.currentTimeMillis();
+        return readCloses(getContext().getContentResolver().query(
+                Contract.History.makeUriForStock(symbol,
+                        LONGEST_WEEKLY_RANGE.getStartMillis(nowMillis), nowMillis),
+                new String[]{Contract.History.COLUMN_BAR_TIME, Contract.History.COLUMN_CLOSE},
+                null,
+                null,
+                Contract.History.COLUMN_BAR_TIME + " ASC"));
+    }
+
+    /**
+     * Reads the times and closes of the bars in a cursor, in order, and closes it.
+     * @param cursor a cursor over the time and close of each bar, or null
+     */
+    private static HistorySeries readCloses(Cursor cursor) {
+        try {
+            if (cursor == null) {
+                return HistorySeries.empty();
+            }
+            int count = cursor.getCount();
+            long[] millis = new long[count];
+            float[] closes = new float[count];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                millis[i] = cursor.getLong(0);
+                closes[i] = cursor.getFloat(1);
+            }
+            return HistorySeries.of(millis, closes, count);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (detail != null) {
+            deliverResult(detail);
+        }
+        if (takeContentChanged() || detail == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    public void deliverResult(StockDetail data) {
+        if (isReset()) {
+            return;
+        }
+        if (!observing) {
+            // Reload whenever the quote, whose row holds the history, or the bars change.  The
+            // ticks, which are notified below the stock's URI on every sync, are not displayed,
+            // so descendants of the URIs are not observed.
+            ContentResolver resolver = getContext().getContentResolver();
+            resolver.registerContentObserver(stockUri, false, observer);
+            resolver.registerContentObserver(Contract.Bar.makeNotificationUri(
+                    Contract.Quote.getStockFromUri(stockUri)), false, observer);
+            observing = true;
+        }
+        detail = data;
+        if (isStarted()) {
+            super.deliverResult(data);
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        onStopLoading();
+        getContext().getContentResolver().unregisterContentObserver(observer);
+        observing = false;
+        detail = null;
+    }
+
+    /**
+     * The quote and chart series of a stock.
+     */
+    static final class StockDetail {
+        private final String symbol;
+        private final String displayPrice;
+        private final String displayAbsoluteChange;
+        private final String displayPercentageChange;
+        private final boolean up;
+        private final ChartSeries series;
+        private final HistorySeries hourlyBars;
+        private final HistorySeries weeklyBars;
+
+        StockDetail(String symbol, String displayPrice, String displayAbsoluteChange,
+                    String displayPercentageChange, boolean up, ChartSeries series,
+                    HistorySeries hourlyBars, HistorySeries weeklyBars) {
+            this.symbol = symbol;
+            this.displayPrice = displayPrice;
+            this.displayAbsoluteChange = displayAbsoluteChange;
+            this.displayPercentageChange = displayPercentageChange;
+            this.up = up;
+            this.series = series;
+            this.hourlyBars = hourlyBars;
+            this.weeklyBars = weeklyBars;
+        }
+
+        String getSymbol() {
+            return symbol;
+        }
+
+        String getDisplayPrice() {
+            return displayPrice;
+        }
+
+        String getDisplayAbsoluteChange() {
+            return displayAbsoluteChange;
+        }
+
+        String getDisplayPercentageChange() {
+            return displayPercentageChange;
+        }
+
+        boolean isUp() {
+            return up;
+        }
+
+        ChartSeries getSeries() {
+            return series;
+        }
+
+        /**
+         * Returns the closes of the weekly bars of the longest chart range charted from them.
+         */
+        HistorySeries getWeeklyBars() {
+            return weeklyBars;
+        }
+
+        /**
+         * Returns the closes of the hourly bars of the longest intraday chart range.
+         */
+        HistorySeries getHourlyBars() {
+            return hourlyBars;
+        }
+    }
+}
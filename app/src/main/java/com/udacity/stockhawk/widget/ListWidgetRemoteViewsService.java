@@ -14,9 +14,6 @@ import android.widget.RemoteViewsService;
 import com.udacity.stockhawk.data.Contract;
 import com.udacity.stockhawk.data.PrefUtils;
 import com.udacity.stockhawk.R;
-import com.udacity.stockhawk.ui.StockAdapter;
-
-import java.text.DecimalFormat;
 
 import static android.view.View.GONE;
 import static android.view.View.VISIBLE;
@@ -32,6 +29,8 @@ public class ListWidgetRemoteViewsService extends RemoteViewsService {
     public RemoteViewsFactory onGetViewFactory(Intent intent) {
         return new RemoteViewsFactory() {
             private Cursor cursor = null;
+            /** Whether the absolute change is displayed, rather than the percentage change. */
+            private boolean absoluteChangeDisplayed;
 
             @Override
             public void onCreate() {
@@ -50,13 +49,18 @@ public class ListWidgetRemoteViewsService extends RemoteViewsService {
                 final long identityToken = Binder.clearCallingIdentity();
 
                 cursor = getContentResolver().query(
-                        Contract.Quote.URI,
-                        Contract.Quote.QUOTE_COLUMNS,
+                        Contract.Quote.SUMMARY_URI,
+                        Contract.Quote.SUMMARY_COLUMNS,
                         null,
                         null,
                         Contract.Quote.COLUMN_SYMBOL);
 
                 Binder.restoreCallingIdentity(identityToken);
+
+                // The display mode is read once per data set, rather than once per row
+                Context context = getBaseContext();
+                absoluteChangeDisplayed = PrefUtils.getDisplayMode(context)
+                        .equals(context.getString(R.string.pref_display_mode_absolute_key));
             }
 
             @Override
@@ -88,26 +92,15 @@ public class ListWidgetRemoteViewsService extends RemoteViewsService {
                 views.setTextViewText(R.id.symbol, symbol);
 
                 // price
-                DecimalFormat dollarFormat = StockAdapter.getDollarFormat();
                 views.setTextViewText(R.id.price,
-                        dollarFormat.format(cursor.getFloat(Contract.Quote.POSITION_PRICE)));
+                        cursor.getString(Contract.Quote.POSITION_DISPLAY_PRICE));
 
                 // change
-                float rawAbsoluteChange = cursor.getFloat(Contract.Quote.POSITION_ABSOLUTE_CHANGE);
-                float percentageChange = cursor.getFloat(Contract.Quote.POSITION_PERCENTAGE_CHANGE);
-
-                Context context = getBaseContext();
-
-                String displayedChange;
-                if (PrefUtils.getDisplayMode(context).equals(context.getString(R.string.pref_display_mode_absolute_key))) {
-                    DecimalFormat dollarFormatWithPlus = StockAdapter.getDollarFormatWithPlus();
-                    displayedChange = dollarFormatWithPlus.format(rawAbsoluteChange);
-                } else {
-                    DecimalFormat percentageFormat = StockAdapter.getPercentageFormat();
-                    displayedChange = percentageFormat.format(percentageChange / 100);
-                }
+                String displayedChange = cursor.getString(absoluteChangeDisplayed
+                        ? Contract.Quote.POSITION_DISPLAY_ABSOLUTE_CHANGE
+                        : Contract.Quote.POSITION_DISPLAY_PERCENTAGE_CHANGE);
 
-                if (rawAbsoluteChange > 0) {
+                if (cursor.getInt(Contract.Quote.POSITION_IS_UP) != 0) {
                     views.setViewVisibility(R.id.changeNegative, GONE);
                     views.setTextViewText(R.id.changeNegative, null);
                     views.setTextViewText(R.id.changePositive, displayedChange);
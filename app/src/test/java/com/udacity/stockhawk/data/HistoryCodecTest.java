@@ -0,0 +1,126 @@
+package com.udacity.stockhawk.data;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HistoryCodecTest {
+
+    private static final long ONE_WEEK_MILLIS = 7 * 24 * 60 * 60 * 1000L;
+    /** Closes are stored to 4 decimal places. */
+    private static final float CLOSE_TOLERANCE = 0.00005f;
+
+    @Test
+    public void emptyHistoryRoundTrips() {
+        byte[] encoded = HistoryCodec.empty();
+        assertEquals(0, HistoryCodec.getSize(encoded));
+        assertEquals(0, HistoryCodec.decode(encoded, new long[0], new float[0]));
+        assertEquals(0, HistoryCodec.getSize(null));
+    }
+
+    @Test
+    public void weeklyHistoryRoundTrips() {
+        Random random = new Random(1);
+        int count = 520;
+        long[] millis = new long[count];
+        float[] closes = new float[count];
+        long time = 1476316800000L;
+        float close = 100;
+        for (int i = 0; i < count; i++) {
+            millis[i] = time;
+            closes[i] = close;
+            // Most recent first, with the occasional holiday shifting a point by a day
+            time -= ONE_WEEK_MILLIS + (random.nextInt(10) == 0 ? 24 * 60 * 60 * 1000L : 0);
+            close = Math.max(0.01f, close + (random.nextFloat() - 0.5f) * 4);
+        }
+
+        byte[] encoded = HistoryCodec.encode(millis, closes, count);
+
+        assertEquals(count, HistoryCodec.getSize(encoded));
+        assertRoundTrip(millis, closes, count, encoded);
+        // Regular steps and small changes take a few bytes per point
+        assertTrue(encoded.length < count * 6);
+    }
+
+    @Test
+    public void extremeValuesRoundTrip() {
+        long[] millis = {Long.MAX_VALUE, 0, Long.MIN_VALUE, -1, 1};
+        float[] closes = {0, 123456.7891f, 0.0001f, 99999.9999f, 0};
+        assertRoundTrip(millis, closes, millis.length,
+                HistoryCodec.encode(millis, closes, millis.length));
+    }
+
+    @Test
+    public void onlyCountPointsAreEncoded() {
+        long[] millis = {3, 2, 1};
+        float[] closes = {3, 2, 1};
+        byte[] encoded = HistoryCodec.encode(millis, closes, 2);
+        assertEquals(2, HistoryCodec.getSize(encoded));
+        assertRoundTrip(millis, closes, 2, encoded);
+    }
+
+    @Test
+    public void legacyTextIsDecoded() {
+        byte[] text = "1476316800000, 117.63\nnot a point\n1475712000000, 114.06\n"
+                .getBytes(Charset.forName("UTF-8"));
+        assertTrue(HistoryCodec.isLegacyText(text));
+        assertEquals(2, HistoryCodec.getSize(text));
+
+        long[] millis = new long[2];
+        float[] closes = new float[2];
+        assertEquals(2, HistoryCodec.decode(text, millis, closes));
+        assertArrayEquals(new long[]{1476316800000L, 1475712000000L}, millis);
+        assertArrayEquals(new float[]{117.63f, 114.06f}, closes, 0);
+        assertFalse(HistoryCodec.isLegacyText(HistoryCodec.empty()));
+    }
+
+    @Test
+    public void truncatedHistoryDecodesAsEmpty() {
+        long[] millis = {3 * ONE_WEEK_MILLIS, 2 * ONE_WEEK_MILLIS, ONE_WEEK_MILLIS};
+        float[] closes = {10.5f, 11, 9.25f};
+        byte[] encoded = HistoryCodec.encode(millis, closes, millis.length);
+
+        for (int length = 1; length < encoded.length; length++) {
+            byte[] truncated = Arrays.copyOf(encoded, length);
+            int size = HistoryCodec.getSize(truncated);
+            assertEquals(0, HistoryCodec.decode(truncated, new long[size], new float[size]));
+            assertTrue(HistorySeries.decode(truncated).isEmpty());
+        }
+    }
+
+    @Test
+    public void implausibleCountIsNotTrusted() {
+        // Version 1, then a count of 2^35 points, followed by two bytes
+        byte[] corrupt = {1, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x7F, 2, 2};
+        assertEquals(0, HistoryCodec.getSize(corrupt));
+        assertTrue(HistorySeries.decode(corrupt).isEmpty());
+    }
+
+    @Test
+    public void unterminatedVarintIsCorrupt() {
+        byte[] corrupt = new byte[16];
+        corrupt[0] = 1;
+        Arrays.fill(corrupt, 1, corrupt.length, (byte) 0xFF);
+        assertEquals(0, HistoryCodec.getSize(corrupt));
+        assertEquals(0, HistoryCodec.decode(corrupt, new long[1], new float[1]));
+    }
+
+    private static void assertRoundTrip(long[] millis, float[] closes, int count,
+                                        byte[] encoded) {
+        long[] decodedMillis = new long[count];
+        float[] decodedCloses = new float[count];
+        assertEquals(count, HistoryCodec.decode(encoded, decodedMillis, decodedCloses));
+        for (int i = 0; i < count; i++) {
+            assertEquals(millis[i], decodedMillis[i]);
+            // Half a unit of the fixed-point scale, plus the error of a float of the close
+            assertEquals(closes[i], decodedCloses[i], CLOSE_TOLERANCE + Math.ulp(closes[i]));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.udacity.stockhawk.data;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistoryPyramidTest {
+
+    private static final long ONE_DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long ONE_WEEK_MILLIS = 7 * ONE_DAY_MILLIS;
+    /** The weekly points of about 60 years, enough for several levels. */
+    private static final int POINTS = 3000;
+
+    @Test
+    public void updateMatchesBuild() {
+        Random random = new Random(1);
+        HistorySeries all = makeHistory(random, POINTS);
+        int from = 0;
+        int to = 2000;
+        HistoryPyramid pyramid = HistoryPyramid.build(all.slice(from, to));
+
+        for (int step = 0; step < 200 && to < POINTS; step++) {
+            // Weekly syncs append a point or a few, and the oldest points are dropped
+            to = Math.min(POINTS, to + random.nextInt(6));
+            from += random.nextInt(4);
+            HistorySeries history = all.slice(from, to);
+
+            pyramid = pyramid.update(history);
+            assertSamePyramid(HistoryPyramid.build(history), pyramid);
+        }
+    }
+
+    @Test
+    public void updateOfRewrittenHistoryMatchesBuild() {
+        Random random = new Random(2);
+        HistoryPyramid pyramid = HistoryPyramid.build(makeHistory(random, 2000));
+        // A full refetch may change every point
+        HistorySeries history = makeHistory(random, 2100);
+
+        assertSamePyramid(HistoryPyramid.build(history), pyramid.update(history));
+    }
+
+    @Test
+    public void everyRangeHasAtMostMaxPoints() {
+        HistorySeries history = makeHistory(new Random(3), POINTS);
+        HistoryPyramid pyramid = HistoryPyramid.build(history);
+
+        assertTrue(pyramid.getLevelCount() > 2);
+        for (int i = 0; i < history.size(); i += 97) {
+            HistorySeries range = pyramid.getRange(history.getMillis(i));
+            assertTrue(range.size() <= HistoryPyramid.MAX_POINTS);
+            assertEquals(history.getMillis(history.size() - 1),
+                    range.getMillis(range.size() - 1));
+        }
+        assertTrue(pyramid.getRange(Long.MIN_VALUE).size() <= HistoryPyramid.MAX_POINTS);
+    }
+
+    @Test
+    public void storedLevelsRoundTrip() {
+        HistorySeries history = makeHistory(new Random(4), POINTS);
+        HistoryPyramid pyramid = HistoryPyramid.build(history);
+
+        assertSamePyramid(pyramid, HistoryPyramid.decode(history, pyramid.encodeLevels()));
+    }
+
+    @Test
+    public void corruptLevelIsRebuilt() {
+        HistorySeries history = makeHistory(new Random(5), POINTS);
+        // Version 1, one level, whose encoding is a HistoryCodec version byte and nothing else
+        byte[] corrupt = {1, 0, 0, 0, 1, 0, 0, 0, 1, 1};
+
+        assertSamePyramid(HistoryPyramid.build(history),
+                HistoryPyramid.decode(history, corrupt));
+        assertSamePyramid(HistoryPyramid.build(history),
+                HistoryPyramid.decode(history, new byte[]{1, 0, 0}));
+    }
+
+    @Test
+    public void shortHistoryHasOneLevel() {
+        HistorySeries history = makeHistory(new Random(6), HistoryPyramid.MAX_POINTS);
+        HistoryPyramid pyramid = HistoryPyramid.build(history);
+
+        assertEquals(1, pyramid.getLevelCount());
+        assertEquals(history.size(), pyramid.getRange(Long.MIN_VALUE).size());
+    }
+
+    private static void assertSamePyramid(HistoryPyramid expected, HistoryPyramid actual) {
+        assertEquals(expected.getLevelCount(), actual.getLevelCount());
+        assertArrayEquals(expected.encodeLevels(), actual.encodeLevels());
+    }
+
+    /**
+     * Returns a weekly history, oldest point first, with the occasional holiday moving a point
+     * back a day.
+     */
+    private static HistorySeries makeHistory(Random random, int size) {
+        long[] millis = new long[size];
+        float[] closes = new float[size];
+        long week = 200 * ONE_WEEK_MILLIS;
+        float close = 50;
+        for (int i = 0; i < size; i++) {
+            millis[i] = week - (random.nextInt(20) == 0 ? ONE_DAY_MILLIS : 0);
+            closes[i] = Math.round(close * 100) / 100f;
+            week += ONE_WEEK_MILLIS;
+            close = Math.max(1, close + (random.nextFloat() - 0.5f) * 3);
+        }
+        return HistorySeries.of(millis, closes, size);
+    }
+}
@@ -0,0 +1,132 @@
+package com.udacity.stockhawk.data;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HistorySeriesTest {
+
+    private static final long ONE_WEEK_MILLIS = 7 * 24 * 60 * 60 * 1000L;
+
+    @Test
+    public void rangeMinMaxMatchesScan() {
+        Random random = new Random(1);
+        for (int size : new int[]{1, 2, 3, 7, 8, 9, 64, 100, 257}) {
+            float[] closes = randomCloses(random, size);
+            HistorySeries series = HistorySeries.of(weeklyMillis(size), closes, size);
+
+            for (int from = 0; from < size; from++) {
+                for (int to = from + 1; to <= size; to++) {
+                    assertEquals(scanMin(closes, from, to), series.getMinClose(from, to), 0);
+                    assertEquals(scanMax(closes, from, to), series.getMaxClose(from, to), 0);
+                }
+            }
+            assertEquals(scanMin(closes, 0, size), series.getMinClose(), 0);
+            assertEquals(scanMax(closes, 0, size), series.getMaxClose(), 0);
+        }
+    }
+
+    @Test
+    public void sliceMinMaxMatchesScan() {
+        Random random = new Random(2);
+        int size = 200;
+        float[] closes = randomCloses(random, size);
+        HistorySeries series = HistorySeries.of(weeklyMillis(size), closes, size);
+
+        for (int i = 0; i < 500; i++) {
+            int from = random.nextInt(size);
+            int to = from + 1 + random.nextInt(size - from);
+            HistorySeries slice = series.slice(from, to);
+
+            assertEquals(to - from, slice.size());
+            assertEquals(closes[from], slice.getClose(0), 0);
+            assertEquals(scanMin(closes, from, to), slice.getMinClose(), 0);
+            assertEquals(scanMax(closes, from, to), slice.getMaxClose(), 0);
+
+            // A range of a slice is the same range of the series, offset by the slice
+            int sliceFrom = random.nextInt(slice.size());
+            int sliceTo = sliceFrom + 1 + random.nextInt(slice.size() - sliceFrom);
+            assertEquals(scanMin(closes, from + sliceFrom, from + sliceTo),
+                    slice.getMinClose(sliceFrom, sliceTo), 0);
+            assertEquals(scanMax(closes, from + sliceFrom, from + sliceTo),
+                    slice.getMaxClose(sliceFrom, sliceTo), 0);
+        }
+    }
+
+    @Test
+    public void emptySeriesHasZeroMinMax() {
+        HistorySeries empty = HistorySeries.empty();
+        assertTrue(empty.isEmpty());
+        assertEquals(0, empty.getMinClose(), 0);
+        assertEquals(0, empty.getMaxClose(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyRangeIsRejected() {
+        HistorySeries.of(weeklyMillis(3), new float[]{1, 2, 3}, 3).getMinClose(1, 1);
+    }
+
+    @Test
+    public void fromAndLastSliceByTime() {
+        long[] millis = weeklyMillis(10);
+        HistorySeries series = HistorySeries.of(millis, randomCloses(new Random(3), 10), 10);
+
+        assertEquals(4, series.from(millis[6]).size());
+        assertEquals(4, series.from(millis[6] - 1).size());
+        assertEquals(0, series.from(millis[9] + 1).size());
+        assertSame(series, series.from(Long.MIN_VALUE));
+        assertEquals(millis[7], series.last(3).getMillis(0));
+        assertSame(series, series.last(20));
+    }
+
+    @Test
+    public void decodeReversesToOldestFirst() {
+        long[] millis = {3 * ONE_WEEK_MILLIS, 2 * ONE_WEEK_MILLIS, ONE_WEEK_MILLIS};
+        float[] closes = {12.5f, 11, 10.25f};
+        HistorySeries series = HistorySeries.decode(HistoryCodec.encode(millis, closes, 3));
+
+        assertEquals(3, series.size());
+        assertEquals(ONE_WEEK_MILLIS, series.getMillis(0));
+        assertEquals(10.25f, series.getClose(0), 0);
+        assertEquals(10.25f, series.getMinClose(), 0);
+        assertEquals(12.5f, series.getMaxClose(), 0);
+        assertArrayEquals(HistoryCodec.encode(millis, closes, 3), series.encode());
+    }
+
+    private static long[] weeklyMillis(int size) {
+        long[] millis = new long[size];
+        for (int i = 0; i < size; i++) {
+            millis[i] = 1000 * ONE_WEEK_MILLIS + i * ONE_WEEK_MILLIS;
+        }
+        return millis;
+    }
+
+    private static float[] randomCloses(Random random, int size) {
+        float[] closes = new float[size];
+        for (int i = 0; i < size; i++) {
+            closes[i] = random.nextInt(100000) / 100f;
+        }
+        return closes;
+    }
+
+    private static float scanMin(float[] closes, int from, int to) {
+        float min = Float.MAX_VALUE;
+        for (int i = from; i < to; i++) {
+            min = Math.min(min, closes[i]);
+        }
+        return min;
+    }
+
+    private static float scanMax(float[] closes, int from, int to) {
+        float max = -Float.MAX_VALUE;
+        for (int i = from; i < to; i++) {
+            max = Math.max(max, closes[i]);
+        }
+        return max;
+    }
+}
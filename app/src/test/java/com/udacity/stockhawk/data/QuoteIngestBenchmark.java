@@ -0,0 +1,163 @@
+package com.udacity.stockhawk.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.udacity.stockhawk.BuildConfig;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+import timber.log.Timber;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the rate at which quotes are ingested, in rows per second, for batches of each of
+ * the sizes in the system property "stockhawk.benchmark.rows": through one db.insert() per
+ * row, as before the compiled-statement upserts, and through StockProvider's bulkInsert() and
+ * applyBatch(), both inserting new rows and updating them.
+ * By default only 1k rows are run, to keep the unit tests quick; the full benchmark is run with
+ * -Dstockhawk.benchmark.rows=1000,10000,100000.  The rates are logged through Timber, so are
+ * printed with -Drobolectric.logging=stdout.
+ * Robolectric's SQLite is not the device's, so the rates are only comparable with each other.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class QuoteIngestBenchmark {
+
+    private static final String PROPERTY_ROWS = "stockhawk.benchmark.rows";
+    private static final String DEFAULT_ROWS = "1000";
+    /** The number of weekly points in the history of each quote: one year. */
+    private static final int HISTORY_POINTS = 52;
+
+    private static final Timber.Tree tree = new Timber.DebugTree();
+
+    @BeforeClass
+    public static void plantTree() {
+        Timber.plant(tree);
+    }
+
+    @AfterClass
+    public static void uprootTree() {
+        Timber.uproot(tree);
+    }
+
+    @Test
+    public void insertPerRow() {
+        for (int rows : getRowCounts()) {
+            ContentValues[] values = makeQuotes(rows, 0);
+            SQLiteDatabase db = new DbHelper(RuntimeEnvironment.application)
+                    .getWritableDatabase();
+            db.delete(Contract.Quote.TABLE_NAME, null, null);
+
+            long start = System.nanoTime();
+            db.beginTransaction();
+            try {
+                for (ContentValues value : values) {
+                    db.insert(Contract.Quote.TABLE_NAME, null, value);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            report("db.insert per row", rows, System.nanoTime() - start);
+            db.close();
+        }
+    }
+
+    @Test
+    public void bulkInsert() {
+        for (int rows : getRowCounts()) {
+            StockProvider provider = createProvider();
+
+            long start = System.nanoTime();
+            int inserted = provider.bulkInsert(Contract.Quote.URI, makeQuotes(rows, 0));
+            report("bulkInsert, new rows", rows, System.nanoTime() - start);
+            assertEquals(rows, inserted);
+
+            start = System.nanoTime();
+            int updated = provider.bulkInsert(Contract.Quote.URI, makeQuotes(rows, 1));
+            report("bulkInsert, updated rows", rows, System.nanoTime() - start);
+            assertEquals(rows, updated);
+        }
+    }
+
+    @Test
+    public void applyBatch() throws Exception {
+        for (int rows : getRowCounts()) {
+            StockProvider provider = createProvider();
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>(rows);
+            for (ContentValues value : makeQuotes(rows, 0)) {
+                operations.add(ContentProviderOperation.newInsert(Contract.Quote.URI)
+                        .withValues(value)
+                        .build());
+            }
+
+            long start = System.nanoTime();
+            int applied = provider.applyBatch(operations).length;
+            report("applyBatch, new rows", rows, System.nanoTime() - start);
+            assertEquals(rows, applied);
+        }
+    }
+
+    /**
+     * Creates a provider with an empty quotes table.
+     */
+    private static StockProvider createProvider() {
+        StockProvider provider = Robolectric.buildContentProvider(StockProvider.class)
+                .create().get();
+        provider.delete(Contract.Quote.URI, null, null);
+        return provider;
+    }
+
+    private static int[] getRowCounts() {
+        String[] counts = System.getProperty(PROPERTY_ROWS, DEFAULT_ROWS).split(",");
+        int[] rowCounts = new int[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            rowCounts[i] = Integer.parseInt(counts[i].trim());
+        }
+        return rowCounts;
+    }
+
+    /**
+     * Returns quotes for a number of stocks, each with a year's history.
+     * @param priceOffset added to every price, so that a second batch changes every row
+     */
+    private static ContentValues[] makeQuotes(int rows, float priceOffset) {
+        long[] millis = new long[HISTORY_POINTS];
+        float[] closes = new float[HISTORY_POINTS];
+        for (int i = 0; i < HISTORY_POINTS; i++) {
+            millis[i] = 1476316800000L - i * 7 * 24 * 60 * 60 * 1000L;
+            closes[i] = 100 + i % 7;
+        }
+        byte[] history = HistoryCodec.encode(millis, closes, HISTORY_POINTS);
+
+        ContentValues[] values = new ContentValues[rows];
+        for (int i = 0; i < rows; i++) {
+            ContentValues quoteCV = new ContentValues();
+            quoteCV.put(Contract.Quote.COLUMN_SYMBOL, String.format(Locale.US, "S%06d", i));
+            quoteCV.put(Contract.Quote.COLUMN_PRICE, 100 + priceOffset + i % 100);
+            quoteCV.put(Contract.Quote.COLUMN_ABSOLUTE_CHANGE, 1.5f);
+            quoteCV.put(Contract.Quote.COLUMN_PERCENTAGE_CHANGE, 1.2f);
+            quoteCV.put(Contract.Quote.COLUMN_HISTORY, history);
+            values[i] = quoteCV;
+        }
+        return values;
+    }
+
+    private static void report(String path, int rows, long nanos) {
+        Timber.i(String.format(Locale.US, "%-26s %7d rows  %8.0f rows/s", path, rows,
+                rows / (nanos / 1e9)));
+    }
+}
@@ -0,0 +1,76 @@
+package com.udacity.stockhawk.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.udacity.stockhawk.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the quote cache only ever holds quotes which have been committed.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class StockProviderBatchTest {
+
+    @Before
+    public void setUp() {
+        // The cache is shared by every provider in the process
+        QuoteCache.invalidate();
+    }
+
+    @Test
+    public void rolledBackBatchLeavesNoQuotesInCache() throws Exception {
+        StockProvider provider = Robolectric.buildContentProvider(StockProvider.class)
+                .create().get();
+        provider.insert(Contract.Quote.URI, makeQuote("BATA"));
+        // Load the cache, so that the batch's insert publishes to it
+        assertEquals(1, countSummaries(provider));
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(Contract.Quote.URI)
+                .withValues(makeQuote("BATB")).build());
+        // Ticks cannot be updated, so this operation fails and the batch is rolled back
+        operations.add(ContentProviderOperation.newUpdate(Contract.Tick.URI)
+                .withValue(Contract.Tick.COLUMN_TICK_TIME, 1L).build());
+        try {
+            provider.applyBatch(operations);
+            fail("The batch should have failed");
+        } catch (UnsupportedOperationException expected) {
+            // The batch is rolled back
+        }
+
+        assertEquals(1, countSummaries(provider));
+    }
+
+    private static int countSummaries(StockProvider provider) {
+        Cursor cursor = provider.query(Contract.Quote.SUMMARY_URI,
+                Contract.Quote.SUMMARY_COLUMNS, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues makeQuote(String symbol) {
+        ContentValues quoteCV = new ContentValues();
+        quoteCV.put(Contract.Quote.COLUMN_SYMBOL, symbol);
+        quoteCV.put(Contract.Quote.COLUMN_PRICE, 10f);
+        quoteCV.put(Contract.Quote.COLUMN_ABSOLUTE_CHANGE, 0.5f);
+        quoteCV.put(Contract.Quote.COLUMN_PERCENTAGE_CHANGE, 5f);
+        return quoteCV;
+    }
+}
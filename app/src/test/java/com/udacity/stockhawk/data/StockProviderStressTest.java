@@ -0,0 +1,160 @@
+package com.udacity.stockhawk.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.udacity.stockhawk.BuildConfig;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import timber.log.Timber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a writer syncing every stock in a loop, as the sync job does, while readers query the
+ * quotes, and checks that each read sees the whole of one committed sync: every row of a read
+ * has the price written by the same sync.  The read latencies are logged through Timber, so
+ * are printed with -Drobolectric.logging=stdout.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class StockProviderStressTest {
+
+    private static final int STOCKS = 200;
+    private static final int SYNCS = 100;
+    private static final int READERS = 4;
+
+    private static final Timber.Tree tree = new Timber.DebugTree();
+
+    @BeforeClass
+    public static void plantTree() {
+        Timber.plant(tree);
+    }
+
+    @AfterClass
+    public static void uprootTree() {
+        Timber.uproot(tree);
+    }
+
+    @Test
+    public void readersSeeWholeSyncsWhileWriterSyncs() throws Exception {
+        final StockProvider provider = Robolectric.buildContentProvider(StockProvider.class)
+                .create().get();
+        provider.bulkInsert(Contract.Quote.URI, makeQuotes(0));
+
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(1 + READERS);
+        try {
+            Future<Integer> writer = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    try {
+                        int written = 0;
+                        for (int sync = 1; sync <= SYNCS; sync++) {
+                            written += provider.bulkInsert(Contract.Quote.URI, makeQuotes(sync));
+                        }
+                        return written;
+                    } finally {
+                        writing.set(false);
+                    }
+                }
+            });
+
+            List<Future<List<Long>>> readers = new ArrayList<>();
+            for (int i = 0; i < READERS; i++) {
+                // Half the readers query the table, as the sync does, and half the summary,
+                // as the list does
+                final Uri uri = i % 2 == 0 ? Contract.Quote.URI : Contract.Quote.SUMMARY_URI;
+                readers.add(executor.submit(new Callable<List<Long>>() {
+                    @Override
+                    public List<Long> call() {
+                        List<Long> latencies = new ArrayList<>();
+                        while (writing.get()) {
+                            long start = System.nanoTime();
+                            readWholeSync(provider, uri);
+                            latencies.add(System.nanoTime() - start);
+                        }
+                        return latencies;
+                    }
+                }));
+            }
+
+            assertEquals(STOCKS * SYNCS, (int) writer.get());
+            List<Long> latencies = new ArrayList<>();
+            for (Future<List<Long>> reader : readers) {
+                latencies.addAll(reader.get());
+            }
+            assertTrue("No reads completed", !latencies.isEmpty());
+            report(latencies);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads every quote, and checks that they were all written by the same sync.
+     */
+    private static void readWholeSync(StockProvider provider, Uri uri) {
+        Cursor cursor = provider.query(uri,
+                new String[]{Contract.Quote.COLUMN_SYMBOL, Contract.Quote.COLUMN_PRICE},
+                null, null, null);
+        try {
+            assertEquals(STOCKS, cursor.getCount());
+            float syncPrice = Float.NaN;
+            while (cursor.moveToNext()) {
+                // The price is the sync number plus a fraction which identifies the stock
+                float sync = (float) Math.floor(cursor.getFloat(1));
+                if (Float.isNaN(syncPrice)) {
+                    syncPrice = sync;
+                } else {
+                    assertEquals("Read saw parts of two syncs", syncPrice, sync, 0);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues[] makeQuotes(int sync) {
+        ContentValues[] values = new ContentValues[STOCKS];
+        for (int i = 0; i < STOCKS; i++) {
+            ContentValues quoteCV = new ContentValues();
+            quoteCV.put(Contract.Quote.COLUMN_SYMBOL, String.format(Locale.US, "S%03d", i));
+            quoteCV.put(Contract.Quote.COLUMN_PRICE, 100 + sync + i / 1000f);
+            quoteCV.put(Contract.Quote.COLUMN_ABSOLUTE_CHANGE, 1.5f);
+            quoteCV.put(Contract.Quote.COLUMN_PERCENTAGE_CHANGE, 1.2f);
+            values[i] = quoteCV;
+        }
+        return values;
+    }
+
+    private static void report(List<Long> latencies) {
+        Long[] sorted = latencies.toArray(new Long[latencies.size()]);
+        Arrays.sort(sorted);
+        Timber.i(String.format(Locale.US,
+                "%d reads during %d syncs: p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                sorted.length, SYNCS, sorted[sorted.length / 2] / 1e6,
+                sorted[(int) (sorted.length * 0.99)] / 1e6,
+                Collections.max(latencies) / 1e6));
+    }
+}
@@ -0,0 +1,43 @@
+package com.udacity.stockhawk.sync;
+
+import org.junit.Test;
+
+import static com.udacity.stockhawk.sync.TradingCalendarTest.newYork;
+import static org.junit.Assert.assertEquals;
+
+public class QuoteSyncJobTest {
+
+    private static final TradingCalendar CALENDAR = TradingCalendar.US_EQUITIES;
+    private static final long MINUTE = 60 * 1000L;
+
+    @Test
+    public void syncsEveryMinuteWhileOpen() {
+        assertEquals(MINUTE, QuoteSyncJob.getSyncDelay(CALENDAR, newYork(2026, 10, 13, 11, 0)));
+    }
+
+    @Test
+    public void syncsShortlyAfterTheClose() {
+        assertEquals(3 * MINUTE,
+                QuoteSyncJob.getSyncDelay(CALENDAR, newYork(2026, 10, 13, 16, 2)));
+        // Early closes too
+        assertEquals(4 * MINUTE,
+                QuoteSyncJob.getSyncDelay(CALENDAR, newYork(2026, 11, 27, 13, 1)));
+    }
+
+    @Test
+    public void syncsInfrequentlyWhileClosed() {
+        assertEquals(3 * 60 * MINUTE,
+                QuoteSyncJob.getSyncDelay(CALENDAR, newYork(2026, 10, 17, 12, 0)));
+        assertEquals(3 * 60 * MINUTE,
+                QuoteSyncJob.getSyncDelay(CALENDAR, newYork(2026, 12, 25, 12, 0)));
+    }
+
+    @Test
+    public void syncsAtTheOpen() {
+        assertEquals(90 * MINUTE,
+                QuoteSyncJob.getSyncDelay(CALENDAR, newYork(2026, 10, 19, 8, 0)));
+        // After the observed holiday, rather than on it
+        assertEquals(30 * MINUTE,
+                QuoteSyncJob.getSyncDelay(CALENDAR, newYork(2026, 7, 6, 9, 0)));
+    }
+}
@@ -0,0 +1,179 @@
+package com.udacity.stockhawk.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.udacity.stockhawk.BuildConfig;
+import com.udacity.stockhawk.data.Contract;
+import com.udacity.stockhawk.data.HistoryCodec;
+import com.udacity.stockhawk.data.PrefUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives QuoteSyncRun through YahooQuoteSource against a StandInQuoteServer.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class QuoteSyncRunTest {
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.application;
+        SyncHarness.setUpProvider();
+    }
+
+    @Test
+    public void fullSyncStoresQuoteAndHistory() throws Exception {
+        SyncHarness.recordStock("SYNA", 110, 100, 52);
+        PrefUtils.addStock(context, "SYNA");
+
+        SyncStats stats = SyncHarness.sync(context, null, true);
+
+        assertEquals(1, stats.getChangedRows());
+        Cursor cursor = context.getContentResolver().query(
+                Contract.Quote.makeUriForStock("SYNA"),
+                new String[]{Contract.Quote.COLUMN_PRICE, Contract.Quote.COLUMN_ABSOLUTE_CHANGE,
+                        Contract.Quote.COLUMN_HISTORY},
+                null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(110, cursor.getFloat(0), 0.001);
+            assertEquals(10, cursor.getFloat(1), 0.001);
+            assertEquals(52, HistoryCodec.getSize(cursor.getBlob(2)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void historyTableServesRangesOfSyncedHistory() throws Exception {
+        SyncHarness.recordStock("SYNH", 80, 79, 52);
+        PrefUtils.addStock(context, "SYNH");
+
+        SyncHarness.sync(context, null, true);
+
+        assertEquals(52, countHistoryRows(Contract.History.makeUriForStock("SYNH")));
+        // Ten and a half weeks back reaches the bars of this week and the ten before it
+        long weekMillis = 7 * 24 * 60 * 60 * 1000L;
+        long nowMillis = System.currentTimeMillis();
+        assertEquals(11, countHistoryRows(Contract.History.makeUriForStock("SYNH",
+                nowMillis - 10 * weekMillis - weekMillis / 2, nowMillis + weekMillis)));
+
+        context.getContentResolver().delete(Contract.Quote.makeUriForStock("SYNH"), null, null);
+        assertEquals(0, countHistoryRows(Contract.History.makeUriForStock("SYNH")));
+    }
+
+    @Test
+    public void emptyHistoryDuringRepairKeepsStoredHistory() throws Exception {
+        SyncHarness.recordStock("SYNR", 60, 59, 30);
+        PrefUtils.addStock(context, "SYNR");
+        SyncHarness.sync(context, null, true);
+
+        // The server now returns no history, so the repair must keep the stored one
+        SyncHarness.recordStock("SYNR", 61, 60, 0);
+        SyncHarness.sync(context, null, true);
+
+        Cursor cursor = context.getContentResolver().query(
+                Contract.Quote.makeUriForStock("SYNR"),
+                new String[]{Contract.Quote.COLUMN_HISTORY}, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(30, HistoryCodec.getSize(cursor.getBlob(0)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void unchangedQuoteIsNotRewritten() throws Exception {
+        SyncHarness.recordStock("SYNB", 50, 49, 20);
+        PrefUtils.addStock(context, "SYNB");
+
+        SyncHarness.sync(context, null, false);
+        SyncStats stats = SyncHarness.sync(context, null, false);
+
+        assertEquals(0, stats.getChangedRows());
+        assertEquals(1, stats.getSkippedRows());
+    }
+
+    @Test
+    public void onlyChangedQuoteIsRewritten() throws Exception {
+        SyncHarness.recordStock("SYNE", 40, 39, 20);
+        SyncHarness.recordStock("SYNF", 60, 61, 20);
+        PrefUtils.addStock(context, "SYNE");
+        PrefUtils.addStock(context, "SYNF");
+        SyncHarness.sync(context, null, false);
+
+        SyncHarness.recordStock("SYNE", 41, 39, 20);
+        SyncStats stats = SyncHarness.sync(context, null, false);
+
+        assertEquals(1, stats.getChangedRows());
+        assertEquals(1, stats.getSkippedRows());
+    }
+
+    @Test
+    public void symbolWithoutQuoteIsRemovedFromWatchlist() throws Exception {
+        SyncHarness.recordStock("SYNC", 20, 21, 10);
+        PrefUtils.addStock(context, "SYNC");
+        PrefUtils.addStock(context, "SYNX");
+
+        SyncHarness.sync(context, null, false);
+
+        assertTrue(PrefUtils.getStocks(context).contains("SYNC"));
+        assertFalse(PrefUtils.getStocks(context).contains("SYNX"));
+    }
+
+    @Test
+    public void failingServerKeepsStoredQuote() throws Exception {
+        SyncHarness.recordStock("SYND", 30, 29, 10);
+        PrefUtils.addStock(context, "SYND");
+        SyncHarness.sync(context, null, false);
+
+        StandInQuoteServer server = SyncHarness.getServer();
+        server.setErrorRate(1);
+        try {
+            SyncHarness.sync(context, null, true);
+        } finally {
+            server.setErrorRate(0);
+        }
+
+        assertTrue(PrefUtils.getStocks(context).contains("SYND"));
+        Cursor cursor = context.getContentResolver().query(
+                Contract.Quote.makeUriForStock("SYND"),
+                new String[]{Contract.Quote.COLUMN_HISTORY}, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(10, HistoryCodec.getSize(cursor.getBlob(0)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countHistoryRows(Uri historyUri) {
+        Cursor cursor = context.getContentResolver().query(historyUri,
+                Contract.History.HISTORY_COLUMNS, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package com.udacity.stockhawk.sync;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A local HTTP server which stands in for Yahoo Finance, replaying recorded quote and history
+ * payloads.  It allows the sync job to be exercised and benchmarked without network access,
+ * by pointing a YahooQuoteSource at it:
+ * <pre>
+ *     StandInQuoteServer server = new StandInQuoteServer();
+ *     server.loadRecordings(recordingsDir);
+ *     server.start();
+ *     YahooQuoteSource.setBaseUrls(server.getQuotesUrl(), server.getHistoryUrl());
+ * </pre>
+ * Latency, errors and hangs can be injected to simulate a slow or unreliable service.
+ * SyncHarness runs the sync job against a shared instance.
+ */
+public class StandInQuoteServer implements Closeable {
+
+    private static final String PATH_QUOTES = "/quotes.csv";
+    private static final String PATH_HISTORY = "/table.csv";
+    private static final String DIRECTORY_QUOTES = "quotes";
+    private static final String DIRECTORY_HISTORY = "history";
+    private static final String EXTENSION_CSV = ".csv";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Recorded quote CSV line for each stock symbol. */
+    private final Map<String, String> quotes = new ConcurrentHashMap<>();
+    /** Recorded history CSV, including the header line, for each stock symbol. */
+    private final Map<String, String> histories = new ConcurrentHashMap<>();
+
+    private final ExecutorService connectionExecutor = Executors.newCachedThreadPool();
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private final Random random = new Random();
+
+    private volatile long latencyMillis;
+    private volatile double errorRate;
+    private volatile double hangRate;
+
+    private ServerSocket serverSocket;
+
+    //---------------------------------------------------------------------------
+    // Recordings
+
+    /**
+     * Records the quote payload for a stock.
+     * @param symbol the stock symbol
+     * @param csvLine the CSV line returned by Yahoo Finance for the stock
+     */
+    public void recordQuote(String symbol, String csvLine) {
+        quotes.put(symbol, csvLine.trim());
+    }
+
+    /**
+     * Records the history payload for a stock.
+     * @param symbol the stock symbol
+     * @param csv the CSV returned by Yahoo Finance for the stock's history, including the
+     *            header line
+     */
+    public void recordHistory(String symbol, String csv) {
+        histories.put(symbol, csv);
+    }
+
+    /**
+     * Loads recorded payloads from a directory containing a "quotes" and a "history"
+     * subdirectory, each holding a file named SYMBOL.csv for each stock.
+     * @param directory the directory containing the recordings
+     * @throws IOException if a recording could not be read
+     */
+    public void loadRecordings(File directory) throws IOException {
+        for (Map.Entry<String, String> entry
+                : readCsvFiles(new File(directory, DIRECTORY_QUOTES)).entrySet()) {
+            recordQuote(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, String> entry
+                : readCsvFiles(new File(directory, DIRECTORY_HISTORY)).entrySet()) {
+            recordHistory(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static Map<String, String> readCsvFiles(File directory) throws IOException {
+        Map<String, String> contents = new HashMap<>();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return contents;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(EXTENSION_CSV)) {
+                String symbol = name.substring(0, name.length() - EXTENSION_CSV.length());
+                contents.put(symbol, readFile(file));
+            }
+        }
+        return contents;
+    }
+
+    private static String readFile(File file) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                builder.append(line).append('\n');
+            }
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+        return builder.toString();
+    }
+
+    //---------------------------------------------------------------------------
+    // Fault injection
+
+    /**
+     * Sets the delay before each response is sent.
+     * @param latencyMillis the delay in milliseconds
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Sets the proportion of requests which fail with a server error.
+     * @param errorRate the proportion of failing requests, between 0 and 1
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Sets the proportion of requests which never receive a response, until the server
+     * is closed.
+     * @param hangRate the proportion of hanging requests, between 0 and 1
+     */
+    public void setHangRate(double hangRate) {
+        this.hangRate = hangRate;
+    }
+
+    //---------------------------------------------------------------------------
+    // Server lifecycle
+
+    /**
+     * Starts the server on an ephemeral port of the loopback interface.
+     * @throws IOException if the server socket could not be opened
+     */
+    public synchronized void start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        connectionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    public synchronized String getQuotesUrl() {
+        return getBaseUrl() + PATH_QUOTES;
+    }
+
+    public synchronized String getHistoryUrl() {
+        return getBaseUrl() + PATH_HISTORY;
+    }
+
+    private String getBaseUrl() {
+        if (serverSocket == null) {
+            throw new IllegalStateException("Server has not been started");
+        }
+        return "http://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed.countDown();
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        connectionExecutor.shutdownNow();
+    }
+
+    private void acceptConnections() {
+        while (closed.getCount() > 0) {
+            try {
+                final Socket socket = serverSocket.accept();
+                connectionExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleConnection(socket);
+                    }
+                });
+            } catch (SocketException e) {
+                // the server socket has been closed
+                return;
+            } catch (IOException e) {
+                // try again with the next connection
+            }
+        }
+    }
+
+    //---------------------------------------------------------------------------
+    // Request handling
+
+    private void handleConnection(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), UTF_8));
+            String requestLine = reader.readLine();
+            // Skip the request headers
+            String header;
+            do {
+                header = reader.readLine();
+            } while (header != null && !header.isEmpty());
+
+            if (requestLine == null) {
+                return;
+            }
+
+            double roll;
+            synchronized (random) {
+                roll = random.nextDouble();
+            }
+            if (roll < hangRate) {
+                closed.await();
+                return;
+            }
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            if (roll < hangRate + errorRate) {
+                writeResponse(socket.getOutputStream(), 500, "Internal Server Error", "");
+                return;
+            }
+
+            String body = getResponseBody(requestLine);
+            if (body == null) {
+                writeResponse(socket.getOutputStream(), 404, "Not Found", "");
+            } else {
+                writeResponse(socket.getOutputStream(), 200, "OK", body);
+            }
+        } catch (IOException e) {
+            // the client has gone away
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing more can be done
+            }
+        }
+    }
+
+    /**
+     * Returns the response body for a request.
+     * @param requestLine the request line, e.g. "GET /quotes.csv?s=AAPL HTTP/1.1"
+     * @return the response body, or null if there is no recording for the request
+     */
+    private String getResponseBody(String requestLine) throws UnsupportedEncodingException {
+        String[] requestParts = requestLine.split(" ");
+        if (requestParts.length < 2) {
+            return null;
+        }
+        String target = requestParts[1];
+        int queryStart = target.indexOf('?');
+        String path = queryStart < 0 ? target : target.substring(0, queryStart);
+        Map<String, String> parameters = parseQuery(
+                queryStart < 0 ? "" : target.substring(queryStart + 1));
+
+        String symbols = parameters.get("s");
+        if (symbols == null) {
+            return null;
+        }
+
+        if (PATH_QUOTES.equals(path)) {
+            // Quotes are returned one line per stock, omitting stocks with no recording
+            StringBuilder body = new StringBuilder();
+            for (String symbol : symbols.split(",")) {
+                String quote = quotes.get(symbol);
+                if (quote != null) {
+                    body.append(quote).append('\n');
+                }
+            }
+            return body.toString();
+        } else if (PATH_HISTORY.equals(path)) {
+            String history = histories.get(symbols);
+            if (history == null) {
+                return null;
+            }
+            return filterHistory(history, getDate(parameters, "c", "a", "b"),
+                    getDate(parameters, "f", "d", "e"));
+        }
+        return null;
+    }
+
+    /**
+     * Returns the header line of a history, followed by the lines with dates in a range.
+     * @param history a history CSV, each line of which after the header starts with a date
+     *                in the form yyyy-MM-dd
+     * @param from the start of the range, in the form yyyy-MM-dd, or null for no start
+     * @param to the end of the range, in the form yyyy-MM-dd, or null for no end
+     * @return the filtered history CSV
+     */
+    private static String filterHistory(String history, String from, String to) {
+        StringBuilder body = new StringBuilder();
+        String[] lines = history.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+            if (i > 0) {
+                int dateEnd = line.indexOf(',');
+                String date = dateEnd < 0 ? line : line.substring(0, dateEnd);
+                if ((from != null && date.compareTo(from) < 0)
+                        || (to != null && date.compareTo(to) > 0)) {
+                    continue;
+                }
+            }
+            body.append(line).append('\n');
+        }
+        return body.toString();
+    }
+
+    /**
+     * Returns a date from the parameters of a Yahoo Finance history request.
+     * @return the date in the form yyyy-MM-dd, or null if it is not present
+     */
+    private static String getDate(Map<String, String> parameters,
+                                  String yearKey, String monthKey, String dayKey) {
+        try {
+            int year = Integer.parseInt(parameters.get(yearKey));
+            // Yahoo Finance months are zero-based
+            int month = Integer.parseInt(parameters.get(monthKey)) + 1;
+            int day = Integer.parseInt(parameters.get(dayKey));
+            return String.format(Locale.US, "%04d-%02d-%02d", year, month, day);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query)
+            throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        for (String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, separator), "UTF-8"),
+                        URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static void writeResponse(OutputStream out, int status, String reason, String body)
+            throws IOException {
+        byte[] bodyBytes = body.getBytes(UTF_8);
+        String head = "HTTP/1.1 " + status + " " + reason + "\r\n"
+                + "Content-Type: text/csv; charset=UTF-8\r\n"
+                + "Content-Length: " + bodyBytes.length + "\r\n"
+                + "Connection: close\r\n"
+                + "\r\n";
+        out.write(head.getBytes(UTF_8));
+        out.write(bodyBytes);
+        out.flush();
+    }
+}
@@ -0,0 +1,156 @@
+package com.udacity.stockhawk.sync;
+
+import android.content.Context;
+
+import com.udacity.stockhawk.data.StockProvider;
+
+import org.robolectric.Robolectric;
+
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import yahoofinance.quotes.QuotesProperty;
+import yahoofinance.quotes.stock.StockQuotesRequest;
+
+/**
+ * Runs the sync job, through YahooQuoteSource, against a StandInQuoteServer, with the stock
+ * provider backed by Robolectric's SQLite.
+ * The Yahoo Finance API reads its base URLs once per process, so every test shares one server,
+ * and records its stocks under symbols of its own.
+ */
+final class SyncHarness {
+
+    private static final String NOT_AVAILABLE = "N/A";
+    private static final long ONE_WEEK_MILLIS = 7 * 24 * 60 * 60 * 1000L;
+
+    private static StandInQuoteServer server;
+
+    private SyncHarness() {
+    }
+
+    /**
+     * Returns the shared server, starting it and pointing the Yahoo Finance API at it the first
+     * time it is called.
+     * @return the server
+     * @throws IOException if the server could not be started
+     */
+    static synchronized StandInQuoteServer getServer() throws IOException {
+        if (server == null) {
+            server = new StandInQuoteServer();
+            server.start();
+            YahooQuoteSource.setBaseUrls(server.getQuotesUrl(), server.getHistoryUrl());
+        }
+        return server;
+    }
+
+    /**
+     * Registers the stock provider with Robolectric's content resolver.  This must be called
+     * by each test, as Robolectric resets the resolver between tests.
+     */
+    static void setUpProvider() {
+        Robolectric.buildContentProvider(StockProvider.class).create();
+    }
+
+    /**
+     * Records a quote for a stock, traded now, and a weekly history ending this week.
+     * @param symbol the stock symbol
+     * @param price the latest price
+     * @param previousClose the previous close
+     * @param weeks the number of weekly points in the history
+     * @throws IOException if the server could not be started
+     */
+    static void recordStock(String symbol, float price, float previousClose, int weeks)
+            throws IOException {
+        StandInQuoteServer server = getServer();
+        server.recordQuote(symbol, makeQuoteLine(symbol, price, previousClose));
+        server.recordHistory(symbol, makeHistory(price, weeks));
+    }
+
+    /**
+     * Runs the sync job against the shared server.
+     * @param context the context
+     * @param symbols the symbols of the stocks to sync, or null for the whole watchlist
+     * @param fullHistory whether to fetch the full history of every stock
+     * @return statistics for the sync
+     * @throws IOException if the server could not be started
+     */
+    static SyncStats sync(Context context, Collection<String> symbols, boolean fullHistory)
+            throws IOException {
+        getServer();
+        return new QuoteSyncRun(context, new YahooQuoteSource(), symbols, fullHistory).run();
+    }
+
+    /**
+     * Returns a quote line in the format requested by the Yahoo Finance API: one field for each
+     * of its default properties, in order.
+     */
+    private static String makeQuoteLine(String symbol, float price, float previousClose) {
+        Calendar now = Calendar.getInstance(TimeZone.getTimeZone("America/New_York"), Locale.US);
+        String tradeDate = String.format(Locale.US, "%d/%d/%d", now.get(Calendar.MONTH) + 1,
+                now.get(Calendar.DAY_OF_MONTH), now.get(Calendar.YEAR));
+        String tradeTime = String.format(Locale.US, "%d:%02d%s",
+                now.get(Calendar.HOUR) == 0 ? 12 : now.get(Calendar.HOUR),
+                now.get(Calendar.MINUTE), now.get(Calendar.AM_PM) == Calendar.AM ? "am" : "pm");
+
+        StringBuilder line = new StringBuilder();
+        for (QuotesProperty property : StockQuotesRequest.DEFAULT_PROPERTIES) {
+            if (line.length() > 0) {
+                line.append(',');
+            }
+            switch (property) {
+                case Symbol:
+                    line.append(quote(symbol));
+                    break;
+                case Name:
+                    line.append(quote(symbol + " Inc."));
+                    break;
+                case StockExchange:
+                    line.append(quote("NMS"));
+                    break;
+                case Currency:
+                    line.append(quote("USD"));
+                    break;
+                case LastTradePriceOnly:
+                    line.append(price);
+                    break;
+                case PreviousClose:
+                    line.append(previousClose);
+                    break;
+                case LastTradeDate:
+                    line.append(quote(tradeDate));
+                    break;
+                case LastTradeTime:
+                    line.append(quote(tradeTime));
+                    break;
+                default:
+                    line.append(NOT_AVAILABLE);
+                    break;
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * Returns a weekly history CSV, most recent week first, in the format returned by Yahoo
+     * Finance.
+     */
+    private static String makeHistory(float price, int weeks) {
+        StringBuilder csv = new StringBuilder("Date,Open,High,Low,Close,Volume,Adj Close\n");
+        Calendar week = Calendar.getInstance(Locale.US);
+        for (int i = 0; i < weeks; i++) {
+            // A gentle oscillation, so that the pyramid has shapes to keep
+            float close = price * (1 + 0.1f * (float) Math.sin(i / 5.0));
+            csv.append(String.format(Locale.US, "%1$tY-%1$tm-%1$td,%2$.2f,%2$.2f,%2$.2f,"
+                    + "%2$.2f,1000,%2$.2f\n", week, close));
+            week.setTimeInMillis(week.getTimeInMillis() - ONE_WEEK_MILLIS);
+        }
+        return csv.toString();
+    }
+
+    private static String quote(String value) {
+        return '"' + value + '"';
+    }
+}
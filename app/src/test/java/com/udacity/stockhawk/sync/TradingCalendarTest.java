@@ -0,0 +1,116 @@
+package com.udacity.stockhawk.sync;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TradingCalendarTest {
+
+    private static final TradingCalendar CALENDAR = TradingCalendar.US_EQUITIES;
+    private static final TimeZone NEW_YORK = TimeZone.getTimeZone("America/New_York");
+
+    /**
+     * Returns a time in New York.  Months are one-based.
+     */
+    static long newYork(int year, int month, int day, int hour, int minute) {
+        Calendar calendar = new GregorianCalendar(NEW_YORK);
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+
+    @Test
+    public void openDuringRegularSession() {
+        // Tuesday 13 October 2026
+        assertFalse(CALENDAR.isOpen(newYork(2026, 10, 13, 9, 29)));
+        assertTrue(CALENDAR.isOpen(newYork(2026, 10, 13, 9, 30)));
+        assertTrue(CALENDAR.isOpen(newYork(2026, 10, 13, 15, 59)));
+        assertFalse(CALENDAR.isOpen(newYork(2026, 10, 13, 16, 0)));
+    }
+
+    @Test
+    public void closedAtWeekends() {
+        assertFalse(CALENDAR.isOpen(newYork(2026, 10, 17, 12, 0)));
+        assertFalse(CALENDAR.isOpen(newYork(2026, 10, 18, 12, 0)));
+    }
+
+    @Test
+    public void closedOnHolidays() {
+        // Martin Luther King Day, Washington's Birthday, Good Friday, Memorial Day
+        assertFalse(CALENDAR.isOpen(newYork(2026, 1, 19, 12, 0)));
+        assertFalse(CALENDAR.isOpen(newYork(2026, 2, 16, 12, 0)));
+        assertFalse(CALENDAR.isOpen(newYork(2026, 4, 3, 12, 0)));
+        assertFalse(CALENDAR.isOpen(newYork(2026, 5, 25, 12, 0)));
+        // Juneteenth, Labor Day, Thanksgiving, Christmas
+        assertFalse(CALENDAR.isOpen(newYork(2026, 6, 19, 12, 0)));
+        assertFalse(CALENDAR.isOpen(newYork(2026, 9, 7, 12, 0)));
+        assertFalse(CALENDAR.isOpen(newYork(2026, 11, 26, 12, 0)));
+        assertFalse(CALENDAR.isOpen(newYork(2026, 12, 25, 12, 0)));
+    }
+
+    @Test
+    public void weekendHolidaysAreObserved() {
+        // Independence Day 2026 is a Saturday, so is observed on the Friday
+        assertFalse(CALENDAR.isOpen(newYork(2026, 7, 3, 12, 0)));
+        // New Year's Day 2023 is a Sunday, so is observed on the Monday
+        assertFalse(CALENDAR.isOpen(newYork(2023, 1, 2, 12, 0)));
+        // New Year's Day 2022 is a Saturday, but is not observed on the Friday
+        assertTrue(CALENDAR.isOpen(newYork(2021, 12, 31, 12, 0)));
+    }
+
+    @Test
+    public void juneteenthOnlyFrom2022() {
+        assertTrue(CALENDAR.isOpen(newYork(2021, 6, 18, 12, 0)));
+        assertFalse(CALENDAR.isOpen(newYork(2023, 6, 19, 12, 0)));
+    }
+
+    @Test
+    public void earlyCloses() {
+        // The day after Thanksgiving and Christmas Eve close at 13:00
+        assertTrue(CALENDAR.isOpen(newYork(2026, 11, 27, 12, 59)));
+        assertFalse(CALENDAR.isOpen(newYork(2026, 11, 27, 13, 0)));
+        assertEquals(newYork(2026, 12, 24, 13, 0),
+                CALENDAR.getNextClose(newYork(2026, 12, 24, 10, 0)));
+        // The day before Independence Day, unless it is a Friday
+        assertEquals(newYork(2025, 7, 3, 13, 0),
+                CALENDAR.getNextClose(newYork(2025, 7, 3, 10, 0)));
+        assertEquals(newYork(2020, 7, 2, 16, 0),
+                CALENDAR.getNextClose(newYork(2020, 7, 2, 10, 0)));
+    }
+
+    @Test
+    public void nextOpenSkipsWeekendsAndHolidays() {
+        // From the early close on Friday 27 November to Monday 30 November
+        assertEquals(newYork(2026, 11, 30, 9, 30),
+                CALENDAR.getNextOpen(newYork(2026, 11, 27, 14, 0)));
+        // From Thursday 2 July 2026 over the observed Independence Day
+        assertEquals(newYork(2026, 7, 6, 9, 30),
+                CALENDAR.getNextOpen(newYork(2026, 7, 2, 16, 0)));
+    }
+
+    @Test
+    public void previousCloseSkipsWeekendsAndHolidays() {
+        assertEquals(newYork(2026, 10, 16, 16, 0),
+                CALENDAR.getPreviousClose(newYork(2026, 10, 19, 12, 0)));
+        assertEquals(newYork(2026, 4, 2, 16, 0),
+                CALENDAR.getPreviousClose(newYork(2026, 4, 6, 9, 0)));
+    }
+
+    @Test
+    public void closedBetweenOnlyAcrossASessionClose() {
+        long beforeClose = newYork(2026, 10, 13, 15, 0);
+        long afterClose = newYork(2026, 10, 13, 16, 5);
+        assertFalse(CALENDAR.hasClosedBetween(newYork(2026, 10, 13, 10, 0), beforeClose));
+        assertTrue(CALENDAR.hasClosedBetween(beforeClose, afterClose));
+        assertFalse(CALENDAR.hasClosedBetween(afterClose, newYork(2026, 10, 14, 15, 0)));
+        // Nothing closes over a weekend
+        assertFalse(CALENDAR.hasClosedBetween(newYork(2026, 10, 16, 17, 0),
+                newYork(2026, 10, 19, 9, 0)));
+    }
+}
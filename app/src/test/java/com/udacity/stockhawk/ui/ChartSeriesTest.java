@@ -0,0 +1,68 @@
+package com.udacity.stockhawk.ui;
+
+import com.udacity.stockhawk.BuildConfig;
+import com.udacity.stockhawk.data.HistoryCodec;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the cache of decoded chart series, which uses android.util.LruCache.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class ChartSeriesTest {
+
+    private static final long ONE_WEEK_MILLIS = 7 * 24 * 60 * 60 * 1000L;
+
+    @Test
+    public void decodedSeriesIsCachedForItsVersion() {
+        ChartSeries series = ChartSeries.decode("CHTA", 3, makeHistory(52), null);
+
+        assertSame(series, ChartSeries.getCached("CHTA", 3));
+        assertEquals(52, series.getHistory().size());
+    }
+
+    @Test
+    public void seriesOfAnotherVersionIsNotReturned() {
+        ChartSeries.decode("CHTB", 3, makeHistory(52), null);
+
+        assertNull(ChartSeries.getCached("CHTB", 4));
+        ChartSeries newer = ChartSeries.decode("CHTB", 4, makeHistory(53), null);
+        assertSame(newer, ChartSeries.getCached("CHTB", 4));
+        assertNull(ChartSeries.getCached("CHTB", 3));
+    }
+
+    @Test
+    public void uncachedSymbolIsNotReturned() {
+        assertNull(ChartSeries.getCached("CHTC", 0));
+    }
+
+    @Test
+    public void missingHistoryDecodesAsEmpty() {
+        ChartSeries series = ChartSeries.decode("CHTD", -1, null, null);
+
+        assertTrue(series.getHistory().isEmpty());
+        assertTrue(series.getRange(Long.MIN_VALUE).isEmpty());
+    }
+
+    /**
+     * Returns a weekly history, most recent point first.
+     */
+    private static byte[] makeHistory(int weeks) {
+        long[] millis = new long[weeks];
+        float[] closes = new float[weeks];
+        for (int i = 0; i < weeks; i++) {
+            millis[i] = 1476316800000L - i * ONE_WEEK_MILLIS;
+            closes[i] = 100 + i % 5;
+        }
+        return HistoryCodec.encode(millis, closes, weeks);
+    }
+}